@@ -0,0 +1,75 @@
+package org.langzhaozhi.interval.benchmark;
+
+import java.util.Random;
+
+import org.langzhaozhi.interval.Interval;
+
+/**
+ * 基准测试用的区间和查询点数据,都由固定种子生成,每次运行完全相同
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * 生成 aCount 个按起点排好序、互不相交的区间,均匀分布在整个32位空间中
+     * @param aDense true 时相邻区间首尾相接覆盖整个32位空间; false 时每个区间只占其分段的前一部分,之间留有空隙
+     */
+    static Interval<String> [] intervals(int aCount, boolean aDense, long aSeed) {
+        Random random = new Random( aSeed );
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervals = new Interval [ aCount ];
+        //地址库里绑定对象大量重复,这里也只用少量不同的文本
+        String [] attachments = new String [ 256 ];
+        for (int i = 0; i < attachments.length; ++i) {
+            attachments[ i ] = "归属地" + i;
+        }
+        long step = 0x1_0000_0000L / aCount;
+        for (int i = 0; i < aCount; ++i) {
+            long start = i * step;
+            long end = aDense ? (i == aCount - 1 ? 0xFFFF_FFFFL : start + step - 1) : start + Math.max( 0, random.nextInt( ( int )Math.min( step, Integer.MAX_VALUE ) ) / 2 );
+            intervals[ i ] = new Interval<String>( attachments[ random.nextInt( attachments.length ) ], ( int )start, ( int )end );
+        }
+        return intervals;
+    }
+
+    /**
+     * 生成 aQueryCount 个查询点
+     * @param aPattern sequential: 从一个随机起点开始依次递增; uniform: 32位空间上均匀随机; zipf: 按 Zipf(s=1) 分布偏向少数热点区间
+     */
+    static int [] queries(Interval<String> [] aSortedIntervals, String aPattern, int aQueryCount, long aSeed) {
+        Random random = new Random( aSeed );
+        int [] queries = new int [ aQueryCount ];
+        switch (aPattern) {
+            case "sequential": {
+                int start = random.nextInt();
+                for (int i = 0; i < aQueryCount; ++i) {
+                    queries[ i ] = start + i;
+                }
+                break;
+            }
+            case "uniform": {
+                for (int i = 0; i < aQueryCount; ++i) {
+                    queries[ i ] = random.nextInt();
+                }
+                break;
+            }
+            case "zipf": {
+                int count = aSortedIntervals.length;
+                double logCount = Math.log( count + 1.0 );
+                for (int i = 0; i < aQueryCount; ++i) {
+                    //s=1 的 Zipf 分布的连续近似: P(rank <= k) = ln(k + 1) / ln(count + 1)
+                    long rank = Math.min( count - 1, ( long )Math.exp( random.nextDouble() * logCount ) - 1 );
+                    //把热点名次打散到整个区间数组上,而不是集中在最前面
+                    int index = ( int )((rank * 0x9E37_79B1L) % count);
+                    Interval<String> interval = aSortedIntervals[ index ];
+                    queries[ i ] = ( int )(interval.mStart + (random.nextLong() & Long.MAX_VALUE) % (interval.mEnd - interval.mStart + 1));
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException( "unknown query pattern: " + aPattern );
+        }
+        return queries;
+    }
+}
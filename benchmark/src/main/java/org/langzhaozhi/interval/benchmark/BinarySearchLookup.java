@@ -0,0 +1,51 @@
+package org.langzhaozhi.interval.benchmark;
+
+import org.langzhaozhi.interval.Interval;
+
+/**
+ * DemoOwnershipOfLandForIPv4.doBinarySearch 的二分折半查找,作为比较的基准
+ */
+final class BinarySearchLookup {
+    private final Interval<String> [] mIntervals;
+    private final int [] mSplits;
+
+    BinarySearchLookup(Interval<String> [] aSortedIntervals) {
+        this.mIntervals = aSortedIntervals;
+        this.mSplits = new int [ aSortedIntervals.length ];
+        for (int i = 0; i < aSortedIntervals.length; ++i) {
+            this.mSplits[ i ] = ( int )aSortedIntervals[ i ].mEnd;
+        }
+    }
+
+    Interval<String> getInterval(int aPoint) {
+        long thisIPLong = aPoint & 0xFFFF_FFFFL;
+        int [] splits = this.mSplits;
+        int low = 0;
+        int high = splits.length - 1;
+        int mid = (low + high) >>> 1;
+        long midIPLong = splits[ mid ] & 0xFFFF_FFFFL;
+        while (low < high) {
+            if (midIPLong == thisIPLong) {
+                break;
+            }
+            else {
+                if (midIPLong < thisIPLong) {
+                    low = mid == high ? mid : mid + 1;
+                }
+                else {
+                    high = mid == low ? mid : mid - 1;
+                }
+                mid = (low + high) >>> 1;
+                midIPLong = splits[ mid ] & 0xFFFF_FFFFL;
+            }
+        }
+        if (midIPLong < thisIPLong) {
+            if (mid + 1 == splits.length) {
+                return null;
+            }
+            ++mid;
+        }
+        Interval<String> interval = this.mIntervals[ mid ];
+        return interval.contains( aPoint ) ? interval : null;
+    }
+}
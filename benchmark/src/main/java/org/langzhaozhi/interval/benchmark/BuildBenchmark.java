@@ -0,0 +1,82 @@
+package org.langzhaozhi.interval.benchmark;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.langzhaozhi.interval.FlatIntervalTree;
+import org.langzhaozhi.interval.Interval;
+import org.langzhaozhi.interval.IntervalTree;
+import org.langzhaozhi.interval.IntervalTreeMaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>构造性能: IntervalTreeMaker 单线程构造、并行构造与扁平化构造所花的时间。</p>
+ *
+ * <p>每次调用前都换上一份打乱了顺序的区间数组,因此排序也计算在内。分配速率用 JMH 的 gc profiler 测量:</p>
+ * <pre>
+ * java -jar target/benchmarks.jar BuildBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {
+    "-Xms8g", "-Xmx8g"
+})
+public class BuildBenchmark {
+    @Param({
+        "10", "1000", "100000", "1000000", "10000000"
+    })
+    public int intervalCount;
+
+    @Param({
+        "dense", "sparse"
+    })
+    public String keySpace;
+
+    private Interval<String> [] mShuffledIntervals;
+    private Interval<String> [] mIntervals;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        this.mShuffledIntervals = BenchmarkData.intervals( this.intervalCount, "dense".equals( this.keySpace ), 20150202L );
+        Collections.shuffle( Arrays.asList( this.mShuffledIntervals ), new Random( 20150206L ) );
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        //makeIntervalTree 会就地排序,每次都从打乱的顺序开始
+        this.mIntervals = this.mShuffledIntervals.clone();
+    }
+
+    @Benchmark
+    public IntervalTree<String> makeIntervalTree() {
+        return IntervalTreeMaker.makeIntervalTree( this.mIntervals );
+    }
+
+    @Benchmark
+    public IntervalTree<String> makeIntervalTreeParallel() {
+        return IntervalTreeMaker.makeIntervalTree( this.mIntervals, ForkJoinPool.commonPool() );
+    }
+
+    @Benchmark
+    public FlatIntervalTree<String> makeFlatIntervalTree() {
+        return IntervalTreeMaker.makeFlatIntervalTree( this.mIntervals );
+    }
+}
@@ -0,0 +1,50 @@
+package org.langzhaozhi.interval.benchmark;
+
+import org.langzhaozhi.interval.Interval;
+
+/**
+ * 区间起点按 Eytzinger(即二叉堆的广度优先)顺序排列的分支很少、对缓存友好的二分查找,作为比较的基准
+ */
+final class EytzingerLookup {
+    /**
+     * 下标从1开始的 Eytzinger 顺序的区间起点,已经异或 Integer.MIN_VALUE 以便用有符号比较代替无符号比较
+     */
+    private final int [] mStarts;
+    /**
+     * 与 mStarts 对应的区间
+     */
+    private final Interval<String> [] mIntervals;
+
+    @SuppressWarnings("unchecked")
+    EytzingerLookup(Interval<String> [] aSortedIntervals) {
+        this.mStarts = new int [ aSortedIntervals.length + 1 ];
+        this.mIntervals = new Interval [ aSortedIntervals.length + 1 ];
+        this.fill( aSortedIntervals, 0, 1 );
+    }
+
+    private int fill(Interval<String> [] aSortedIntervals, int aNext, int aIndex) {
+        if (aIndex < this.mStarts.length) {
+            aNext = this.fill( aSortedIntervals, aNext, aIndex << 1 );
+            this.mStarts[ aIndex ] = ( int )aSortedIntervals[ aNext ].mStart ^ Integer.MIN_VALUE;
+            this.mIntervals[ aIndex ] = aSortedIntervals[ aNext++ ];
+            aNext = this.fill( aSortedIntervals, aNext, (aIndex << 1) + 1 );
+        }
+        return aNext;
+    }
+
+    Interval<String> getInterval(int aPoint) {
+        int point = aPoint ^ Integer.MIN_VALUE;
+        int [] starts = this.mStarts;
+        int index = 1;
+        while (index < starts.length) {
+            index = (index << 1) + (starts[ index ] <= point ? 1 : 0);
+        }
+        //去掉最后连续的向左走以及之前的那一次向右走,剩下的就是最后一次向右走的节点,即起点不大于aPoint的最后一个区间
+        index >>>= Integer.numberOfTrailingZeros( index ) + 1;
+        if (index == 0) {
+            return null;
+        }
+        Interval<String> interval = this.mIntervals[ index ];
+        return interval.contains( aPoint ) ? interval : null;
+    }
+}
@@ -0,0 +1,179 @@
+package org.langzhaozhi.interval.benchmark;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.langzhaozhi.interval.FlatIntervalTree;
+import org.langzhaozhi.interval.Interval;
+import org.langzhaozhi.interval.IntervalTree;
+import org.langzhaozhi.interval.IntervalStride;
+import org.langzhaozhi.interval.IntervalTreeMaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>查询性能:区间树、扁平化区间树、批量查询与二分折半、TreeMap.floorEntry、Eytzinger 布局的比较。</p>
+ *
+ * <p>每次调用查询 QUERY_COUNT 个预先生成的点,结果都交给 Blackhole 以免被JIT当作死代码消除,
+ * 报告的是平均每个点的纳秒数。例如:</p>
+ * <pre>
+ * java -jar target/benchmarks.jar LookupBenchmark -p intervalCount=100000 -p queryPattern=zipf
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+    "-Xms8g", "-Xmx8g"
+})
+public class LookupBenchmark {
+    static final int QUERY_COUNT = 1 << 16;
+
+    @Param({
+        "10", "1000", "100000", "1000000", "10000000"
+    })
+    public int intervalCount;
+
+    /**
+     * dense: 区间首尾相接覆盖整个32位空间; sparse: 区间之间留有空隙,约一半的查询点落空
+     */
+    @Param({
+        "dense", "sparse"
+    })
+    public String keySpace;
+
+    @Param({
+        "sequential", "uniform", "zipf"
+    })
+    public String queryPattern;
+
+    private int [] mQueries;
+    private IntervalTree<String> mIntervalTree;
+    private FlatIntervalTree<String> mFlatIntervalTree;
+    private BinarySearchLookup mBinarySearch;
+    private TreeMap<Long, Interval<String>> mTreeMap;
+    private EytzingerLookup mEytzinger;
+    private Interval<String> [] mBatchOut;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Interval<String> [] intervals = BenchmarkData.intervals( this.intervalCount, "dense".equals( this.keySpace ), 20150202L );
+        this.mQueries = BenchmarkData.queries( intervals, this.queryPattern, LookupBenchmark.QUERY_COUNT, 20150206L );
+        this.mIntervalTree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        this.mFlatIntervalTree = IntervalTreeMaker.makeFlatIntervalTree( intervals.clone() );
+        this.mBinarySearch = new BinarySearchLookup( intervals );
+        this.mTreeMap = new TreeMap<Long, Interval<String>>();
+        for (Interval<String> interval : intervals) {
+            this.mTreeMap.put( interval.mStart, interval );
+        }
+        this.mEytzinger = new EytzingerLookup( intervals );
+        this.mBatchOut = new Interval [ LookupBenchmark.QUERY_COUNT ];
+        //各种实现的结果必须一致,否则比较速度没有意义
+        for (int query : this.mQueries) {
+            Interval<String> expected = this.mIntervalTree.getInterval( query );
+            if (this.mFlatIntervalTree.getInterval( query ) != expected || this.mBinarySearch.getInterval( query ) != expected || this.mEytzinger.getInterval( query ) != expected) {
+                throw new IllegalStateException( "lookup mismatch at point " + (query & 0xFFFF_FFFFL) );
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void intervalTree(Blackhole aBlackhole) {
+        IntervalTree<String> tree = this.mIntervalTree;
+        for (int query : this.mQueries) {
+            aBlackhole.consume( tree.getInterval( query ) );
+        }
+    }
+
+    /**
+     * 稀疏节点采用位图编码的区间树单独放在一个状态里,只有 sparseNodeTree 的分叉才构造和查询它,
+     * 否则其它分叉预热时见到位图编码的节点会改变 intervalTree 中 getInterval 的编译结果
+     */
+    @State(Scope.Benchmark)
+    public static class SparseNodeState {
+        private IntervalTree<String> mTree;
+
+        @Setup
+        public void setup(LookupBenchmark aBenchmark) {
+            Interval<String> [] intervals = BenchmarkData.intervals( aBenchmark.intervalCount, "dense".equals( aBenchmark.keySpace ), 20150202L );
+            this.mTree = IntervalTreeMaker.makeIntervalTree( intervals, IntervalStride.STRIDE_8_8_8_8, null, true );
+            for (int query : aBenchmark.mQueries) {
+                if (this.mTree.getIntervalIndex( query ) != aBenchmark.mIntervalTree.getIntervalIndex( query )) {
+                    throw new IllegalStateException( "lookup mismatch at point " + (query & 0xFFFF_FFFFL) );
+                }
+            }
+        }
+    }
+
+    /**
+     * 稀疏节点采用位图编码的区间树,与默认全部稠密编码的 intervalTree 比较
+     */
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void sparseNodeTree(SparseNodeState aState, Blackhole aBlackhole) {
+        IntervalTree<String> tree = aState.mTree;
+        for (int query : this.mQueries) {
+            aBlackhole.consume( tree.getInterval( query ) );
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public Interval<String> [] intervalTreeBatch() {
+        this.mIntervalTree.getIntervals( this.mQueries, 0, this.mQueries.length, this.mBatchOut );
+        return this.mBatchOut;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void flatIntervalTree(Blackhole aBlackhole) {
+        FlatIntervalTree<String> tree = this.mFlatIntervalTree;
+        for (int query : this.mQueries) {
+            aBlackhole.consume( tree.getInterval( query ) );
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void binarySearch(Blackhole aBlackhole) {
+        BinarySearchLookup binarySearch = this.mBinarySearch;
+        for (int query : this.mQueries) {
+            aBlackhole.consume( binarySearch.getInterval( query ) );
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void treeMapFloorEntry(Blackhole aBlackhole) {
+        TreeMap<Long, Interval<String>> treeMap = this.mTreeMap;
+        for (int query : this.mQueries) {
+            Map.Entry<Long, Interval<String>> entry = treeMap.floorEntry( query & 0xFFFF_FFFFL );
+            aBlackhole.consume( entry != null && entry.getValue().contains( query ) ? entry.getValue() : null );
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LookupBenchmark.QUERY_COUNT)
+    public void eytzinger(Blackhole aBlackhole) {
+        EytzingerLookup eytzinger = this.mEytzinger;
+        for (int query : this.mQueries) {
+            aBlackhole.consume( eytzinger.getInterval( query ) );
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>LongIntervalTree 和 Int128IntervalTree 共用的按字节划分的Trie节点，和 IntervalTree.IntervalNode 完全是同样的结构：
+ * 每层取键的一个字节，儿子数组覆盖[mMin,mMax]，空隙部分填成下一个儿子。</p>
+ *
+ * @param <V> 叶子节点上的区间类型
+ */
+final class ByteTrieNode<V> {
+    int mOwnerChar;
+    int mMin, mMax;//当min==max时就是一个点,这里用int是取无符号8位整形
+    ByteTrieNode<V> mParentNode;
+    ByteTrieNode<V> [] mChildrenNodes;
+
+    V mValue;
+
+    ByteTrieNode(int aOwnerChar, int aMin, int aMax) {
+        if (aMin > aMax) {
+            throw new Error();
+        }
+        this.mOwnerChar = aOwnerChar;
+        this.mMin = aMin;
+        this.mMax = aMax;
+        @SuppressWarnings("unchecked")
+        ByteTrieNode<V> [] childrenNodes = new ByteTrieNode [ aMax - aMin + 1 ];
+        this.mChildrenNodes = childrenNodes;
+    }
+
+    ByteTrieNode(int aChar, V aValue) {
+        //叶子节点
+        this.mOwnerChar = aChar;
+        this.mMin = aChar;
+        this.mMax = aChar;
+        this.mValue = aValue;
+    }
+
+    ByteTrieNode<V> firstLeafNode() {
+        ByteTrieNode<V> searchNode = this;
+        while (searchNode.mChildrenNodes != null) {
+            searchNode = searchNode.mChildrenNodes[ 0 ];
+        }
+        return searchNode;
+    }
+
+    /**
+     * @return 此节点之下最深的叶子相对此节点的层数,叶子本身是0
+     */
+    int maxDepth() {
+        int maxDepth = 0;
+        if (this.mChildrenNodes != null) {
+            for (int i = 0; i < this.mChildrenNodes.length; ++i) {
+                //空隙处填的是下一个儿子,同一个儿子只算一次
+                if (i == 0 || this.mChildrenNodes[ i ] != this.mChildrenNodes[ i - 1 ]) {
+                    maxDepth = Math.max( maxDepth, this.mChildrenNodes[ i ].maxDepth() + 1 );
+                }
+            }
+        }
+        return maxDepth;
+    }
+
+    /**
+     * 取排好序的第 aIndex 个区间起点或终点的第 aDepth 个字节(从最高字节开始)
+     */
+    interface KeyByteFunction {
+        int keyByte(int aIndex, int aDepth);
+    }
+
+    /**
+     * <p>由按无符号起点排好序且互不相交的区间构造Trie。</p>
+     *
+     * <p>叶子一般在第 aDepth 层。但如果某个 aDepth 字节前缀块中有不只一个区间的终点,或者一个区间的终点与下一个区间的起点落在同一块中,
+     * 只凭这 aDepth 个字节区分不开,这时只在该块下面继续按后面的字节加深,直到区分开为止(最多 aKeyBytes 层),其它块不受影响。</p>
+     * @param aSortedValues 排好序的区间
+     * @param aDepth 层数,即一般情况下参与划分的最高字节个数
+     * @param aKeyBytes 键的字节数,即最大层数
+     * @param aStartByteFunction 取区间起点各字节
+     * @param aEndByteFunction 取区间终点各字节
+     * @return 虚根节点
+     */
+    static <V> ByteTrieNode<V> make(V [] aSortedValues, int aDepth, int aKeyBytes, KeyByteFunction aStartByteFunction, KeyByteFunction aEndByteFunction) {
+        return ByteTrieNode.make( aSortedValues, 0, aSortedValues.length, 0, '\0', aDepth, aKeyBytes, aStartByteFunction, aEndByteFunction );
+    }
+
+    private static <V> ByteTrieNode<V> make(V [] aSortedValues, int aLeft, int aRight, int aDepth, int aOwnerChar, int aTrieDepth, int aKeyBytes, KeyByteFunction aStartByteFunction, KeyByteFunction aEndByteFunction) {
+        ByteTrieNode<V> thisNode = new ByteTrieNode<V>( aOwnerChar, aEndByteFunction.keyByte( aLeft, aDepth ), aEndByteFunction.keyByte( aRight - 1, aDepth ) );
+        for (int i = aLeft, fillFrom = 0; i < aRight;) {
+            int childChar = aEndByteFunction.keyByte( i, aDepth );
+            int childRight = i + 1;
+            while (childRight < aRight && aEndByteFunction.keyByte( childRight, aDepth ) == childChar) {
+                ++childRight;
+            }
+            ByteTrieNode<V> childNode;
+            if (aDepth + 1 >= aTrieDepth && childRight == i + 1 && (i + 1 == aSortedValues.length || !ByteTrieNode.samePrefix( i, aDepth, aStartByteFunction, aEndByteFunction ))) {
+                childNode = new ByteTrieNode<V>( childChar, aSortedValues[ i ] );
+            }
+            else if (aDepth + 1 == aKeyBytes) {
+                throw new Error();//互不相交的区间的各个边界用全部字节一定能区分开
+            }
+            else {
+                //需要更多的字节才能区分开,只在这一块下面加深
+                childNode = ByteTrieNode.make( aSortedValues, i, childRight, aDepth + 1, childChar, aTrieDepth, aKeyBytes, aStartByteFunction, aEndByteFunction );
+            }
+            childNode.mParentNode = thisNode;
+            //同 IntervalTreeMaker 一样把前面空隙部分填成此儿子
+            for (int fillTo = childChar - thisNode.mMin; fillFrom <= fillTo; ++fillFrom) {
+                thisNode.mChildrenNodes[ fillFrom ] = childNode;
+            }
+            i = childRight;
+        }
+        return thisNode;
+    }
+
+    /**
+     * @return 第 aIndex 个区间的终点与第 aIndex + 1 个区间的起点的最高 aDepth + 1 个字节是否都相同
+     */
+    private static boolean samePrefix(int aIndex, int aDepth, KeyByteFunction aStartByteFunction, KeyByteFunction aEndByteFunction) {
+        for (int depth = 0; depth <= aDepth; ++depth) {
+            if (aEndByteFunction.keyByte( aIndex, depth ) != aStartByteFunction.keyByte( aIndex + 1, depth )) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
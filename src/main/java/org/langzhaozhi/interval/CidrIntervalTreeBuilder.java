@@ -0,0 +1,134 @@
+package org.langzhaozhi.interval;
+
+import java.util.Arrays;
+
+/**
+ * <p>由 CIDR 前缀构造最长前缀匹配的区间树。</p>
+ *
+ * <p>路由表和地址库通常是嵌套的 CIDR 前缀，例如 10.0.0.0/8 里面还有更具体的 10.1.0.0/16。
+ * 本构造器接受任意嵌套的(前缀,长度,绑定对象)，构造时按最长前缀优先的规则直接切分成互不相交的区间送入 IntervalTreeMaker，
+ * 查询结果就是最长前缀匹配的结果。完全相同的前缀以后加入的为准。</p>
+ *
+ * <p>加入的前缀只用基本类型数组保存，排序也是对 long[] 的排序，因此百万级以上前缀的批量加载也不会产生大量临时对象。</p>
+ *
+ * <p>非线程安全。</p>
+ * @param <T>
+ */
+public final class CidrIntervalTreeBuilder<T> {
+    /**
+     * 排序键: 高32位是前缀的网络地址异或 Integer.MIN_VALUE(使有符号排序等同于无符号排序),
+     * 其后6位是前缀长度,最低26位是加入的顺序号
+     */
+    private static final int INDEX_BITS = 26;
+    private static final int MAX_COUNT = 1 << CidrIntervalTreeBuilder.INDEX_BITS;
+
+    private long [] mSortKeys;
+    private Object [] mAttachments;
+    private int mCount;
+
+    public CidrIntervalTreeBuilder() {
+        this( 1024 );
+    }
+
+    /**
+     * @param aExpectedCount 预计的前缀个数
+     */
+    public CidrIntervalTreeBuilder(int aExpectedCount) {
+        this.mSortKeys = new long [ Math.max( aExpectedCount, 16 ) ];
+        this.mAttachments = new Object [ this.mSortKeys.length ];
+    }
+
+    /**
+     * 加入一个 CIDR 前缀
+     * @param aPrefix 网络地址,主机位会被忽略
+     * @param aLength 前缀长度,0到32
+     * @param aAttachment 绑定对象
+     * @return this
+     */
+    public CidrIntervalTreeBuilder<T> add(int aPrefix, int aLength, T aAttachment) {
+        if (aLength < 0 || aLength > 32) {
+            throw new IllegalArgumentException( "aLength must be in [0,32]: " + aLength );
+        }
+        if (this.mCount == CidrIntervalTreeBuilder.MAX_COUNT) {
+            throw new IllegalStateException( "too many prefixes: " + this.mCount );
+        }
+        if (this.mCount == this.mSortKeys.length) {
+            int newLength = ( int )Math.min( this.mSortKeys.length * 2L, CidrIntervalTreeBuilder.MAX_COUNT );
+            this.mSortKeys = Arrays.copyOf( this.mSortKeys, newLength );
+            this.mAttachments = Arrays.copyOf( this.mAttachments, newLength );
+        }
+        int network = aLength == 0 ? 0 : aPrefix & (0xFFFF_FFFF << (32 - aLength));
+        this.mSortKeys[ this.mCount ] = (( long )(network ^ Integer.MIN_VALUE) << 32) | (( long )aLength << CidrIntervalTreeBuilder.INDEX_BITS) | this.mCount;
+        this.mAttachments[ this.mCount ] = aAttachment;
+        ++this.mCount;
+        return this;
+    }
+
+    public int size() {
+        return this.mCount;
+    }
+
+    /**
+     * 按最长前缀优先切分成互不相交的区间并构造区间树
+     * @return 最长前缀匹配的区间树
+     */
+    public IntervalTree<T> build() {
+        if (this.mCount == 0) {
+            throw new IllegalStateException( "no prefix added" );
+        }
+        long [] sortKeys = Arrays.copyOf( this.mSortKeys, this.mCount );
+        //按网络地址由小到大,相同网络地址按长度由短到长(即由外到内),再按加入顺序
+        Arrays.parallelSort( sortKeys );
+        //扫描线：栈中是当前由外到内嵌套的前缀,cursor是下一个还没有输出的位置;CIDR前缀之间只有嵌套或不相交两种关系
+        long [] stackStarts = new long [ 33 ];
+        long [] stackEnds = new long [ 33 ];
+        int [] stackIndexes = new int [ 33 ];
+        int top = -1;
+        long cursor = 0;
+        @SuppressWarnings("unchecked")
+        Interval<T> [] pieces = new Interval [ Math.min( this.mCount * 2 + 1, CidrIntervalTreeBuilder.MAX_COUNT ) ];
+        int pieceCount = 0;
+        for (long sortKey : sortKeys) {
+            int index = ( int )sortKey & (CidrIntervalTreeBuilder.MAX_COUNT - 1);
+            int length = ( int )(sortKey >>> CidrIntervalTreeBuilder.INDEX_BITS) & 0x3F;
+            long start = ((sortKey >>> 32) ^ 0x8000_0000L) & 0xFFFF_FFFFL;
+            long end = start + (1L << (32 - length)) - 1;
+            while (top >= 0 && stackEnds[ top ] < start) {
+                //栈顶前缀已经结束,输出其剩下的部分
+                if (cursor <= stackEnds[ top ]) {
+                    pieces = this.addPiece( pieces, pieceCount++, stackIndexes[ top ], cursor, stackEnds[ top ] );
+                }
+                cursor = stackEnds[ top-- ] + 1;
+            }
+            if (top >= 0 && stackStarts[ top ] == start && stackEnds[ top ] == end) {
+                //完全相同的前缀,以后加入的为准
+                stackIndexes[ top ] = index;
+                continue;
+            }
+            if (top >= 0 && cursor < start) {
+                //外层前缀在此前缀之前的部分
+                pieces = this.addPiece( pieces, pieceCount++, stackIndexes[ top ], cursor, start - 1 );
+            }
+            stackStarts[ ++top ] = start;
+            stackEnds[ top ] = end;
+            stackIndexes[ top ] = index;
+            cursor = start;
+        }
+        for (; top >= 0; --top) {
+            if (cursor <= stackEnds[ top ]) {
+                pieces = this.addPiece( pieces, pieceCount++, stackIndexes[ top ], cursor, stackEnds[ top ] );
+            }
+            cursor = stackEnds[ top ] + 1;
+        }
+        //切分出来的区间已经有序且互不相交,直接构造
+        return IntervalTreeMaker.makeSortedIntervalTree( pieceCount == pieces.length ? pieces : Arrays.copyOf( pieces, pieceCount ) );
+    }
+
+    private Interval<T> [] addPiece(Interval<T> [] aPieces, int aPieceIndex, int aAttachmentIndex, long aStart, long aEnd) {
+        Interval<T> [] pieces = aPieceIndex < aPieces.length ? aPieces : Arrays.copyOf( aPieces, aPieces.length * 2 );
+        @SuppressWarnings("unchecked")
+        T attachment = ( T )this.mAttachments[ aAttachmentIndex ];
+        pieces[ aPieceIndex ] = new Interval<T>( attachment, ( int )aStart, ( int )aEnd );
+        return pieces;
+    }
+}
@@ -0,0 +1,106 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>合并了相邻同绑定对象区间的区间树，由 IntervalTreeMaker.makeCoalescedIntervalTree 构造。</p>
+ *
+ * <p>地址库里常有一长串首尾相接且归属地相同的区间，每个都占一个叶子节点还会撑宽上层节点的儿子数组。
+ * 构造时把首尾相接(前一个的终点加1就是后一个的起点)且绑定对象相等的区间合并成一个，
+ * 合并后区间的绑定对象取其中第一个原始区间的绑定对象。本对象同时是合并的映射报告：
+ * 合并后序号为 m 的区间由排序后的原始区间 [getOriginalFrom(m), getOriginalTo(m)) 合并而来，
+ * getOriginalInterval 可以在需要时恢复原始的区间粒度。</p>
+ *
+ * <p>不变对象，可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class CoalescedIntervalTree<T> {
+    private final IntervalTree<T> mTree;
+    /**
+     * 按无符号起点排好序的原始区间
+     */
+    private final Interval<T> [] mOriginalIntervals;
+    /**
+     * 合并后序号为 m 的区间对应原始区间下标 [mOriginalOffsets[m], mOriginalOffsets[m + 1])
+     */
+    private final int [] mOriginalOffsets;
+
+    CoalescedIntervalTree(IntervalTree<T> aTree, Interval<T> [] aOriginalIntervals, int [] aOriginalOffsets) {
+        this.mTree = aTree;
+        this.mOriginalIntervals = aOriginalIntervals;
+        this.mOriginalOffsets = aOriginalOffsets;
+    }
+
+    /**
+     * @return 由合并后的区间构造的区间树,其区间序号就是合并后的序号
+     */
+    public IntervalTree<T> getTree() {
+        return this.mTree;
+    }
+
+    /**
+     * 获取一个点aPoint所属的合并后的区间,等同于 getTree().getInterval(aPoint)
+     */
+    public Interval<T> getInterval(int aPoint) {
+        return this.mTree.getInterval( aPoint );
+    }
+
+    /**
+     * 获取一个点aPoint所属的原始区间:先在区间树中找到合并后的区间,再在它所合并的原始区间中二分查找
+     * @param aPoint 一个点
+     * @return 参数aPoint所在的原始区间
+     */
+    public Interval<T> getOriginalInterval(int aPoint) {
+        int mergedIndex = this.mTree.getIntervalIndex( aPoint );
+        if (mergedIndex < 0) {
+            return null;
+        }
+        //合并在一起的原始区间首尾相接,找最后一个起点不大于aPoint的即可
+        long point = aPoint & 0xFFFF_FFFFL;
+        int low = this.mOriginalOffsets[ mergedIndex ];
+        int high = this.mOriginalOffsets[ mergedIndex + 1 ] - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.mOriginalIntervals[ mid ].mStart <= point) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return this.mOriginalIntervals[ low ];
+    }
+
+    /**
+     * @return 合并后的区间个数
+     */
+    public int getMergedCount() {
+        return this.mOriginalOffsets.length - 1;
+    }
+
+    /**
+     * @return 原始区间个数
+     */
+    public int getOriginalCount() {
+        return this.mOriginalIntervals.length;
+    }
+
+    /**
+     * @return 合并后序号为 aMergedIndex 的区间所合并的第一个原始区间的下标
+     */
+    public int getOriginalFrom(int aMergedIndex) {
+        return this.mOriginalOffsets[ aMergedIndex ];
+    }
+
+    /**
+     * @return 合并后序号为 aMergedIndex 的区间所合并的最后一个原始区间的下标加1
+     */
+    public int getOriginalTo(int aMergedIndex) {
+        return this.mOriginalOffsets[ aMergedIndex + 1 ];
+    }
+
+    /**
+     * @return 按无符号起点排序后下标为 aOriginalIndex 的原始区间
+     */
+    public Interval<T> getOriginalIntervalAt(int aOriginalIndex) {
+        return this.mOriginalIntervals[ aOriginalIndex ];
+    }
+}
@@ -0,0 +1,28 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>扁平布局上的批量查询。这是 Java 8 的版本，逐个调用 FlatLayout.search。</p>
+ *
+ * <p>多版本JAR中 META-INF/versions/17 下有同名的另一个实现：运行在 JDK 17 及以上并且加了 --add-modules jdk.incubator.vector 时，
+ * 用 Vector API 一次在多个SIMD通道上同时查找多个点，否则同样退回逐个查找。两个版本的包、类名和方法签名必须完全一致。</p>
+ */
+final class FlatBatchSearch {
+    private FlatBatchSearch() {
+    }
+
+    /**
+     * @return 批量查询是否是向量化的
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * aOut[i] = aLayout.search(aPoints[i]), i 属于 [aFrom, aTo)
+     */
+    static void search(FlatLayout aLayout, int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        for (int i = aFrom; i < aTo; ++i) {
+            aOut[ i ] = aLayout.search( aPoints[ i ] );
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>扁平化的32位无符号整型区间划分树，由 IntervalTreeMaker.makeFlatIntervalTree 构造。</p>
+ *
+ * <p>查询语义与 IntervalTree 完全相同，只是所有节点都紧凑地存放在几个连续的 int[] 中，
+ * 叶子直接指向一个按序排列的 Interval<T>[] ，不再有大量的小节点对象和父子引用，
+ * 因此内存占用更低，在全速查询下的缓存未命中也更少。</p>
+ *
+ * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class FlatIntervalTree<T> {
+    private final FlatLayout mLayout;
+    /**
+     * 按无符号起点排好序的区间,下标就是区间序号
+     */
+    private final Interval<T> [] mIntervals;
+
+    FlatIntervalTree(FlatLayout aLayout, Interval<T> [] aSortedIntervals) {
+        this.mLayout = aLayout;
+        this.mIntervals = aSortedIntervals;
+    }
+
+    /**
+     * 获取一个点aPoint所属的区间,每次查询都是恒常的至多四步
+     * @param aPoint 一个点
+     * @return 参数aPoint所在的区间
+     */
+    public Interval<T> getInterval(int aPoint) {
+        int index = this.mLayout.search( aPoint );
+        return index >= 0 ? this.mIntervals[ index ] : null;
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的区间序号
+     * @param aPoint 一个点
+     * @return 区间序号,即按无符号起点排序后的下标, -1 表示不在任何区间内
+     */
+    public int getIntervalIndex(int aPoint) {
+        return this.mLayout.search( aPoint );
+    }
+
+    /**
+     * 批量获取各点所属区间的区间序号: aOut[i] = getIntervalIndex(aPoints[i]), i 属于 [aFrom, aTo)。
+     * 在 JDK 17 以上启用了 jdk.incubator.vector 时是向量化查找的,见 FlatBatchSearch
+     */
+    public void getIntervalIndexes(int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        if (aFrom < 0 || aFrom > aTo || aTo > aPoints.length || aTo > aOut.length) {
+            throw new IndexOutOfBoundsException( "aFrom=" + aFrom + ", aTo=" + aTo + ", length=" + aPoints.length );
+        }
+        FlatBatchSearch.search( this.mLayout, aPoints, aFrom, aTo, aOut );
+    }
+
+    FlatLayout getLayout() {
+        return this.mLayout;
+    }
+
+    public int getIntervalCount() {
+        return this.mIntervals.length;
+    }
+
+    public Interval<T> getIntervalAt(int aIntervalIndex) {
+        return this.mIntervals[ aIntervalIndex ];
+    }
+}
@@ -0,0 +1,182 @@
+package org.langzhaozhi.interval;
+
+import java.util.Arrays;
+
+/**
+ * <p>扁平化的区间树节点布局：所有内部节点紧凑地放在几个连续的 int[] 中，按广度优先顺序编号，根节点编号为0。</p>
+ *
+ * <p>和 IntervalTree.IntervalNode 一样是按区间 mEnd 的最高8位、次高8位、次低8位、最低8位形成的四层Trie，
+ * 空隙处同样填成下一个儿子。不同的是每个节点额外记下其子树的第一个叶子和子树之后的下一个叶子，
+ * 因此查询时不再需要沿父节点回溯，始终是恒定的至多四步数组下标访问，没有任何对象引用的跳转。</p>
+ *
+ * <p>不变对象，可以任意多线程并发访问。</p>
+ */
+final class FlatLayout implements FlatNodeAccess {
+    /**
+     * 每个内部节点在 mNodes 中占用的 int 个数
+     */
+    static final int NODE_INTS = 4;
+    /**
+     * 节点的 min、max、ownerChar 三个无符号8位值合成一个int: min | max << 8 | ownerChar << 16
+     */
+    static final int NODE_BOUNDS = 0;
+    /**
+     * 节点的儿子在 mChildren 中的起始下标
+     */
+    static final int NODE_CHILD_OFFSET = 1;
+    /**
+     * 节点子树中的第一个叶子序号
+     */
+    static final int NODE_FIRST_LEAF = 2;
+    /**
+     * 节点子树之后的下一个叶子序号,没有就是 -1
+     */
+    static final int NODE_NEXT_LEAF = 3;
+
+    /**
+     * 各内部节点数据,每个节点依次占用 NODE_INTS 个int
+     */
+    final int [] mNodes;
+    /**
+     * 各节点的儿子,每个节点占用 max - min + 1 个：非负值是内部节点编号，负值 ~leaf 是叶子序号
+     */
+    final int [] mChildren;
+    /**
+     * 各叶子区间的 [start, end], 都已经异或 Integer.MIN_VALUE 以便直接用有符号比较代替无符号比较
+     */
+    final int [] mLeafBounds;
+    final int mLeafCount;
+
+    FlatLayout(int [] aNodes, int [] aChildren, int [] aLeafBounds, int aLeafCount) {
+        this.mNodes = aNodes;
+        this.mChildren = aChildren;
+        this.mLeafBounds = aLeafBounds;
+        this.mLeafCount = aLeafCount;
+    }
+
+    @Override
+    public int nodeInt(int aIndex) {
+        return this.mNodes[ aIndex ];
+    }
+
+    @Override
+    public int childInt(int aIndex) {
+        return this.mChildren[ aIndex ];
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的叶子序号,每次查询都是恒常的至多四步
+     * @param aPoint 一个点
+     * @return 叶子序号, -1 表示不在任何区间内
+     */
+    int search(int aPoint) {
+        int leaf = FlatLayout.searchLeaf( this, aPoint );
+        return leaf >= 0 && this.containsPoint( leaf, aPoint ) ? leaf : -1;
+    }
+
+    /**
+     * 在 aAccess 给出的扁平布局上按 8-8-8-8 四层走到点aPoint可能所属的叶子,恒常的至多四步。
+     * 堆上的 FlatLayout 和映射的 MappedIntervalTree 共用这一个走法,调用方再自行检查叶子区间是否真的包含aPoint
+     * @param aAccess 节点数据
+     * @param aPoint 一个点
+     * @return 候选叶子序号, -1 表示aPoint之后再没有叶子
+     */
+    static int searchLeaf(FlatNodeAccess aAccess, int aPoint) {
+        for (int depth = 0, node = 0;; ++depth) {
+            int base = node * FlatLayout.NODE_INTS;
+            int bounds = aAccess.nodeInt( base + FlatLayout.NODE_BOUNDS );
+            int depthChar = ((aPoint >>> IntervalTree.BIT_MOVE_COUNT[ depth ]) & 0xFF);
+            int min = bounds & 0xFF;
+            if (depthChar < min) {
+                return aAccess.nodeInt( base + FlatLayout.NODE_FIRST_LEAF );
+            }
+            else if (depthChar > ((bounds >>> 8) & 0xFF)) {
+                //不用回溯,直接就是此子树之后的下一个叶子
+                return aAccess.nodeInt( base + FlatLayout.NODE_NEXT_LEAF );
+            }
+            else {
+                int child = aAccess.childInt( aAccess.nodeInt( base + FlatLayout.NODE_CHILD_OFFSET ) + depthChar - min );
+                if (child < 0) {
+                    return ~child;//第4层数据叶子
+                }
+                else if (((aAccess.nodeInt( child * FlatLayout.NODE_INTS + FlatLayout.NODE_BOUNDS ) >>> 16) & 0xFF) != depthChar) {
+                    return aAccess.nodeInt( child * FlatLayout.NODE_INTS + FlatLayout.NODE_FIRST_LEAF );
+                }
+                else {
+                    node = child;
+                }
+            }
+        }
+    }
+
+    boolean containsPoint(int aLeaf, int aPoint) {
+        int point = aPoint ^ Integer.MIN_VALUE;
+        return this.mLeafBounds[ aLeaf << 1 ] <= point && point <= this.mLeafBounds[ (aLeaf << 1) + 1 ];
+    }
+
+    /**
+     * 由已经按无符号排好序且互不相交的区间构造扁平布局
+     * @param aStarts 各区间的起点
+     * @param aEnds 各区间的终点
+     * @param aCount 区间个数
+     */
+    static FlatLayout make(int [] aStarts, int [] aEnds, int aCount) {
+        int [] leafBounds = new int [ aCount << 1 ];
+        for (int i = 0; i < aCount; ++i) {
+            leafBounds[ i << 1 ] = aStarts[ i ] ^ Integer.MIN_VALUE;
+            leafBounds[ (i << 1) + 1 ] = aEnds[ i ] ^ Integer.MIN_VALUE;
+        }
+        //广度优先构造:节点编号就是其在队列中的位置,构造时 NODE_FIRST_LEAF/NODE_NEXT_LEAF 暂存节点所管辖的区间下标范围[left,right)
+        int [] nodes = new int [ FlatLayout.NODE_INTS * 64 ];
+        int [] children = new int [ 256 ];
+        int nodeCount = 1, childCount = 0;
+        nodes[ FlatLayout.NODE_FIRST_LEAF ] = 0;
+        nodes[ FlatLayout.NODE_NEXT_LEAF ] = aCount;
+        for (int node = 0, depth = 0, levelEnd = 1; node < nodeCount; ++node) {
+            if (node == levelEnd) {
+                ++depth;
+                levelEnd = nodeCount;
+            }
+            int base = node * FlatLayout.NODE_INTS, left = nodes[ base + FlatLayout.NODE_FIRST_LEAF ], right = nodes[ base + FlatLayout.NODE_NEXT_LEAF ];
+            int shift = IntervalTree.BIT_MOVE_COUNT[ depth ];
+            int min = (aEnds[ left ] >>> shift) & 0xFF, max = (aEnds[ right - 1 ] >>> shift) & 0xFF;
+            int childOffset = childCount;
+            childCount += max - min + 1;
+            if (childCount > children.length) {
+                children = Arrays.copyOf( children, Math.max( childCount, children.length << 1 ) );
+            }
+            for (int i = left, fillFrom = childOffset; i < right;) {
+                int childChar = (aEnds[ i ] >>> shift) & 0xFF;
+                int childRight = i + 1;
+                while (childRight < right && ((aEnds[ childRight ] >>> shift) & 0xFF) == childChar) {
+                    ++childRight;
+                }
+                int child;
+                if (depth == 3) {
+                    child = ~i;//第4层就是数据叶子
+                }
+                else {
+                    child = nodeCount++;
+                    if (nodeCount * FlatLayout.NODE_INTS > nodes.length) {
+                        nodes = Arrays.copyOf( nodes, nodes.length << 1 );
+                    }
+                    int childBase = child * FlatLayout.NODE_INTS;
+                    nodes[ childBase + FlatLayout.NODE_BOUNDS ] = childChar << 16;
+                    nodes[ childBase + FlatLayout.NODE_FIRST_LEAF ] = i;
+                    nodes[ childBase + FlatLayout.NODE_NEXT_LEAF ] = childRight;
+                }
+                //同 IntervalTreeMaker 一样把前面空隙部分填成此儿子
+                for (int fillTo = childOffset + childChar - min; fillFrom <= fillTo; ++fillFrom) {
+                    children[ fillFrom ] = child;
+                }
+                i = childRight;
+            }
+            nodes[ base + FlatLayout.NODE_BOUNDS ] |= min | (max << 8);
+            nodes[ base + FlatLayout.NODE_CHILD_OFFSET ] = childOffset;
+            if (right == aCount) {
+                nodes[ base + FlatLayout.NODE_NEXT_LEAF ] = -1;
+            }
+        }
+        return new FlatLayout( Arrays.copyOf( nodes, nodeCount * FlatLayout.NODE_INTS ), Arrays.copyOf( children, childCount ), leafBounds, aCount );
+    }
+}
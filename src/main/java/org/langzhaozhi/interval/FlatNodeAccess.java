@@ -0,0 +1,19 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>扁平布局节点数据的只读访问。FlatLayout 的节点在堆上的 int[] 中，MappedIntervalTree 的节点在映射的缓冲区中，
+ * 两者都通过本接口交给 FlatLayout.searchLeaf，四层查找的走法因此只有一份。</p>
+ *
+ * <p>实现必须是不变的，可以任意多线程并发访问。</p>
+ */
+interface FlatNodeAccess {
+    /**
+     * @return 节点数据中第 aIndex 个int, 布局见 FlatLayout.NODE_INTS 等常量
+     */
+    int nodeInt(int aIndex);
+
+    /**
+     * @return 儿子数据中第 aIndex 个int: 非负值是内部节点编号，负值 ~leaf 是叶子序号
+     */
+    int childInt(int aIndex);
+}
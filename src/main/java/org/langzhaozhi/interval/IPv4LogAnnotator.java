@@ -0,0 +1,315 @@
+package org.langzhaozhi.interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/**
+ * <p>大日志文件的并行IPv4归属标注：把输入文件按行对齐切成若干块，每块单独内存映射后交给 ForkJoinPool 并行处理。
+ * 每行按分隔符取出地址字段，直接在映射的字节上解析点分十进制地址(同 IntervalFileLoader)，不创建 String、不用 split 和 Integer.parseInt；
+ * 每块中的地址攒成一批用 IntervalTree.getIntervalIndexes 批量查询，日志中相邻行的地址往往相近，批量查询可以复用上一个点的查找路径。</p>
+ *
+ * <p>标注输出时各块的结果在块内写成一个字节数组，由调用线程按块的顺序依次写出，因此输出行的顺序与输入完全一致；
+ * 同时在途的块数限制为并行度的两倍，内存占用与文件大小无关。也可以只统计落在各区间内的行数而不输出。</p>
+ *
+ * <p>各块之间没有任何共享的可变状态，吞吐量随核数近似线性增长，直到磁盘带宽成为瓶颈。
+ * 统计时计数数组的长度是区间序号的上限，因此不是每块一个，而是每个执行块的线程一个，同一线程上的块依次执行不必同步，全部块完成之后再合并。</p>
+ * @param <T>
+ */
+public final class IPv4LogAnnotator<T> {
+    /**
+     * 默认每块的字节数
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 21;
+    /**
+     * 一行不能超过1G,与 IntervalFileLoader 的映射窗口相同
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+    /**
+     * 每批查询的地址个数
+     */
+    private static final int BATCH_SIZE = 4096;
+
+    private final IntervalTree<T> mTree;
+    private final int mFieldIndex;
+    private final byte mSeparator;
+    private final int mChunkSize;
+    private final ForkJoinPool mPool;
+
+    /**
+     * 地址是以空格分隔的第一个字段,例如 Nginx/Apache 的访问日志;使用 ForkJoinPool.commonPool()
+     * @param aTree 区间树
+     */
+    public IPv4LogAnnotator(IntervalTree<T> aTree) {
+        this( aTree, 0, ' ', IPv4LogAnnotator.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * @param aTree 区间树
+     * @param aFieldIndex 地址是第几个字段,从0开始
+     * @param aSeparator 字段分隔符,单字节字符;标注时也用它把标签接在行尾
+     * @param aChunkSize 每块的字节数,块的边界会向后移到下一个行首
+     * @param aPool 并行处理各块的线程池
+     */
+    public IPv4LogAnnotator(IntervalTree<T> aTree, int aFieldIndex, char aSeparator, int aChunkSize, ForkJoinPool aPool) {
+        if (aFieldIndex < 0) {
+            throw new IllegalArgumentException( "aFieldIndex: " + aFieldIndex );
+        }
+        if (aSeparator > 0x7F || aSeparator == '\n') {
+            throw new IllegalArgumentException( "aSeparator must be a single byte character other than '\\n'" );
+        }
+        if (aChunkSize <= 0 || aChunkSize > IPv4LogAnnotator.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException( "aChunkSize: " + aChunkSize );
+        }
+        this.mTree = aTree;
+        this.mFieldIndex = aFieldIndex;
+        this.mSeparator = ( byte )aSeparator;
+        this.mChunkSize = aChunkSize;
+        this.mPool = aPool;
+    }
+
+    /**
+     * 在输入文件的每行末尾(换行符之前)加上分隔符和所在区间的标签,按原来的顺序写入输出文件
+     * @param aInput 输入日志文件
+     * @param aOutput 输出文件,已存在时覆盖
+     * @param aEncoder 把绑定对象编码成标签字节,相等的绑定对象只编码一次
+     * @param aMissLabel 地址不在任何区间内或者地址字段格式不对时的标签
+     * @return 处理的行数
+     */
+    public long annotate(Path aInput, Path aOutput, Function<? super T, byte []> aEncoder, byte [] aMissLabel) throws IOException {
+        byte [][] labels = this.encodeLabels( aEncoder, aMissLabel );
+        try (FileChannel output = FileChannel.open( aOutput, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE )) {
+            return this.process( aInput, labels, null, output );
+        }
+    }
+
+    /**
+     * 统计落在各区间内的行数
+     * @param aInput 输入日志文件
+     * @return 下标为区间序号(见 IntervalTree.getIntervalIndex),长度为 getIntervalIndexLimit() + 1,
+     *         最后一项是地址不在任何区间内或者地址字段格式不对的行数
+     */
+    public long [] aggregate(Path aInput) throws IOException {
+        ConcurrentHashMap<Thread, long []> workerCounts = new ConcurrentHashMap<Thread, long []>();
+        this.process( aInput, null, workerCounts, null );
+        long [] counts = new long [ this.mTree.getIntervalIndexLimit() + 1 ];
+        for (long [] threadCounts : workerCounts.values()) {
+            for (int i = 0; i < counts.length; ++i) {
+                counts[ i ] += threadCounts[ i ];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return 下标为区间序号的标签,最后一项是 aMissLabel
+     */
+    private byte [][] encodeLabels(Function<? super T, byte []> aEncoder, byte [] aMissLabel) {
+        int limit = this.mTree.getIntervalIndexLimit();
+        byte [][] labels = new byte [ limit + 1 ][];
+        HashMap<T, byte []> encoded = new HashMap<T, byte []>();
+        for (Interval<T> interval : this.mTree.toIntervalArray()) {
+            labels[ this.mTree.getIntervalIndex( ( int )interval.mStart ) ] = interval.mAttachment == null ? aMissLabel : encoded.computeIfAbsent( interval.mAttachment, aEncoder );
+        }
+        labels[ limit ] = aMissLabel;
+        return labels;
+    }
+
+    /**
+     * @param aWorkerCounts 不为 null 时统计行数,键是执行块的线程,值是该线程的计数数组
+     */
+    private long process(Path aInput, byte [][] aLabels, ConcurrentHashMap<Thread, long []> aWorkerCounts, FileChannel aOutput) throws IOException {
+        long lineCount = 0;
+        try (FileChannel input = FileChannel.open( aInput, StandardOpenOption.READ )) {
+            long size = input.size();
+            ArrayDeque<ForkJoinTask<Chunk>> pendingTasks = new ArrayDeque<ForkJoinTask<Chunk>>();
+            int maxPending = this.mPool.getParallelism() * 2;
+            long position = 0;
+            try {
+                while (position < size || !pendingTasks.isEmpty()) {
+                    if (position < size && pendingTasks.size() < maxPending) {
+                        long chunkEnd = IPv4LogAnnotator.nextLineStart( input, Math.min( size, position + this.mChunkSize ), size );
+                        if (chunkEnd - position > IPv4LogAnnotator.MAX_CHUNK_SIZE) {
+                            throw new IOException( "line too long near offset " + position + ": " + aInput );
+                        }
+                        MappedByteBuffer buffer = input.map( FileChannel.MapMode.READ_ONLY, position, chunkEnd - position );
+                        pendingTasks.add( this.mPool.submit( () -> this.processChunk( buffer, aLabels, aWorkerCounts ) ) );
+                        position = chunkEnd;
+                        continue;
+                    }
+                    //按块的顺序取结果,保证输出与输入的行序一致
+                    Chunk chunk = IPv4LogAnnotator.join( pendingTasks.poll() );
+                    lineCount += chunk.mLineCount;
+                    if (aOutput != null) {
+                        ByteBuffer outBuffer = ByteBuffer.wrap( chunk.mBytes, 0, chunk.mLength );
+                        while (outBuffer.hasRemaining()) {
+                            aOutput.write( outBuffer );
+                        }
+                    }
+                }
+            }
+            catch (IOException | RuntimeException | Error e) {
+                //某块失败或者写出失败时,已经提交的其它块不再需要,取消之后再抛出,不让它们继续占用线程池
+                for (ForkJoinTask<Chunk> task : pendingTasks) {
+                    task.cancel( true );
+                }
+                throw e;
+            }
+        }
+        return lineCount;
+    }
+
+    private static Chunk join(ForkJoinTask<Chunk> aTask) throws IOException {
+        try {
+            return aTask.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e );
+        }
+        catch (ExecutionException e) {
+            throw new IOException( e.getCause() );
+        }
+    }
+
+    /**
+     * @return aFrom 处或之后的第一个行首, aFrom 本身在行首(前一个字节是换行)时就是 aFrom
+     */
+    private static long nextLineStart(FileChannel aInput, long aFrom, long aSize) throws IOException {
+        if (aFrom >= aSize) {
+            return aSize;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( 4096 );
+        for (long position = aFrom - 1;;) {
+            buffer.clear();
+            int read = aInput.read( buffer, position );
+            if (read <= 0) {
+                return aSize;
+            }
+            for (int i = 0; i < read; ++i) {
+                if (buffer.get( i ) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * 处理一块,在 ForkJoinPool 的工作线程上执行
+     */
+    private Chunk processChunk(ByteBuffer aBuffer, byte [][] aLabels, ConcurrentHashMap<Thread, long []> aWorkerCounts) {
+        int limit = aBuffer.limit();
+        int missIndex = this.mTree.getIntervalIndexLimit();
+        //同一线程上的块依次执行,共用一个计数数组
+        long [] counts = aWorkerCounts == null ? null : aWorkerCounts.computeIfAbsent( Thread.currentThread(), (aThread) -> new long [ missIndex + 1 ] );
+        Chunk chunk = new Chunk( aBuffer, aLabels != null ? limit + (limit >>> 2) + 64 : 0 );
+        int [] points = new int [ IPv4LogAnnotator.BATCH_SIZE ];
+        int [] indexes = new int [ IPv4LogAnnotator.BATCH_SIZE ];
+        //每批各行的起止位置,起点为负表示地址字段格式不对
+        int [] lineStarts = new int [ IPv4LogAnnotator.BATCH_SIZE ];
+        int [] lineEnds = new int [ IPv4LogAnnotator.BATCH_SIZE ];
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int count = 0;
+            for (; count < IPv4LogAnnotator.BATCH_SIZE && lineStart < limit; ++count) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && aBuffer.get( lineEnd ) != '\n') {
+                    ++lineEnd;
+                }
+                long address = this.parseField( aBuffer, lineStart, lineEnd );
+                points[ count ] = ( int )address;
+                lineStarts[ count ] = address < 0 ? ~lineStart : lineStart;
+                lineEnds[ count ] = lineEnd;
+                lineStart = lineEnd + 1;
+            }
+            this.mTree.getIntervalIndexes( points, 0, count, indexes );
+            for (int i = 0; i < count; ++i) {
+                int index = lineStarts[ i ] < 0 || indexes[ i ] < 0 ? missIndex : indexes[ i ];
+                if (counts != null) {
+                    ++counts[ index ];
+                }
+                if (aLabels != null) {
+                    chunk.appendLine( lineStarts[ i ] < 0 ? ~lineStarts[ i ] : lineStarts[ i ], lineEnds[ i ], limit, this.mSeparator, aLabels[ index ] );
+                }
+            }
+            chunk.mLineCount += count;
+        }
+        return chunk;
+    }
+
+    /**
+     * @return 第 mFieldIndex 个字段按点分十进制解析出的32位无符号地址,格式不对或没有这个字段时返回 -1
+     */
+    private long parseField(ByteBuffer aBuffer, int aLineStart, int aLineEnd) {
+        int fieldStart = aLineStart;
+        for (int field = 0; field < this.mFieldIndex; ++field) {
+            while (fieldStart < aLineEnd && aBuffer.get( fieldStart ) != this.mSeparator) {
+                ++fieldStart;
+            }
+            if (fieldStart == aLineEnd) {
+                return -1;
+            }
+            ++fieldStart;
+        }
+        int fieldEnd = fieldStart;
+        while (fieldEnd < aLineEnd && aBuffer.get( fieldEnd ) != this.mSeparator) {
+            ++fieldEnd;
+        }
+        //只认点分十进制,单独的数字(例如状态码、字节数)不是地址
+        return IntervalFileLoader.parseDottedQuad( aBuffer, fieldStart, fieldEnd );
+    }
+
+    /**
+     * 一块的处理结果
+     */
+    private static final class Chunk {
+        /**
+         * 此块输入的副本,只用来批量复制各行的内容
+         */
+        private final ByteBuffer mSource;
+        byte [] mBytes;
+        int mLength;
+        long mLineCount;
+
+        Chunk(ByteBuffer aBuffer, int aCapacity) {
+            this.mSource = aBuffer.duplicate();
+            this.mBytes = new byte [ aCapacity ];
+        }
+
+        /**
+         * 写出一行,标签插在行尾的 "\r\n" 或 "\n" 之前;文件最后一行没有换行时也不补换行
+         */
+        void appendLine(int aLineStart, int aLineEnd, int aLimit, byte aSeparator, byte [] aLabel) {
+            ByteBuffer source = this.mSource;
+            int contentEnd = aLineEnd > aLineStart && source.get( aLineEnd - 1 ) == '\r' ? aLineEnd - 1 : aLineEnd;
+            int lineBreakEnd = aLineEnd < aLimit ? aLineEnd + 1 : aLineEnd;
+            int required = this.mLength + (lineBreakEnd - aLineStart) + 1 + aLabel.length;
+            if (required > this.mBytes.length) {
+                this.mBytes = Arrays.copyOf( this.mBytes, Math.max( required, this.mBytes.length + (this.mBytes.length >>> 1) ) );
+            }
+            source.limit( contentEnd );
+            source.position( aLineStart );
+            source.get( this.mBytes, this.mLength, contentEnd - aLineStart );
+            source.limit( aLimit );
+            this.mLength += contentEnd - aLineStart;
+            this.mBytes[ this.mLength++ ] = aSeparator;
+            System.arraycopy( aLabel, 0, this.mBytes, this.mLength, aLabel.length );
+            this.mLength += aLabel.length;
+            for (int i = contentEnd; i < lineBreakEnd; ++i) {
+                this.mBytes[ this.mLength++ ] = source.get( i );
+            }
+        }
+    }
+}
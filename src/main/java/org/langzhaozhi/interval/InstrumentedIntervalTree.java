@@ -0,0 +1,423 @@
+package org.langzhaozhi.interval;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.langzhaozhi.interval.IntervalTree.IntervalNode;
+
+/**
+ * <p>带采样统计的区间树包装：查询结果完全由被包装的区间树给出，每 sampleRate 次查询随机采样一次，
+ * 对采样到的点再走一遍同样的查找路径，记录命中与否、走的是哪种路径(一直到叶子、落在空隙上往下、小于 mMin 往下、大于 mMax 回溯)
+ * 以及在哪一层离开逐层查找。计数用分段的 LongAdder，多线程查询时没有竞争。</p>
+ *
+ * <p>构造时还统计一次各层的节点数、扇出、位图节点数和内存构成，区间树是不变对象，这些在包装的整个生命期内都不变。</p>
+ *
+ * <p>统计只在包装上发生，IntervalTree 本身的查询没有任何额外开销；不需要统计时直接使用 getTree() 即可。
+ * 所有统计可以通过 snapshot() 取得，也可以通过 register 注册成 JMX MBean 供监控系统读取。</p>
+ * @param <T>
+ */
+public final class InstrumentedIntervalTree<T> implements InstrumentedIntervalTreeMBean {
+    private final IntervalTree<T> mTree;
+    private final int mSampleRate;
+    private final int mSampleMask;
+
+    private final LongAdder mSampledLookupCount = new LongAdder();
+    private final LongAdder mHitCount = new LongAdder();
+    private final LongAdder [] mPathCounts;
+    private final LongAdder [] mExitLevelCounts;
+
+    private final int mIntervalCount;
+    private final long [] mLevelNodeCounts;
+    private final long [] mLevelChildCounts;
+    private final long [] mLevelSlotCounts;
+    private final long [] mLevelBitmapNodeCounts;
+    private final int [] mLevelMaxFanouts;
+    private final long [] mLevelMemorySizes;
+    /**
+     * 依次是节点对象、儿子数组、位图、区间对象的内存字节数
+     */
+    private final long [] mMemorySizes = new long [ 4 ];
+
+    private ObjectName mObjectName;
+
+    /**
+     * @param aTree 被包装的区间树
+     * @param aSampleRate 每多少次查询采样一次,必须是2的幂,为1时每次都统计
+     */
+    public InstrumentedIntervalTree(IntervalTree<T> aTree, int aSampleRate) {
+        if (aSampleRate <= 0 || Integer.bitCount( aSampleRate ) != 1) {
+            throw new IllegalArgumentException( "aSampleRate must be a power of 2: " + aSampleRate );
+        }
+        this.mTree = aTree;
+        this.mSampleRate = aSampleRate;
+        this.mSampleMask = aSampleRate - 1;
+        int levelCount = aTree.getStride().getLevelCount();
+        this.mPathCounts = InstrumentedIntervalTree.newAdders( IntervalTree.PATH_TYPE_COUNT );
+        this.mExitLevelCounts = InstrumentedIntervalTree.newAdders( levelCount );
+        this.mLevelNodeCounts = new long [ levelCount ];
+        this.mLevelChildCounts = new long [ levelCount ];
+        this.mLevelSlotCounts = new long [ levelCount ];
+        this.mLevelBitmapNodeCounts = new long [ levelCount ];
+        this.mLevelMaxFanouts = new int [ levelCount ];
+        this.mLevelMemorySizes = new long [ levelCount + 1 ];
+        IntervalNode<T> rootNode = aTree.getRootNode();
+        this.mIntervalCount = this.collectStructure( rootNode, 0 );
+    }
+
+    private static LongAdder [] newAdders(int aCount) {
+        LongAdder [] adders = new LongAdder [ aCount ];
+        for (int i = 0; i < aCount; ++i) {
+            adders[ i ] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * 内存的估算方法与 IntervalTree.estimateMemorySize 相同
+     * @return 此子树的叶子个数
+     */
+    private int collectStructure(IntervalNode<T> aNode, int aLevel) {
+        if (aNode.mChildrenNodes == null) {
+            this.mLevelMemorySizes[ aLevel ] += 40 + 32;
+            this.mMemorySizes[ 0 ] += 40;
+            this.mMemorySizes[ 3 ] += 32;
+            return 1;
+        }
+        IntervalNode<T> [] childrenNodes = aNode.mChildrenNodes;
+        long arraySize = (16 + 4L * childrenNodes.length + 7) & ~7L;
+        long bitmapSize = aNode.mDenseChildrenNodes == null ? 32 : 0;
+        this.mLevelMemorySizes[ aLevel ] += 40 + arraySize + bitmapSize;
+        this.mMemorySizes[ 0 ] += 40;
+        this.mMemorySizes[ 1 ] += arraySize;
+        this.mMemorySizes[ 2 ] += bitmapSize;
+        this.mLevelNodeCounts[ aLevel ]++;
+        this.mLevelSlotCounts[ aLevel ] += childrenNodes.length;
+        if (aNode.mDenseChildrenNodes == null) {
+            this.mLevelBitmapNodeCounts[ aLevel ]++;
+        }
+        int childCount = 0;
+        int leafCount = 0;
+        for (int i = 0; i < childrenNodes.length; ++i) {
+            if (aNode.isRealChildAt( i )) {
+                ++childCount;
+                leafCount += this.collectStructure( childrenNodes[ i ], aLevel + 1 );
+            }
+        }
+        this.mLevelChildCounts[ aLevel ] += childCount;
+        this.mLevelMaxFanouts[ aLevel ] = Math.max( this.mLevelMaxFanouts[ aLevel ], childCount );
+        return leafCount;
+    }
+
+    public IntervalTree<T> getTree() {
+        return this.mTree;
+    }
+
+    /**
+     * 同 IntervalTree.getInterval
+     */
+    public Interval<T> getInterval(int aPoint) {
+        Interval<T> interval = this.mTree.getInterval( aPoint );
+        if ((ThreadLocalRandom.current().nextInt() & this.mSampleMask) == 0) {
+            this.sample( aPoint );
+        }
+        return interval;
+    }
+
+    /**
+     * 同 IntervalTree.getIntervalIndex
+     */
+    public int getIntervalIndex(int aPoint) {
+        int index = this.mTree.getIntervalIndex( aPoint );
+        if ((ThreadLocalRandom.current().nextInt() & this.mSampleMask) == 0) {
+            this.sample( aPoint );
+        }
+        return index;
+    }
+
+    /**
+     * 同 IntervalTree.getIntervals,从随机的起点开始每 sampleRate 个点采样一个
+     */
+    public void getIntervals(int [] aPoints, int aFrom, int aTo, Interval<T> [] aOut) {
+        this.mTree.getIntervals( aPoints, aFrom, aTo, aOut );
+        this.sampleBatch( aPoints, aFrom, aTo );
+    }
+
+    /**
+     * 同 IntervalTree.getIntervalIndexes,从随机的起点开始每 sampleRate 个点采样一个
+     */
+    public void getIntervalIndexes(int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        this.mTree.getIntervalIndexes( aPoints, aFrom, aTo, aOut );
+        this.sampleBatch( aPoints, aFrom, aTo );
+    }
+
+    private void sampleBatch(int [] aPoints, int aFrom, int aTo) {
+        for (int i = aFrom + (ThreadLocalRandom.current().nextInt() & this.mSampleMask); i < aTo; i += this.mSampleRate) {
+            this.sample( aPoints[ i ] );
+        }
+    }
+
+    private void sample(int aPoint) {
+        int trace = this.mTree.tracePath( aPoint );
+        this.mSampledLookupCount.increment();
+        if ((trace & (1 << 16)) != 0) {
+            this.mHitCount.increment();
+        }
+        this.mPathCounts[ (trace >>> 8) & 0xFF ].increment();
+        this.mExitLevelCounts[ trace & 0xFF ].increment();
+    }
+
+    /**
+     * @return 当前所有统计的一份不变的快照
+     */
+    public Snapshot snapshot() {
+        long [] exitLevelCounts = new long [ this.mExitLevelCounts.length ];
+        for (int i = 0; i < exitLevelCounts.length; ++i) {
+            exitLevelCounts[ i ] = this.mExitLevelCounts[ i ].sum();
+        }
+        long [] pathCounts = new long [ this.mPathCounts.length ];
+        for (int i = 0; i < pathCounts.length; ++i) {
+            pathCounts[ i ] = this.mPathCounts[ i ].sum();
+        }
+        return new Snapshot( this, this.mSampledLookupCount.sum(), this.mHitCount.sum(), pathCounts, exitLevelCounts );
+    }
+
+    @Override
+    public void reset() {
+        //各计数不是一起清零的,与并发的采样交错时快照中的总数可能与各分项之和略有出入
+        this.mSampledLookupCount.reset();
+        this.mHitCount.reset();
+        for (LongAdder adder : this.mPathCounts) {
+            adder.reset();
+        }
+        for (LongAdder adder : this.mExitLevelCounts) {
+            adder.reset();
+        }
+    }
+
+    /**
+     * 注册到平台 MBeanServer
+     * @param aName 例如 "org.langzhaozhi.interval:type=IntervalTree,name=ipv4"
+     */
+    public synchronized void register(String aName) throws JMException {
+        if (this.mObjectName != null) {
+            throw new IllegalStateException( "already registered as " + this.mObjectName );
+        }
+        ObjectName objectName = new ObjectName( aName );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, objectName );
+        this.mObjectName = objectName;
+    }
+
+    /**
+     * 从平台 MBeanServer 注销,没有注册时什么也不做。区间树切换后应当注销旧树的包装再注册新树的包装
+     */
+    public synchronized void unregister() throws JMException {
+        if (this.mObjectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered( this.mObjectName )) {
+                server.unregisterMBean( this.mObjectName );
+            }
+            this.mObjectName = null;
+        }
+    }
+
+    @Override
+    public String getStride() {
+        return this.mTree.getStride().name();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return this.mSampleRate;
+    }
+
+    @Override
+    public long getSampledLookupCount() {
+        return this.mSampledLookupCount.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.mHitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return Math.max( 0, this.mSampledLookupCount.sum() - this.mHitCount.sum() );
+    }
+
+    @Override
+    public long getLeafPathCount() {
+        return this.mPathCounts[ IntervalTree.PATH_LEAF ].sum();
+    }
+
+    @Override
+    public long getGapDescentCount() {
+        return this.mPathCounts[ IntervalTree.PATH_GAP_DESCENT ].sum();
+    }
+
+    @Override
+    public long getMinDescentCount() {
+        return this.mPathCounts[ IntervalTree.PATH_MIN_DESCENT ].sum();
+    }
+
+    @Override
+    public long getBacktrackCount() {
+        return this.mPathCounts[ IntervalTree.PATH_BACKTRACK ].sum();
+    }
+
+    @Override
+    public long [] getExitLevelCounts() {
+        return this.snapshot().getExitLevelCounts();
+    }
+
+    @Override
+    public int getIntervalCount() {
+        return this.mIntervalCount;
+    }
+
+    @Override
+    public long [] getLevelNodeCounts() {
+        return this.mLevelNodeCounts.clone();
+    }
+
+    @Override
+    public long [] getLevelChildCounts() {
+        return this.mLevelChildCounts.clone();
+    }
+
+    @Override
+    public long [] getLevelSlotCounts() {
+        return this.mLevelSlotCounts.clone();
+    }
+
+    @Override
+    public long [] getLevelBitmapNodeCounts() {
+        return this.mLevelBitmapNodeCounts.clone();
+    }
+
+    @Override
+    public int [] getLevelMaxFanouts() {
+        return this.mLevelMaxFanouts.clone();
+    }
+
+    @Override
+    public long [] getLevelMemorySizes() {
+        return this.mLevelMemorySizes.clone();
+    }
+
+    @Override
+    public long getNodeMemorySize() {
+        return this.mMemorySizes[ 0 ];
+    }
+
+    @Override
+    public long getChildrenArrayMemorySize() {
+        return this.mMemorySizes[ 1 ];
+    }
+
+    @Override
+    public long getBitmapMemorySize() {
+        return this.mMemorySizes[ 2 ];
+    }
+
+    @Override
+    public long getIntervalMemorySize() {
+        return this.mMemorySizes[ 3 ];
+    }
+
+    @Override
+    public long getEstimatedMemorySize() {
+        //再加上区间树对象本身的16字节
+        return this.mMemorySizes[ 0 ] + this.mMemorySizes[ 1 ] + this.mMemorySizes[ 2 ] + this.mMemorySizes[ 3 ] + 16;
+    }
+
+    /**
+     * 某一时刻的统计快照,各计数的含义见 InstrumentedIntervalTreeMBean
+     */
+    public static final class Snapshot {
+        private final InstrumentedIntervalTree<?> mSource;
+        private final long mSampledLookupCount;
+        private final long mHitCount;
+        private final long [] mPathCounts;
+        private final long [] mExitLevelCounts;
+
+        Snapshot(InstrumentedIntervalTree<?> aSource, long aSampledLookupCount, long aHitCount, long [] aPathCounts, long [] aExitLevelCounts) {
+            this.mSource = aSource;
+            this.mSampledLookupCount = aSampledLookupCount;
+            this.mHitCount = aHitCount;
+            this.mPathCounts = aPathCounts;
+            this.mExitLevelCounts = aExitLevelCounts;
+        }
+
+        public int getSampleRate() {
+            return this.mSource.mSampleRate;
+        }
+
+        public long getSampledLookupCount() {
+            return this.mSampledLookupCount;
+        }
+
+        /**
+         * @return 按采样率估算的总查询次数
+         */
+        public long getEstimatedLookupCount() {
+            return this.mSampledLookupCount * this.mSource.mSampleRate;
+        }
+
+        public long getHitCount() {
+            return this.mHitCount;
+        }
+
+        public long getMissCount() {
+            return Math.max( 0, this.mSampledLookupCount - this.mHitCount );
+        }
+
+        public long getLeafPathCount() {
+            return this.mPathCounts[ IntervalTree.PATH_LEAF ];
+        }
+
+        public long getGapDescentCount() {
+            return this.mPathCounts[ IntervalTree.PATH_GAP_DESCENT ];
+        }
+
+        public long getMinDescentCount() {
+            return this.mPathCounts[ IntervalTree.PATH_MIN_DESCENT ];
+        }
+
+        public long getBacktrackCount() {
+            return this.mPathCounts[ IntervalTree.PATH_BACKTRACK ];
+        }
+
+        public long [] getExitLevelCounts() {
+            return this.mExitLevelCounts.clone();
+        }
+
+        /**
+         * @return 按层的结构统计与内存构成,在包装的生命期内不变
+         */
+        public InstrumentedIntervalTreeMBean getStructure() {
+            return this.mSource;
+        }
+
+        @Override
+        public String toString() {
+            InstrumentedIntervalTree<?> source = this.mSource;
+            StringBuilder builder = new StringBuilder();
+            builder.append( "IntervalTree[" ).append( source.getStride() ).append( ", intervals=" ).append( source.mIntervalCount ).append( ", memory=" ).append( source.getEstimatedMemorySize() ).append( "B (nodes=" ).append( source.mMemorySizes[ 0 ] ).append( ", arrays=" ).append( source.mMemorySizes[ 1 ] ).append( ", bitmaps=" ).append( source.mMemorySizes[ 2 ] ).append( ", intervals=" ).append( source.mMemorySizes[ 3 ] ).append( ")]\n" );
+            builder.append( "  sampled=" ).append( this.mSampledLookupCount ).append( " (1/" ).append( source.mSampleRate ).append( "), hit=" ).append( this.mHitCount ).append( ", miss=" ).append( this.getMissCount() );
+            builder.append( ", leaf=" ).append( this.getLeafPathCount() ).append( ", gapDescent=" ).append( this.getGapDescentCount() ).append( ", minDescent=" ).append( this.getMinDescentCount() ).append( ", backtrack=" ).append( this.getBacktrackCount() ).append( ", exitLevels=" ).append( Arrays.toString( this.mExitLevelCounts ) ).append( '\n' );
+            for (int level = 0; level < source.mLevelNodeCounts.length; ++level) {
+                long nodeCount = source.mLevelNodeCounts[ level ];
+                builder.append( "  level " ).append( level ).append( ": nodes=" ).append( nodeCount ).append( ", bitmapNodes=" ).append( source.mLevelBitmapNodeCounts[ level ] ).append( ", avgFanout=" ).append( nodeCount == 0 ? 0 : source.mLevelChildCounts[ level ] / ( double )nodeCount ).append( ", maxFanout=" ).append( source.mLevelMaxFanouts[ level ] ).append( ", slots=" ).append( source.mLevelSlotCounts[ level ] ).append( ", memory=" ).append( source.mLevelMemorySizes[ level ] ).append( "B\n" );
+            }
+            builder.append( "  leaves: memory=" ).append( source.mLevelMemorySizes[ source.mLevelNodeCounts.length ] ).append( 'B' );
+            return builder.toString();
+        }
+    }
+}
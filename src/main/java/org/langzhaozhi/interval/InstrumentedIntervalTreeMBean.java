@@ -0,0 +1,89 @@
+package org.langzhaozhi.interval;
+
+/**
+ * InstrumentedIntervalTree 的 JMX 管理接口。查询相关的计数都只是被采样到的查询的计数,要乘以 getSampleRate() 才是估算的总数;
+ * 按层的数组下标就是层号,0是虚根所在的层
+ */
+public interface InstrumentedIntervalTreeMBean {
+    /**
+     * @return 被采样的区间树的步长
+     */
+    String getStride();
+
+    /**
+     * @return 每多少次查询采样一次
+     */
+    int getSampleRate();
+
+    long getSampledLookupCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * @return 一直沿真正的儿子走到最后一层的查询次数
+     */
+    long getLeafPathCount();
+
+    /**
+     * @return 中间某层落在稠密节点的空隙上再沿最左儿子往下的查询次数
+     */
+    long getGapDescentCount();
+
+    /**
+     * @return 某层字符小于 mMin 再沿最左儿子往下的查询次数
+     */
+    long getMinDescentCount();
+
+    /**
+     * @return 某层字符大于 mMax 而要回溯的查询次数
+     */
+    long getBacktrackCount();
+
+    /**
+     * @return 各层离开逐层查找的查询次数
+     */
+    long [] getExitLevelCounts();
+
+    int getIntervalCount();
+
+    long [] getLevelNodeCounts();
+
+    /**
+     * @return 各层节点真正的儿子总数,除以节点数就是平均扇出
+     */
+    long [] getLevelChildCounts();
+
+    /**
+     * @return 各层节点儿子数组的总长度,稠密编码的空隙也算在内
+     */
+    long [] getLevelSlotCounts();
+
+    long [] getLevelBitmapNodeCounts();
+
+    int [] getLevelMaxFanouts();
+
+    /**
+     * @return 各层估算的内存字节数,最后一项是叶子节点及其区间对象
+     */
+    long [] getLevelMemorySizes();
+
+    long getNodeMemorySize();
+
+    long getChildrenArrayMemorySize();
+
+    long getBitmapMemorySize();
+
+    long getIntervalMemorySize();
+
+    /**
+     * @return 与 IntervalTree.estimateMemorySize 相同
+     */
+    long getEstimatedMemorySize();
+
+    /**
+     * 清零所有查询计数,结构统计不变
+     */
+    void reset();
+}
@@ -0,0 +1,39 @@
+package org.langzhaozhi.interval;
+
+/**
+ * 128 位无符号整数型闭区间[start,end]，每个128位值用高64位和低64位两个long表示，典型的就是IPv6地址
+ *
+ * @param <T> 此区间的绑定对象,由应用做出解释
+ */
+public final class Int128Interval<T> {
+    public final T mAttachment;
+    public final long mStartHigh, mStartLow;
+    public final long mEndHigh, mEndLow;
+
+    public Int128Interval(T aAttachment, long aStartHigh, long aStartLow, long aEndHigh, long aEndLow) {
+        if (Int128Interval.compare( aStartHigh, aStartLow, aEndHigh, aEndLow ) > 0) {
+            throw new IllegalArgumentException();
+        }
+        this.mAttachment = aAttachment;
+        this.mStartHigh = aStartHigh;
+        this.mStartLow = aStartLow;
+        this.mEndHigh = aEndHigh;
+        this.mEndLow = aEndLow;
+    }
+
+    public boolean contains(long aPointHigh, long aPointLow) {
+        return Int128Interval.compare( this.mStartHigh, this.mStartLow, aPointHigh, aPointLow ) <= 0 && Int128Interval.compare( aPointHigh, aPointLow, this.mEndHigh, this.mEndLow ) <= 0;
+    }
+
+    /**
+     * 按无符号比较两个128位值
+     */
+    public static int compare(long aOneHigh, long aOneLow, long aTwoHigh, long aTwoLow) {
+        return aOneHigh != aTwoHigh ? Long.compareUnsigned( aOneHigh, aTwoHigh ) : Long.compareUnsigned( aOneLow, aTwoLow );
+    }
+
+    @Override
+    public String toString() {
+        return "[0x" + Long.toHexString( this.mStartHigh ) + String.format( "%016x", this.mStartLow ) + ",0x" + Long.toHexString( this.mEndHigh ) + String.format( "%016x", this.mEndLow ) + "]:" + this.mAttachment;
+    }
+}
@@ -0,0 +1,93 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>128位无符号整型区间划分树，典型的用于IPv6地址的归属地查询，和 IntervalTree 是同样的按字节划分的Trie查找方法，
+ * 每层依次取128位的最高字节、次高字节...,最多16层。</p>
+ *
+ * <p>层数可以在构造时配置：例如IPv6的地址库基本都是按/64或更大的块划分的，只需8层就足够区分了，
+ * 查询也就只需恒定至多8步，不必每次都付出16层的代价；个别前缀块中的边界区分不开时只在该块下面加深。</p>
+ *
+ * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class Int128IntervalTree<T> {
+    /**
+     * 虚根节点
+     */
+    private final ByteTrieNode<Int128Interval<T>> mRootNode;
+    /**
+     * 构造时配置的层数,1到16
+     */
+    private final int mDepth;
+    /**
+     * 实际最深的叶子所在的层数,区分不开的前缀块下面会比 mDepth 更深
+     */
+    private final int mMaxDepth;
+
+    Int128IntervalTree(ByteTrieNode<Int128Interval<T>> aRootNode, int aDepth) {
+        this.mRootNode = aRootNode;
+        this.mDepth = aDepth;
+        this.mMaxDepth = aRootNode.maxDepth();
+    }
+
+    /**
+     * @return 构造时配置的层数
+     */
+    public int getDepth() {
+        return this.mDepth;
+    }
+
+    /**
+     * @return 实际最深的叶子所在的层数,即查询最多的步数。只在边界用 getDepth() 个字节区分不开的前缀块下面才比 getDepth() 大
+     */
+    public int getMaxDepth() {
+        return this.mMaxDepth;
+    }
+
+    /**
+     * 获取一个点所属的区间,每次查询都是恒常的至多 getMaxDepth() 步就立即匹配出结果
+     * @param aPointHigh 点的高64位
+     * @param aPointLow 点的低64位
+     * @return 参数所表示的点所在的区间
+     */
+    public Int128Interval<T> getInterval(long aPointHigh, long aPointLow) {
+        ByteTrieNode<Int128Interval<T>> parentNode = this.mRootNode;
+        for (int depth = 0;; ++depth) {
+            int depthChar = Int128IntervalTree.depthChar( aPointHigh, aPointLow, depth );
+            if (depthChar < parentNode.mMin) {
+                Int128Interval<T> interval = parentNode.mChildrenNodes[ 0 ].firstLeafNode().mValue;
+                return interval.contains( aPointHigh, aPointLow ) ? interval : null;
+            }
+            else if (depthChar > parentNode.mMax) {
+                //类似递归的回溯
+                ByteTrieNode<Int128Interval<T>> rootNode = this.mRootNode;
+                while (parentNode != rootNode) {
+                    parentNode = parentNode.mParentNode;
+                    depthChar = Int128IntervalTree.depthChar( aPointHigh, aPointLow, --depth ) + 1;
+                    if (depthChar <= parentNode.mMax) {
+                        Int128Interval<T> interval = parentNode.mChildrenNodes[ depthChar - parentNode.mMin ].firstLeafNode().mValue;
+                        return interval.contains( aPointHigh, aPointLow ) ? interval : null;
+                    }
+                }
+                return null;
+            }
+            else {
+                ByteTrieNode<Int128Interval<T>> searchNode = parentNode.mChildrenNodes[ depthChar - parentNode.mMin ];
+                if (searchNode.mChildrenNodes == null || searchNode.mOwnerChar != depthChar) {
+                    Int128Interval<T> interval = searchNode.firstLeafNode().mValue;
+                    return interval.contains( aPointHigh, aPointLow ) ? interval : null;
+                }
+                else {
+                    parentNode = searchNode;
+                }
+            }
+        }
+    }
+
+    /**
+     * 取128位值从最高字节开始的第 aDepth 个字节
+     */
+    static int depthChar(long aHigh, long aLow, int aDepth) {
+        return aDepth < 8 ? ( int )(aHigh >>> (56 - (aDepth << 3))) & 0xFF : ( int )(aLow >>> (120 - (aDepth << 3))) & 0xFF;
+    }
+}
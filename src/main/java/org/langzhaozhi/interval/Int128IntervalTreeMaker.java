@@ -0,0 +1,37 @@
+package org.langzhaozhi.interval;
+
+import java.util.Arrays;
+
+/**
+ * 构造 Int128IntervalTree
+ */
+public class Int128IntervalTreeMaker {
+    public static <T> Int128IntervalTree<T> makeInt128IntervalTree(Int128Interval<T> [] aIntervalArray) {
+        return Int128IntervalTreeMaker.makeInt128IntervalTree( aIntervalArray, 16 );
+    }
+
+    /**
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aDepth 层数,1到16：一般只取最高 aDepth 个字节来划分,例如全部按/64对齐的IPv6地址库用8层就足够了;
+     *        某个 aDepth 字节前缀块中的区间边界区分不开时,只在该块下面继续按后面的字节加深,其它块不受影响
+     */
+    public static <T> Int128IntervalTree<T> makeInt128IntervalTree(Int128Interval<T> [] aIntervalArray, int aDepth) {
+        if (aIntervalArray == null || aIntervalArray.length == 0) {
+            throw new IllegalArgumentException( "aIntervalArray not valid" );
+        }
+        if (aDepth < 1 || aDepth > 16) {
+            throw new IllegalArgumentException( "aDepth must be in [1,16]: " + aDepth );
+        }
+        //按无符号128位整数排序
+        Arrays.parallelSort( aIntervalArray, (aOne, aTwo) -> Int128Interval.compare( aOne.mStartHigh, aOne.mStartLow, aTwo.mStartHigh, aTwo.mStartLow ) );
+        //只支持对整数区间的划分
+        for (int i = 1; i < aIntervalArray.length; ++i) {
+            Int128Interval<T> preInterval = aIntervalArray[ i - 1 ], nextInterval = aIntervalArray[ i ];
+            if (Int128Interval.compare( nextInterval.mStartHigh, nextInterval.mStartLow, preInterval.mEndHigh, preInterval.mEndLow ) <= 0) {
+                throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+            }
+        }
+        ByteTrieNode<Int128Interval<T>> rootNode = ByteTrieNode.make( aIntervalArray, aDepth, 16, (aIndex, aDepthIndex) -> Int128IntervalTree.depthChar( aIntervalArray[ aIndex ].mStartHigh, aIntervalArray[ aIndex ].mStartLow, aDepthIndex ), (aIndex, aDepthIndex) -> Int128IntervalTree.depthChar( aIntervalArray[ aIndex ].mEndHigh, aIntervalArray[ aIndex ].mEndLow, aDepthIndex ) );
+        return new Int128IntervalTree<T>( rootNode, aDepth );
+    }
+}
@@ -0,0 +1,98 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>绑定值为 int 的32位无符号整型区间划分树，由 IntervalTreeMaker.makeIntIntervalTree 构造。</p>
+ *
+ * <p>很多应用的绑定对象只是很小的整数编码(国家编号、AS号、规则编号等)，没有必要为每个区间创建一个 Interval 对象。
+ * 本树沿用 FlatIntervalTree 的扁平布局，区间的起点终点和绑定值全部存放在 int[] 中，没有任何逐区间的对象，
+ * 查询直接返回 int 值，不在任何区间内时返回构造时指定的 noMatchValue，而不是 null。</p>
+ *
+ * <p>不变对象，可以任意多线程并发访问。</p>
+ */
+public final class IntIntervalTree {
+    private final FlatLayout mLayout;
+    /**
+     * 按无符号起点排好序的各区间的绑定值,下标就是区间序号
+     */
+    private final int [] mValues;
+    private final int mNoMatchValue;
+
+    IntIntervalTree(FlatLayout aLayout, int [] aSortedValues, int aNoMatchValue) {
+        this.mLayout = aLayout;
+        this.mValues = aSortedValues;
+        this.mNoMatchValue = aNoMatchValue;
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的绑定值,每次查询都是恒常的至多四步
+     * @param aPoint 一个点
+     * @return 参数aPoint所在区间的绑定值,不在任何区间内时返回 getNoMatchValue()
+     */
+    public int getValue(int aPoint) {
+        int index = this.mLayout.search( aPoint );
+        return index >= 0 ? this.mValues[ index ] : this.mNoMatchValue;
+    }
+
+    /**
+     * 批量查询: aOut[i] = getValue(aPoints[i]), i 属于 [aFrom, aTo)。
+     * 先在 aOut 中得到各点的区间序号再就地换成绑定值,在 JDK 17 以上启用了 jdk.incubator.vector 时区间序号是向量化查找的,见 FlatBatchSearch
+     */
+    public void getValues(int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        if (aFrom < 0 || aFrom > aTo || aTo > aPoints.length || aTo > aOut.length) {
+            throw new IndexOutOfBoundsException( "aFrom=" + aFrom + ", aTo=" + aTo + ", length=" + aPoints.length );
+        }
+        FlatBatchSearch.search( this.mLayout, aPoints, aFrom, aTo, aOut );
+        int [] values = this.mValues;
+        int noMatchValue = this.mNoMatchValue;
+        for (int i = aFrom; i < aTo; ++i) {
+            int index = aOut[ i ];
+            aOut[ i ] = index >= 0 ? values[ index ] : noMatchValue;
+        }
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的区间序号
+     * @param aPoint 一个点
+     * @return 区间序号,即按无符号起点排序后的下标, -1 表示不在任何区间内
+     */
+    public int getIntervalIndex(int aPoint) {
+        return this.mLayout.search( aPoint );
+    }
+
+    public int getNoMatchValue() {
+        return this.mNoMatchValue;
+    }
+
+    public int getIntervalCount() {
+        return this.mValues.length;
+    }
+
+    public int getStart(int aIntervalIndex) {
+        return this.mLayout.mLeafBounds[ aIntervalIndex << 1 ] ^ Integer.MIN_VALUE;
+    }
+
+    public int getEnd(int aIntervalIndex) {
+        return this.mLayout.mLeafBounds[ (aIntervalIndex << 1) + 1 ] ^ Integer.MIN_VALUE;
+    }
+
+    public int getValueAt(int aIntervalIndex) {
+        return this.mValues[ aIntervalIndex ];
+    }
+
+    FlatLayout getLayout() {
+        return this.mLayout;
+    }
+
+    /**
+     * 粗略估算占用的堆内存字节数:各 int[] 的长度加上数组头
+     */
+    public long estimateMemorySize() {
+        //FlatLayout对象:对象头12 + 3个引用 + 1个int = 28,对齐到32; 本对象:对象头12 + 2个引用 + 1个int = 24
+        FlatLayout layout = this.mLayout;
+        return IntIntervalTree.intArraySize( layout.mNodes.length ) + IntIntervalTree.intArraySize( layout.mChildren.length ) + IntIntervalTree.intArraySize( layout.mLeafBounds.length ) + IntIntervalTree.intArraySize( this.mValues.length ) + 32 + 24;
+    }
+
+    private static long intArraySize(int aLength) {
+        return (16 + 4L * aLength + 7) & ~7L;
+    }
+}
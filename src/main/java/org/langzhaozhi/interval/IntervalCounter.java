@@ -0,0 +1,152 @@
+package org.langzhaozhi.interval;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * <p>线程安全的按区间计数器：统计落在区间树各区间内的点数，例如按国家或按自治域统计流量。</p>
+ *
+ * <p>每个线程第一次计数时得到一个只属于自己的分段，分段就是下标为区间序号的 long[]，之后这个线程的计数都累加到自己的分段上，
+ * 各线程之间没有任何竞争；成批计数(add(int[], int, int))直接用 IntervalTree.countInto 累加，
+ * 不为每个点分配任何对象。读取时才把所有分段合并起来，线程结束后其分段中的计数仍然保留。</p>
+ *
+ * <p>分段只有主人线程会写，计数时不取任何锁也没有原子的读改写：累加之后只对分段做一次有序写入(lazySet)，
+ * 读取合并时先读它，就能看到这之前的全部计数。reset 也不去改写分段，只记下当时的计数，之后读取时减去。
+ * 因此读取到的是各线程稍早一点的计数，与并发的计数之间不会互相丢失。</p>
+ * @param <T>
+ */
+public final class IntervalCounter<T> {
+    private final IntervalTree<T> mTree;
+    private final CopyOnWriteArrayList<Stripe> mStripes = new CopyOnWriteArrayList<Stripe>();
+    private final ThreadLocal<Stripe> mLocalStripe = ThreadLocal.withInitial( this::newStripe );
+
+    public IntervalCounter(IntervalTree<T> aTree) {
+        this.mTree = aTree;
+    }
+
+    public IntervalTree<T> getTree() {
+        return this.mTree;
+    }
+
+    private Stripe newStripe() {
+        Stripe stripe = new Stripe( this.mTree.getIntervalIndexLimit() );
+        this.mStripes.add( stripe );
+        return stripe;
+    }
+
+    /**
+     * 对 aPoint 所在区间计数1次
+     * @return aPoint 是否在某个区间内
+     */
+    public boolean add(int aPoint) {
+        int index = this.mTree.getIntervalIndex( aPoint );
+        Stripe stripe = this.mLocalStripe.get();
+        if (index >= 0) {
+            ++stripe.mCounts[ index ];
+        }
+        else {
+            ++stripe.mMissCount;
+        }
+        stripe.publish();
+        return index >= 0;
+    }
+
+    /**
+     * 对 aPoints 中 [aFrom, aTo) 之间的各点所在的区间计数
+     */
+    public void add(int [] aPoints, int aFrom, int aTo) {
+        Stripe stripe = this.mLocalStripe.get();
+        stripe.mMissCount += this.mTree.countInto( aPoints, aFrom, aTo, stripe.mCounts );
+        stripe.publish();
+    }
+
+    /**
+     * @return 合并后下标为区间序号的计数,长度为 getIntervalIndexLimit()
+     */
+    public long [] getCounts() {
+        long [] counts = new long [ this.mTree.getIntervalIndexLimit() ];
+        for (Stripe stripe : this.mStripes) {
+            synchronized (stripe) {
+                //先读有序写入的序号,之后读到的计数至少是主人线程那时的;还没有计数过的分段不必合并
+                if (stripe.mPublished == 0) {
+                    continue;
+                }
+                long [] stripeCounts = stripe.mCounts, resetCounts = stripe.mResetCounts;
+                for (int i = 0; i < counts.length; ++i) {
+                    counts[ i ] += resetCounts == null ? stripeCounts[ i ] : stripeCounts[ i ] - resetCounts[ i ];
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return 不在任何区间内的点数
+     */
+    public long getMissCount() {
+        long missCount = 0;
+        for (Stripe stripe : this.mStripes) {
+            synchronized (stripe) {
+                if (stripe.mPublished != 0) {
+                    missCount += stripe.mMissCount - stripe.mResetMissCount;
+                }
+            }
+        }
+        return missCount;
+    }
+
+    /**
+     * 按区间由小到大依次给出各区间及其合并后的计数,计数为0的区间也给出
+     */
+    public void forEach(ObjLongConsumer<? super Interval<T>> aConsumer) {
+        long [] counts = this.getCounts();
+        for (Interval<T> interval : this.mTree.toIntervalArray()) {
+            aConsumer.accept( interval, counts[ this.mTree.getIntervalIndex( ( int )interval.mStart ) ] );
+        }
+    }
+
+    /**
+     * 清零所有计数:记下各分段当前的计数,之后读取时减去;与并发的计数交错时,清零前后的计数可能各算一部分
+     */
+    public void reset() {
+        for (Stripe stripe : this.mStripes) {
+            synchronized (stripe) {
+                if (stripe.mPublished != 0) {
+                    stripe.mResetCounts = stripe.mCounts.clone();
+                    stripe.mResetMissCount = stripe.mMissCount;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个线程的分段:mCounts 和 mMissCount 只由主人线程写,其余的只由读取和 reset 在分段的锁下写
+     */
+    private static final class Stripe {
+        private static final AtomicLongFieldUpdater<Stripe> PUBLISHED = AtomicLongFieldUpdater.newUpdater( Stripe.class, "mPublished" );
+
+        final long [] mCounts;
+        long mMissCount;
+        /**
+         * 主人线程每次计数之后有序写入的序号,为0表示还没有计数过
+         */
+        volatile long mPublished;
+        /**
+         * reset 时记下的计数,为 null 表示没有 reset 过
+         */
+        long [] mResetCounts;
+        long mResetMissCount;
+
+        Stripe(int aLength) {
+            this.mCounts = new long [ aLength ];
+        }
+
+        /**
+         * 主人线程调用:有序写入不需要内存屏障等待,计数路径上只多一次普通的写
+         */
+        void publish() {
+            Stripe.PUBLISHED.lazySet( this, this.mPublished + 1 );
+        }
+    }
+}
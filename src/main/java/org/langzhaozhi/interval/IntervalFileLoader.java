@@ -0,0 +1,433 @@
+package org.langzhaozhi.interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * <p>区间文本文件的流式加载器：直接在内存映射的 ByteBuffer 上按字节解析，不为每一行创建 String、不用 split 和 Integer.parseInt，
+ * 归属地等文本标签按字节内容放入紧凑的字典，每个不同的标签只解码成一个 String；解析出的 (起点,终点,标签编号) 三元组存放在基本类型数组中，
+ * 输入本来就有序时(地址库通常如此)不再排序，直接送入 IntervalTreeMaker 构造。</p>
+ *
+ * <p>支持三种格式，每行一条，空行和以 # 开头的行忽略，各字段前后的空白忽略：</p>
+ * <pre>
+ * BRACKET  [1.0.1.0,1.0.3.255]:中国福建省     (即 ipv4-global-utf8.txt 的格式, ':' 可省略)
+ * CSV      1.0.1.0,1.0.3.255,中国福建省       (地址也可以是无符号十进制整数,标签可以用双引号括起来)
+ * CIDR     1.0.1.0/24,中国福建省              (前缀可以嵌套,按最长前缀匹配切分,见 CidrIntervalTreeBuilder)
+ * </pre>
+ *
+ * <p>同一个加载器可以依次加载多个文件或 ByteBuffer，最后 build 一次。非线程安全。</p>
+ */
+public final class IntervalFileLoader {
+    public enum Format {
+        BRACKET, CSV, CIDR
+    }
+
+    /**
+     * 大文件分窗口映射,每个窗口最大1G,窗口边界对齐到行首
+     */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private final Format mFormat;
+
+    /**
+     * 标签字典: 各标签的UTF-8字节依次存放在 mLabelBytes 中, mLabelOffsets[id] 到 mLabelOffsets[id + 1] 是编号为 id 的标签
+     */
+    private byte [] mLabelBytes = new byte [ 4096 ];
+    private int [] mLabelOffsets = new int [ 257 ];
+    private String [] mLabels = new String [ 256 ];
+    private int mLabelCount;
+    /**
+     * 开放寻址的散列表,存放 id + 1, 0 表示空槽
+     */
+    private int [] mLabelSlots = new int [ 512 ];
+
+    private int [] mStarts = new int [ 1024 ];
+    private int [] mEnds = new int [ 1024 ];
+    private int [] mLabelIds = new int [ 1024 ];
+    private int mCount;
+    /**
+     * 到目前为止加入的区间是否已经按起点有序
+     */
+    private boolean mSorted = true;
+    private CidrIntervalTreeBuilder<String> mCidrBuilder;
+
+    private long mLineNumber;
+
+    public IntervalFileLoader(Format aFormat) {
+        if (aFormat == null) {
+            throw new IllegalArgumentException( "aFormat is null" );
+        }
+        this.mFormat = aFormat;
+        if (aFormat == Format.CIDR) {
+            this.mCidrBuilder = new CidrIntervalTreeBuilder<String>();
+        }
+    }
+
+    /**
+     * 以内存映射方式加载整个文件,超过1G的文件分窗口映射
+     * @param aFile UTF-8文本文件
+     * @return this
+     */
+    public IntervalFileLoader load(Path aFile) throws IOException {
+        try (FileChannel channel = FileChannel.open( aFile, StandardOpenOption.READ )) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long windowSize = Math.min( size - position, IntervalFileLoader.WINDOW_SIZE );
+                boolean last = position + windowSize == size;
+                int consumed = this.parse( channel.map( FileChannel.MapMode.READ_ONLY, position, windowSize ), last );
+                if (consumed == 0) {
+                    throw new IllegalArgumentException( "line " + (this.mLineNumber + 1) + ": line too long" );
+                }
+                position += consumed;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 加载 ByteBuffer 中 position 到 limit 之间的全部内容,不改变其 position
+     * @param aBuffer UTF-8文本
+     * @return this
+     */
+    public IntervalFileLoader load(ByteBuffer aBuffer) {
+        this.parse( aBuffer.slice(), true );
+        return this;
+    }
+
+    /**
+     * @return 到目前为止加入的区间(CIDR格式为前缀)个数
+     */
+    public int size() {
+        return this.mCidrBuilder != null ? this.mCidrBuilder.size() : this.mCount;
+    }
+
+    /**
+     * @return 字典中不同标签的个数
+     */
+    public int getLabelCount() {
+        return this.mLabelCount;
+    }
+
+    /**
+     * @param aLabelId 标签编号,按首次出现的顺序从0开始
+     * @return 标签文本,相同的标签总是同一个 String 对象
+     */
+    public String getLabel(int aLabelId) {
+        if (aLabelId < 0 || aLabelId >= this.mLabelCount) {
+            throw new IndexOutOfBoundsException( "aLabelId: " + aLabelId );
+        }
+        return this.mLabels[ aLabelId ];
+    }
+
+    /**
+     * 构造区间树,区间的绑定对象就是字典中的标签
+     * @return 区间树
+     */
+    public IntervalTree<String> build() {
+        if (this.mCidrBuilder != null) {
+            return this.mCidrBuilder.build();
+        }
+        int count = this.mCount;
+        if (count == 0) {
+            throw new IllegalStateException( "no interval loaded" );
+        }
+        long [] sortKeys = null;
+        if (!this.mSorted) {
+            //高32位是起点异或 Integer.MIN_VALUE(使有符号排序等同于无符号排序),低32位是加入的顺序号
+            sortKeys = new long [ count ];
+            for (int i = 0; i < count; ++i) {
+                sortKeys[ i ] = (( long )(this.mStarts[ i ] ^ Integer.MIN_VALUE) << 32) | i;
+            }
+            Arrays.parallelSort( sortKeys );
+        }
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervals = new Interval [ count ];
+        long prevEnd = -1;
+        for (int i = 0; i < count; ++i) {
+            int index = sortKeys == null ? i : ( int )sortKeys[ i ];
+            Interval<String> interval = new Interval<String>( this.mLabels[ this.mLabelIds[ index ] ], this.mStarts[ index ], this.mEnds[ index ] );
+            if (interval.mStart <= prevEnd) {
+                throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+            }
+            prevEnd = interval.mEnd;
+            intervals[ i ] = interval;
+        }
+        return IntervalTreeMaker.makeSortedIntervalTree( intervals );
+    }
+
+    /**
+     * 解析 aBuffer 中的各行
+     * @param aLast 是否是最后一段输入;不是最后一段时末尾不完整的行留给下一个窗口
+     * @return 已经解析的字节数
+     */
+    private int parse(ByteBuffer aBuffer, boolean aLast) {
+        int limit = aBuffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && aBuffer.get( lineEnd ) != '\n') {
+                ++lineEnd;
+            }
+            if (lineEnd == limit && !aLast) {
+                break;
+            }
+            ++this.mLineNumber;
+            this.parseLine( aBuffer, lineStart, lineEnd );
+            lineStart = lineEnd + 1;
+        }
+        return Math.min( lineStart, limit );
+    }
+
+    private void parseLine(ByteBuffer aBuffer, int aFrom, int aTo) {
+        int from = IntervalFileLoader.skipBlank( aBuffer, aFrom, aTo );
+        int to = IntervalFileLoader.trimBlank( aBuffer, from, aTo );
+        if (from == 0 && to - from >= 3 && aBuffer.get( 0 ) == ( byte )0xEF && aBuffer.get( 1 ) == ( byte )0xBB && aBuffer.get( 2 ) == ( byte )0xBF) {
+            //UTF-8 BOM
+            from = IntervalFileLoader.skipBlank( aBuffer, 3, to );
+        }
+        if (from == to || aBuffer.get( from ) == '#') {
+            return;
+        }
+        switch (this.mFormat) {
+            case BRACKET: {
+                if (aBuffer.get( from ) != '[') {
+                    throw this.syntaxError( "'[' expected" );
+                }
+                int comma = IntervalFileLoader.indexOf( aBuffer, from + 1, to, ',' );
+                int right = comma < 0 ? -1 : IntervalFileLoader.indexOf( aBuffer, comma + 1, to, ']' );
+                if (right < 0) {
+                    throw this.syntaxError( "',' or ']' expected" );
+                }
+                int labelFrom = right + 1;
+                if (labelFrom < to && aBuffer.get( labelFrom ) == ':') {
+                    ++labelFrom;
+                }
+                this.addInterval( aBuffer, from + 1, comma, comma + 1, right, labelFrom, to );
+                break;
+            }
+            case CSV: {
+                int comma1 = IntervalFileLoader.indexOf( aBuffer, from, to, ',' );
+                int comma2 = comma1 < 0 ? -1 : IntervalFileLoader.indexOf( aBuffer, comma1 + 1, to, ',' );
+                if (comma2 < 0) {
+                    throw this.syntaxError( "three comma separated fields expected" );
+                }
+                this.addInterval( aBuffer, from, comma1, comma1 + 1, comma2, comma2 + 1, to );
+                break;
+            }
+            case CIDR: {
+                int slash = IntervalFileLoader.indexOf( aBuffer, from, to, '/' );
+                if (slash < 0) {
+                    throw this.syntaxError( "'/' expected" );
+                }
+                int lengthEnd = slash + 1;
+                while (lengthEnd < to && aBuffer.get( lengthEnd ) >= '0' && aBuffer.get( lengthEnd ) <= '9') {
+                    ++lengthEnd;
+                }
+                int labelFrom = IntervalFileLoader.skipBlank( aBuffer, lengthEnd, to );
+                if (labelFrom < to && aBuffer.get( labelFrom ) == ',') {
+                    ++labelFrom;
+                }
+                long prefix = IntervalFileLoader.parseAddress( aBuffer, from, slash );
+                long length = IntervalFileLoader.parseAddress( aBuffer, slash + 1, lengthEnd );
+                if (prefix < 0 || length < 0 || length > 32) {
+                    throw this.syntaxError( "invalid CIDR prefix" );
+                }
+                this.mCidrBuilder.add( ( int )prefix, ( int )length, this.mLabels[ this.internLabel( aBuffer, labelFrom, to ) ] );
+                break;
+            }
+        }
+    }
+
+    private void addInterval(ByteBuffer aBuffer, int aStartFrom, int aStartTo, int aEndFrom, int aEndTo, int aLabelFrom, int aLabelTo) {
+        long start = IntervalFileLoader.parseAddress( aBuffer, aStartFrom, aStartTo );
+        long end = IntervalFileLoader.parseAddress( aBuffer, aEndFrom, aEndTo );
+        if (start < 0 || end < 0) {
+            throw this.syntaxError( "invalid address" );
+        }
+        if (start > end) {
+            throw this.syntaxError( "start greater than end" );
+        }
+        int labelId = this.internLabel( aBuffer, aLabelFrom, aLabelTo );
+        int count = this.mCount;
+        if (count == this.mStarts.length) {
+            int newLength = count * 2;
+            this.mStarts = Arrays.copyOf( this.mStarts, newLength );
+            this.mEnds = Arrays.copyOf( this.mEnds, newLength );
+            this.mLabelIds = Arrays.copyOf( this.mLabelIds, newLength );
+        }
+        if (count > 0 && (this.mStarts[ count - 1 ] & 0xFFFF_FFFFL) > start) {
+            this.mSorted = false;
+        }
+        this.mStarts[ count ] = ( int )start;
+        this.mEnds[ count ] = ( int )end;
+        this.mLabelIds[ count ] = labelId;
+        this.mCount = count + 1;
+    }
+
+    /**
+     * 在字典中查找标签,没有则加入;只有新标签才解码成 String
+     * @return 标签编号
+     */
+    private int internLabel(ByteBuffer aBuffer, int aFrom, int aTo) {
+        int from = IntervalFileLoader.skipBlank( aBuffer, aFrom, aTo );
+        int to = IntervalFileLoader.trimBlank( aBuffer, from, aTo );
+        if (to - from >= 2 && aBuffer.get( from ) == '"' && aBuffer.get( to - 1 ) == '"') {
+            ++from;
+            --to;
+        }
+        int hash = 0;
+        for (int i = from; i < to; ++i) {
+            hash = 31 * hash + aBuffer.get( i );
+        }
+        int mask = this.mLabelSlots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        for (int id; (id = this.mLabelSlots[ slot ] - 1) >= 0; slot = (slot + 1) & mask) {
+            if (this.labelEquals( id, aBuffer, from, to )) {
+                return id;
+            }
+        }
+        //新标签
+        int id = this.mLabelCount;
+        int length = to - from;
+        int byteCount = this.mLabelOffsets[ id ];
+        if (byteCount + length > this.mLabelBytes.length) {
+            this.mLabelBytes = Arrays.copyOf( this.mLabelBytes, Math.max( this.mLabelBytes.length * 2, byteCount + length ) );
+        }
+        for (int i = 0; i < length; ++i) {
+            this.mLabelBytes[ byteCount + i ] = aBuffer.get( from + i );
+        }
+        if (id + 1 == this.mLabels.length) {
+            this.mLabels = Arrays.copyOf( this.mLabels, this.mLabels.length * 2 );
+            this.mLabelOffsets = Arrays.copyOf( this.mLabelOffsets, this.mLabels.length + 1 );
+        }
+        this.mLabels[ id ] = new String( this.mLabelBytes, byteCount, length, StandardCharsets.UTF_8 );
+        this.mLabelOffsets[ id + 1 ] = byteCount + length;
+        this.mLabelCount = id + 1;
+        this.mLabelSlots[ slot ] = id + 1;
+        if (this.mLabelCount * 2 > this.mLabelSlots.length) {
+            this.rehashLabels();
+        }
+        return id;
+    }
+
+    private boolean labelEquals(int aLabelId, ByteBuffer aBuffer, int aFrom, int aTo) {
+        int offset = this.mLabelOffsets[ aLabelId ];
+        if (this.mLabelOffsets[ aLabelId + 1 ] - offset != aTo - aFrom) {
+            return false;
+        }
+        for (int i = aFrom; i < aTo; ++i) {
+            if (this.mLabelBytes[ offset++ ] != aBuffer.get( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashLabels() {
+        int [] slots = new int [ this.mLabelSlots.length * 2 ];
+        int mask = slots.length - 1;
+        for (int id = 0; id < this.mLabelCount; ++id) {
+            int hash = 0;
+            for (int i = this.mLabelOffsets[ id ], end = this.mLabelOffsets[ id + 1 ]; i < end; ++i) {
+                hash = 31 * hash + this.mLabelBytes[ i ];
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (slots[ slot ] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[ slot ] = id + 1;
+        }
+        this.mLabelSlots = slots;
+    }
+
+    private IllegalArgumentException syntaxError(String aMessage) {
+        return new IllegalArgumentException( "line " + this.mLineNumber + ": " + aMessage );
+    }
+
+    /**
+     * 解析 [aFrom, aTo) 之间的IPv4地址,前后可以有空白
+     * @return 点分十进制(a.b.c.d)或无符号十进制整数表示的32位无符号地址;格式不对时返回 -1
+     */
+    static long parseAddress(ByteBuffer aBuffer, int aFrom, int aTo) {
+        return IntervalFileLoader.parseAddress( aBuffer, aFrom, aTo, false );
+    }
+
+    /**
+     * 解析 [aFrom, aTo) 之间的点分十进制IPv4地址,前后可以有空白;与 parseAddress 不同,不接受无符号十进制整数,
+     * 用于日志这类地址字段里也可能是端口、状态码之类数字的场合
+     * @return 点分十进制(a.b.c.d)表示的32位无符号地址;格式不对时返回 -1
+     */
+    static long parseDottedQuad(ByteBuffer aBuffer, int aFrom, int aTo) {
+        return IntervalFileLoader.parseAddress( aBuffer, aFrom, aTo, true );
+    }
+
+    private static long parseAddress(ByteBuffer aBuffer, int aFrom, int aTo, boolean aDottedOnly) {
+        int from = IntervalFileLoader.skipBlank( aBuffer, aFrom, aTo );
+        int to = IntervalFileLoader.trimBlank( aBuffer, from, aTo );
+        if (from == to) {
+            return -1;
+        }
+        long address = 0;
+        long part = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; ++i) {
+            byte b = aBuffer.get( i );
+            if (b >= '0' && b <= '9') {
+                part = part * 10 + (b - '0');
+                if (++digits > 10) {
+                    return -1;
+                }
+            }
+            else if (b == '.' && digits != 0 && dots < 3 && part <= 0xFF) {
+                address = (address << 8) | part;
+                part = 0;
+                digits = 0;
+                ++dots;
+            }
+            else {
+                return -1;
+            }
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        if (dots == 0) {
+            return !aDottedOnly && part <= 0xFFFF_FFFFL ? part : -1;
+        }
+        return dots == 3 && part <= 0xFF ? (address << 8) | part : -1;
+    }
+
+    private static int indexOf(ByteBuffer aBuffer, int aFrom, int aTo, char aChar) {
+        for (int i = aFrom; i < aTo; ++i) {
+            if (aBuffer.get( i ) == aChar) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipBlank(ByteBuffer aBuffer, int aFrom, int aTo) {
+        while (aFrom < aTo && IntervalFileLoader.isBlank( aBuffer.get( aFrom ) )) {
+            ++aFrom;
+        }
+        return aFrom;
+    }
+
+    private static int trimBlank(ByteBuffer aBuffer, int aFrom, int aTo) {
+        while (aTo > aFrom && IntervalFileLoader.isBlank( aBuffer.get( aTo - 1 ) )) {
+            --aTo;
+        }
+        return aTo;
+    }
+
+    private static boolean isBlank(byte aByte) {
+        return aByte == ' ' || aByte == '\t' || aByte == '\r';
+    }
+}
@@ -0,0 +1,45 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>区间树各层的步长，即32位整数从高到低依次按几位一层切分。</p>
+ *
+ * <p>默认的 8-8-8-8 每次查询恒定四步；16-8-8 的第一层是直接按最高16位下标的65536项表(类似路由查找的 DIR-16-8-8)，
+ * 查询只需三步；16-16 只需两步。层数越少访存次数越少，但16位的层节点更宽，稀疏时占用内存也更多。
+ * AUTO 由 IntervalTreeMaker 根据区间个数和终点的分布在构造时选出其余三种之一。</p>
+ */
+public enum IntervalStride {
+    STRIDE_8_8_8_8(8, 8, 8, 8), STRIDE_16_8_8(16, 8, 8), STRIDE_16_16(16, 16), AUTO();
+
+    /**
+     * 各层字符相对于32位整数的右移位数,最后一层为0
+     */
+    final int [] mShifts;
+    /**
+     * 各层字符的掩码
+     */
+    final int [] mMasks;
+    /**
+     * 最宽一层的最大儿子个数
+     */
+    final int mMaxFanout;
+
+    private IntervalStride(int... aWidths) {
+        this.mShifts = new int [ aWidths.length ];
+        this.mMasks = new int [ aWidths.length ];
+        int maxWidth = 0;
+        for (int i = 0, shift = 32; i < aWidths.length; ++i) {
+            shift -= aWidths[ i ];
+            this.mShifts[ i ] = shift;
+            this.mMasks[ i ] = (1 << aWidths[ i ]) - 1;
+            maxWidth = Math.max( maxWidth, aWidths[ i ] );
+        }
+        this.mMaxFanout = 1 << maxWidth;
+    }
+
+    /**
+     * @return 层数,即每次查询至多的步数; AUTO 为 0
+     */
+    public int getLevelCount() {
+        return this.mShifts.length;
+    }
+}
@@ -1,5 +1,12 @@
 package org.langzhaozhi.interval;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * <p>32位无符号整型区间划分树,对区间的划分意味着任意两个区间不相交。</p>
  * </p>所要解决的根本问题是：</p>
@@ -11,20 +18,81 @@ package org.langzhaozhi.interval;
  * 本方法给出的整数区间树可以使时间复杂度降低到O(1)，采用类似IP方式把32位整数分成最高8位、
  * 次高8位、次低8位、最低8位形成只有四层的区间树，每次查询恒定只需4个单步就立即匹配到要的结果。</p>
  *
- * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。</p>
+ * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。
+ * 需要改动时用 with/without/applyBatch 得到一棵与本树共享未改动子树的新树。</p>
  * @param <T>
  */
 public final class IntervalTree<T> {
+    /**
+     * 8-8-8-8 步长各层的右移位数,扁平布局和快照固定采用此步长
+     */
     static final int [] BIT_MOVE_COUNT = {
         24, 16, 8, 0
     };
+    /**
+     * gapAround 表示点在某个区间内的返回值,起点大于终点,不会是真正的空隙
+     */
+    public static final long NO_GAP = Long.MIN_VALUE;
     /**
      * 虚根节点
      */
-    private IntervalNode<T> mRootNode;
+    private final IntervalNode<T> mRootNode;
+    /**
+     * 区间序号上限,所有叶子的区间序号都在[0,mIntervalIndexLimit)内,增删之后其中可能有空着的序号
+     */
+    private final int mIntervalIndexLimit;
+    private final IntervalStride mStride;
+    /**
+     * 稀疏节点是否采用位图编码,写时复制产生的新节点沿用构造时的选择
+     */
+    final boolean mSparseNodes;
+    /**
+     * 即 mStride.mShifts 和 mStride.mMasks,查询时少一次引用跳转
+     */
+    private final int [] mShifts;
+    private final int [] mMasks;
+    /**
+     * [0,mIntervalIndexLimit)中空着的区间序号,没有时为 null
+     */
+    private final FreeIndex mFreeIndexes;
+
+    IntervalTree(IntervalNode<T> aRootNode, int aIntervalIndexLimit, IntervalStride aStride, boolean aSparseNodes) {
+        this( aRootNode, aIntervalIndexLimit, aStride, aSparseNodes, null );
+    }
 
-    IntervalTree(IntervalNode<T> aRootNode) {
+    private IntervalTree(IntervalNode<T> aRootNode, int aIntervalIndexLimit, IntervalStride aStride, boolean aSparseNodes, FreeIndex aFreeIndexes) {
         this.mRootNode = aRootNode;
+        this.mIntervalIndexLimit = aIntervalIndexLimit;
+        this.mStride = aStride;
+        this.mSparseNodes = aSparseNodes;
+        this.mShifts = aStride.mShifts;
+        this.mMasks = aStride.mMasks;
+        this.mFreeIndexes = aFreeIndexes;
+    }
+
+    /**
+     * @return 构造时确定的各层步长,不会是 AUTO
+     */
+    public IntervalStride getStride() {
+        return this.mStride;
+    }
+
+    /**
+     * @return 构造时是否选择了稀疏节点的位图编码
+     * @see IntervalTreeMaker#makeIntervalTree(Interval[], IntervalStride, java.util.concurrent.ForkJoinPool, boolean)
+     */
+    public boolean isSparseNodes() {
+        return this.mSparseNodes;
+    }
+
+    /**
+     * 区间序号上限,是上限而不是区间个数：由 IntervalTreeMaker 构造时区间序号就是排序后数组的下标,因此恰好是区间个数;
+     * 写时复制去掉的区间留下的序号空着,直到被之后加入的区间重用(见 applyBatch),因此增删之后可能大于区间个数,
+     * 但不会超过曾经同时存在的区间个数的最大值;全部去掉之后归0
+     * @return 所有区间序号都小于此值
+     */
+    public int getIntervalIndexLimit() {
+        return this.mIntervalIndexLimit;
     }
 
     /**
@@ -33,56 +101,182 @@ public final class IntervalTree<T> {
      * @return 参数aPoint所在的区间
      */
     Interval<T> getIntervalRecursive(int aPoint) {
-        IntervalNode<T> searchNode = this.mRootNode.search( aPoint, 0 );
+        IntervalNode<T> searchNode = this.mRootNode.search( aPoint, 0, this.mShifts, this.mMasks );
         Interval<T> interval = searchNode != null ? searchNode.mInterval : null;
         return interval != null ? interval.contains( aPoint ) ? interval : null : null;
     }
 
     /**
-     * 获取一个点aPoint所属的区间,每次查询都是恒常的四步就立即匹配出结果
+     * 获取一个点aPoint所属的区间,每次查询都是恒常的四步(按步长为三步或两步)就立即匹配出结果
      * @param aPoint 一个点
      * @return 参数aPoint所在的区间
      */
     public Interval<T> getInterval(int aPoint) {
+        IntervalNode<T> leafNode = this.searchContainingNode( aPoint );
+        return leafNode != null ? leafNode.mInterval : null;
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的区间序号
+     * @param aPoint 一个点
+     * @return 区间序号, -1 表示不在任何区间内
+     */
+    public int getIntervalIndex(int aPoint) {
+        IntervalNode<T> leafNode = this.searchContainingNode( aPoint );
+        return leafNode != null ? leafNode.mIntervalIndex : -1;
+    }
+
+    /**
+     * @return 包含aPoint的叶子节点,不在任何区间内时返回 null
+     */
+    private IntervalNode<T> searchContainingNode(int aPoint) {
+        if (this.mStride == IntervalStride.STRIDE_8_8_8_8) {
+            return this.searchContainingNode8888( aPoint );
+        }
+        IntervalNode<T> leafNode = this.ceilingLeafNode( aPoint );
+        return leafNode != null && leafNode.mInterval.contains( aPoint ) ? leafNode : null;
+    }
+
+    /**
+     * 默认的 8-8-8-8 步长专用的查找:各层的右移位数是常量,不必取 mShifts/mMasks;
+     * 最后一层字符对上时叶子的终点就是aPoint,直接返回而不再做 contains 检查。
+     * 没有选择位图编码时所有节点都是稠密的,直接按下标取儿子,不经过 childNode 的编码判断
+     * @return 包含aPoint的叶子节点,不在任何区间内时返回 null
+     */
+    private IntervalNode<T> searchContainingNode8888(int aPoint) {
+        boolean sparseNodes = this.mSparseNodes;
         IntervalNode<T> parentNode = this.mRootNode;
         for (int depth = 0;; ++depth) {
             //依次取最高8位、次高8位、次低8位、最低8位无符号值：恒常四步就是指对各个8位进行比较的次数恒定为4
-            int depthChar = ((aPoint >>> IntervalTree.BIT_MOVE_COUNT[ depth ]) & 0xFF);
+            int depthChar = ((aPoint >>> (24 - (depth << 3))) & 0xFF);
+            if (depthChar < parentNode.mMin) {
+                IntervalNode<T> searchNode = IntervalTree.firstLeafNode( parentNode.mChildrenNodes[ 0 ] );
+                return searchNode.mInterval.contains( aPoint ) ? searchNode : null;
+            }
+            else if (depthChar > parentNode.mMax) {
+                IntervalNode<T> searchNode = this.nextSiblingNode( depth, aPoint );
+                if (searchNode == null) {
+                    return null;
+                }
+                searchNode = IntervalTree.firstLeafNode( searchNode );
+                return searchNode.mInterval.contains( aPoint ) ? searchNode : null;
+            }
+            else {
+                IntervalNode<T> searchNode = sparseNodes ? parentNode.childNode( depthChar ) : parentNode.mChildrenNodes[ depthChar - parentNode.mMin ];
+                if (depth == 3) {
+                    return searchNode.mOwnerChar == depthChar || searchNode.mInterval.contains( aPoint ) ? searchNode : null;//此searchNode为第4层数据叶子节点
+                }
+                else if (searchNode.mOwnerChar != depthChar) {
+                    searchNode = IntervalTree.firstLeafNode( searchNode );
+                    return searchNode.mInterval.contains( aPoint ) ? searchNode : null;
+                }
+                else {
+                    parentNode = searchNode;
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取包含aPoint的区间,aPoint不在任何区间内时获取aPoint之前(即终点小于aPoint)的最后一个区间。
+     * 与 getInterval 一样是恒常步数的查找,不分配任何对象
+     * @param aPoint 一个点
+     * @return 包含aPoint或在aPoint之前的区间,aPoint之前没有任何区间时返回 null
+     */
+    public Interval<T> floorInterval(int aPoint) {
+        IntervalNode<T> leafNode = this.ceilingLeafNode( aPoint );
+        if (leafNode == null || !leafNode.mInterval.contains( aPoint )) {
+            leafNode = this.floorLeafNode( aPoint );
+        }
+        return leafNode != null ? leafNode.mInterval : null;
+    }
+
+    /**
+     * 获取包含aPoint的区间,aPoint不在任何区间内时获取aPoint之后(即起点大于aPoint)的第一个区间。
+     * 与 getInterval 一样是恒常步数的查找,不分配任何对象
+     * @param aPoint 一个点
+     * @return 包含aPoint或在aPoint之后的区间,aPoint之后没有任何区间时返回 null
+     */
+    public Interval<T> ceilingInterval(int aPoint) {
+        //区间互不相交,第一个终点不小于aPoint的区间要么包含aPoint,要么起点就大于aPoint
+        IntervalNode<T> leafNode = this.ceilingLeafNode( aPoint );
+        return leafNode != null ? leafNode.mInterval : null;
+    }
+
+    /**
+     * 获取aPoint所在的空隙,即不属于任何区间的包含aPoint的最大闭区间。
+     * 结果编码成一个long(高32位是空隙的无符号起点,低32位是无符号终点)以免分配对象,用 gapStart 和 gapEnd 取出
+     * @param aPoint 一个点
+     * @return aPoint所在的空隙, aPoint在某个区间内时返回 NO_GAP
+     */
+    public long gapAround(int aPoint) {
+        IntervalNode<T> ceilingNode = this.ceilingLeafNode( aPoint );
+        if (ceilingNode != null && ceilingNode.mInterval.contains( aPoint )) {
+            return IntervalTree.NO_GAP;
+        }
+        IntervalNode<T> floorNode = this.floorLeafNode( aPoint );
+        long gapStart = floorNode != null ? floorNode.mInterval.mEnd + 1 : 0;
+        long gapEnd = ceilingNode != null ? ceilingNode.mInterval.mStart - 1 : 0xFFFF_FFFFL;
+        return (gapStart << 32) | gapEnd;
+    }
+
+    /**
+     * @param aGap gapAround 的结果,不能是 NO_GAP
+     * @return 空隙的无符号起点
+     */
+    public static int gapStart(long aGap) {
+        return ( int )(aGap >>> 32);
+    }
+
+    /**
+     * @param aGap gapAround 的结果,不能是 NO_GAP
+     * @return 空隙的无符号终点
+     */
+    public static int gapEnd(long aGap) {
+        return ( int )aGap;
+    }
+
+    /**
+     * @return 第一个终点不小于aPoint的叶子节点,没有时返回 null
+     */
+    private IntervalNode<T> ceilingLeafNode(int aPoint) {
+        IntervalNode<T> parentNode = this.mRootNode;
+        int [] shifts = this.mShifts;
+        int [] masks = this.mMasks;
+        int leafDepth = shifts.length - 1;
+        for (int depth = 0;; ++depth) {
+            //默认依次取最高8位、次高8位、次低8位、最低8位无符号值：恒常四步就是指对各个8位进行比较的次数恒定为4
+            int depthChar = ((aPoint >>> shifts[ depth ]) & masks[ depth ]);
             if (depthChar < parentNode.mMin) {
                 IntervalNode<T> searchNode = parentNode.mChildrenNodes[ 0 ];
                 while (searchNode.mChildrenNodes != null) {
                     searchNode = searchNode.mChildrenNodes[ 0 ];
                 }
-                return searchNode.mInterval.contains( aPoint ) ? searchNode.mInterval : null;
+                return searchNode;
             }
             else if (depthChar > parentNode.mMax) {
-                //类似递归的回溯
-                IntervalNode<T> rootNode = this.mRootNode;
-                while (parentNode != rootNode) {
-                    parentNode = parentNode.mParentNode;
-                    depthChar = ((aPoint >>> IntervalTree.BIT_MOVE_COUNT[ --depth ]) & 0xFF) + 1;
-                    if (depthChar <= parentNode.mMax) {
-                        IntervalNode<T> searchNode = parentNode.mChildrenNodes[ depthChar - parentNode.mMin ];
-                        while (searchNode.mChildrenNodes != null) {
-                            searchNode = searchNode.mChildrenNodes[ 0 ];
-                        }
-                        return searchNode.mInterval.contains( aPoint ) ? searchNode.mInterval : null;
-                    }
+                //类似递归的回溯：节点没有父节点引用(以便各版本共享子树),因此从根沿aPoint的高位重新走到当前层,
+                //最深的一个还有下一个儿子的祖先的下一个儿子就是要找的
+                IntervalNode<T> searchNode = this.nextSiblingNode( depth, aPoint );
+                if (searchNode == null) {
+                    return null;
                 }
-                return null;
+                while (searchNode.mChildrenNodes != null) {
+                    searchNode = searchNode.mChildrenNodes[ 0 ];
+                }
+                return searchNode;
             }
             else {
-                int levalChildIndex = depthChar - parentNode.mMin;
-                IntervalNode<T> searchNode = parentNode.mChildrenNodes[ levalChildIndex ];
-                if (depth == 3) {
-                    return searchNode.mOwnerChar == depthChar ? searchNode.mInterval : searchNode.mInterval.contains( aPoint ) ? searchNode.mInterval : null;//此searchNode为第4层数据叶子节点
+                IntervalNode<T> searchNode = parentNode.childNode( depthChar );
+                if (depth == leafDepth) {
+                    return searchNode;//此searchNode为最后一层数据叶子节点
                 }
                 else {
                     if (searchNode.mOwnerChar != depthChar) {
                         while (searchNode.mChildrenNodes != null) {
                             searchNode = searchNode.mChildrenNodes[ 0 ];
                         }
-                        return searchNode.mInterval.contains( aPoint ) ? searchNode.mInterval : null;
+                        return searchNode;
                     }
                     else {
                         parentNode = searchNode;
@@ -92,38 +286,921 @@ public final class IntervalTree<T> {
         }
     }
 
-    static final class IntervalNode<T> {
+    /**
+     * tracePath 返回的查找路径类型:一直沿真正的儿子走到最后一层
+     */
+    static final int PATH_LEAF = 0;
+    /**
+     * 中间某层落在稠密节点的空隙上,沿填入的下一个儿子的 mChildrenNodes[0] 往下
+     */
+    static final int PATH_GAP_DESCENT = 1;
+    /**
+     * 某层字符小于 mMin,沿 mChildrenNodes[0] 往下
+     */
+    static final int PATH_MIN_DESCENT = 2;
+    /**
+     * 某层字符大于 mMax,从根重新走一遍回溯到上一层的下一个儿子
+     */
+    static final int PATH_BACKTRACK = 3;
+    static final int PATH_TYPE_COUNT = 4;
+
+    /**
+     * 与 ceilingLeafNode 走同样的路径,只是记下走的是哪种路径,供 InstrumentedIntervalTree 采样统计,
+     * 因此不影响 getInterval 本身的速度
+     * @return 第16位是否命中, 8到15位是路径类型(PATH_*), 低8位是离开逐层查找时所在的层
+     */
+    int tracePath(int aPoint) {
+        IntervalNode<T> parentNode = this.mRootNode;
+        int [] shifts = this.mShifts;
+        int [] masks = this.mMasks;
+        int leafDepth = shifts.length - 1;
+        IntervalNode<T> leafNode;
+        int pathType;
+        int depth = 0;
+        for (;; ++depth) {
+            int depthChar = ((aPoint >>> shifts[ depth ]) & masks[ depth ]);
+            if (depthChar < parentNode.mMin) {
+                leafNode = IntervalTree.firstLeafNode( parentNode.mChildrenNodes[ 0 ] );
+                pathType = IntervalTree.PATH_MIN_DESCENT;
+                break;
+            }
+            else if (depthChar > parentNode.mMax) {
+                IntervalNode<T> siblingNode = this.nextSiblingNode( depth, aPoint );
+                leafNode = siblingNode != null ? IntervalTree.firstLeafNode( siblingNode ) : null;
+                pathType = IntervalTree.PATH_BACKTRACK;
+                break;
+            }
+            IntervalNode<T> searchNode = parentNode.childNode( depthChar );
+            if (depth == leafDepth) {
+                leafNode = searchNode;
+                pathType = IntervalTree.PATH_LEAF;
+                break;
+            }
+            else if (searchNode.mOwnerChar != depthChar) {
+                leafNode = IntervalTree.firstLeafNode( searchNode );
+                pathType = IntervalTree.PATH_GAP_DESCENT;
+                break;
+            }
+            parentNode = searchNode;
+        }
+        boolean hit = leafNode != null && leafNode.mInterval.contains( aPoint );
+        return (hit ? 1 << 16 : 0) | (pathType << 8) | depth;
+    }
+
+    IntervalNode<T> getRootNode() {
+        return this.mRootNode;
+    }
+
+    /**
+     * 与 ceilingLeafNode 对称:沿aPoint往下走的同时记住最深的一个还有上一个儿子的祖先,
+     * 走不下去时那个祖先的上一个儿子的最后一个叶子就是要找的,因此不需要像 nextSiblingNode 那样从根重新走一遍
+     * @return 最后一个终点不大于aPoint的叶子节点,没有时返回 null
+     */
+    private IntervalNode<T> floorLeafNode(int aPoint) {
+        IntervalNode<T> parentNode = this.mRootNode;
+        if (parentNode.mMax < parentNode.mMin) {
+            return null;//空树
+        }
+        int [] shifts = this.mShifts;
+        int [] masks = this.mMasks;
+        int leafDepth = shifts.length - 1;
+        IntervalNode<T> floorParentNode = null;
+        int floorChar = 0;
+        for (int depth = 0;; ++depth) {
+            int depthChar = ((aPoint >>> shifts[ depth ]) & masks[ depth ]);
+            if (depthChar > parentNode.mMax) {
+                return IntervalTree.lastLeafNode( parentNode );
+            }
+            if (depthChar > parentNode.mMin) {
+                floorParentNode = parentNode;
+                floorChar = depthChar;
+            }
+            if (depthChar < parentNode.mMin) {
+                break;
+            }
+            IntervalNode<T> searchNode = parentNode.childNode( depthChar );
+            if (searchNode.mOwnerChar != depthChar) {
+                break;
+            }
+            else if (depth == leafDepth) {
+                return searchNode;//终点就是aPoint
+            }
+            else {
+                parentNode = searchNode;
+            }
+        }
+        return floorParentNode != null ? IntervalTree.lastLeafNode( floorParentNode.lowerChildNode( floorChar ) ) : null;
+    }
+
+    /**
+     * 批量获取各个点所属的区间,结果写入 aOut 中与 aPoints 相同下标处,不在任何区间的点写入 null。
+     * 对排好序或聚集的点序列有快速通道：下一个点仍在上一个叶子区间内就直接复用，
+     * 否则从与上一个点公共前缀对应的那层节点开始往下查找，而不是每次都从根重新开始。
+     * 整个过程不为每个点分配任何对象。
+     * @param aPoints 要查询的点
+     * @param aFrom 起始下标(包含)
+     * @param aTo 结束下标(不包含)
+     * @param aOut 输出各点所属的区间
+     */
+    public void getIntervals(int [] aPoints, int aFrom, int aTo, Interval<T> [] aOut) {
+        this.searchBatch( aPoints, aFrom, aTo, aOut, null, null );
+    }
+
+    /**
+     * 同 getIntervals, 只不过输出的是区间序号(即构造时排序后数组的下标),不在任何区间的点写入 -1
+     * @param aPoints 要查询的点
+     * @param aFrom 起始下标(包含)
+     * @param aTo 结束下标(不包含)
+     * @param aOut 输出各点所属区间的区间序号
+     */
+    public void getIntervalIndexes(int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        this.searchBatch( aPoints, aFrom, aTo, null, aOut, null );
+    }
+
+    /**
+     * 统计各点落在哪个区间:对每个点把其所属区间的区间序号处的计数加1,与 getIntervals 一样走批量查询的快速通道,不分配任何对象,
+     * 也不需要 HashMap 之类的装箱计数
+     * @param aPoints 要统计的点
+     * @param aCounts 下标为区间序号的计数,长度至少为 getIntervalIndexLimit()
+     * @return 不在任何区间内的点数
+     */
+    public int countInto(int [] aPoints, long [] aCounts) {
+        return this.countInto( aPoints, 0, aPoints.length, aCounts );
+    }
+
+    /**
+     * 同 countInto(int[], long[]),只统计 aPoints 中 [aFrom, aTo) 之间的点
+     */
+    public int countInto(int [] aPoints, int aFrom, int aTo, long [] aCounts) {
+        if (aCounts.length < this.mIntervalIndexLimit) {
+            throw new IllegalArgumentException( "aCounts.length=" + aCounts.length + " < " + this.mIntervalIndexLimit );
+        }
+        return this.searchBatch( aPoints, aFrom, aTo, null, null, aCounts );
+    }
+
+    /**
+     * @return 不在任何区间内的点数
+     */
+    private int searchBatch(int [] aPoints, int aFrom, int aTo, Interval<T> [] aIntervalOut, int [] aIndexOut, long [] aCountOut) {
+        if (aFrom < 0 || aFrom > aTo || aTo > aPoints.length) {
+            throw new IndexOutOfBoundsException( "aFrom=" + aFrom + ", aTo=" + aTo + ", length=" + aPoints.length );
+        }
+        //pathNodes[depth]就是上一个点在第depth层经过的节点,null表示上一个点没有下到这一层;每批只分配这一次
+        @SuppressWarnings("unchecked")
+        IntervalNode<T> [] pathNodes = new IntervalNode [ this.mShifts.length ];
+        pathNodes[ 0 ] = this.mRootNode;
+        int [] shifts = this.mShifts;
+        int leafDepth = shifts.length - 1;
+        IntervalNode<T> leafNode = null;
+        int prePoint = 0;
+        int missCount = 0;
+        for (int i = aFrom; i < aTo; ++i) {
+            int point = aPoints[ i ];
+            if (leafNode == null || !leafNode.mInterval.contains( point )) {
+                //和上一个点有几层相同的高位字符就从哪一层开始找,最多从最后一层开始
+                int diff = point ^ prePoint;
+                int depth = 0;
+                while (depth < leafDepth && (diff >>> shifts[ depth ]) == 0) {
+                    ++depth;
+                }
+                while (pathNodes[ depth ] == null) {
+                    --depth;
+                }
+                leafNode = this.searchLeafNode( pathNodes, depth, point );
+                prePoint = point;
+            }
+            boolean hit = leafNode != null && leafNode.mInterval.contains( point );
+            if (aIntervalOut != null) {
+                aIntervalOut[ i ] = hit ? leafNode.mInterval : null;
+            }
+            if (aIndexOut != null) {
+                aIndexOut[ i ] = hit ? leafNode.mIntervalIndex : -1;
+            }
+            if (hit) {
+                if (aCountOut != null) {
+                    ++aCountOut[ leafNode.mIntervalIndex ];
+                }
+            }
+            else {
+                ++missCount;
+            }
+        }
+        return missCount;
+    }
+
+    /**
+     * 从 aPathNodes[aDepth] 开始往下查找 aPoint 的候选叶子节点,候选叶子的区间不一定包含 aPoint,要由调用者再做 contains 检查。
+     * 查找过程中 aPathNodes 被更新成 aPoint 所经过的各层节点
+     */
+    private IntervalNode<T> searchLeafNode(IntervalNode<T> [] aPathNodes, int aDepth, int aPoint) {
+        IntervalNode<T> parentNode = aPathNodes[ aDepth ];
+        int [] shifts = this.mShifts;
+        int [] masks = this.mMasks;
+        for (int depth = aDepth;; ++depth) {
+            int depthChar = ((aPoint >>> shifts[ depth ]) & masks[ depth ]);
+            if (depthChar < parentNode.mMin) {
+                IntervalTree.clearPathNodes( aPathNodes, depth + 1 );
+                return IntervalTree.firstLeafNode( parentNode.mChildrenNodes[ 0 ] );
+            }
+            else if (depthChar > parentNode.mMax) {
+                IntervalTree.clearPathNodes( aPathNodes, depth + 1 );
+                //类似递归的回溯,只是用 aPathNodes 记录的祖先节点
+                while (depth > 0) {
+                    parentNode = aPathNodes[ --depth ];
+                    depthChar = ((aPoint >>> shifts[ depth ]) & masks[ depth ]) + 1;
+                    if (depthChar <= parentNode.mMax) {
+                        return IntervalTree.firstLeafNode( parentNode.childNode( depthChar ) );
+                    }
+                }
+                return null;
+            }
+            else {
+                IntervalNode<T> searchNode = parentNode.childNode( depthChar );
+                if (depth == shifts.length - 1) {
+                    return searchNode;//此searchNode为最后一层数据叶子节点
+                }
+                else if (searchNode.mOwnerChar != depthChar) {
+                    IntervalTree.clearPathNodes( aPathNodes, depth + 1 );
+                    return IntervalTree.firstLeafNode( searchNode );
+                }
+                else {
+                    aPathNodes[ depth + 1 ] = parentNode = searchNode;
+                }
+            }
+        }
+    }
+
+    /**
+     * 从根沿 aPoint 的高位走到第 aDepth 层,返回最深的一个还有下一个儿子的祖先的下一个儿子
+     */
+    private IntervalNode<T> nextSiblingNode(int aDepth, int aPoint) {
+        IntervalNode<T> siblingNode = null;
+        IntervalNode<T> ancestorNode = this.mRootNode;
+        for (int depth = 0; depth < aDepth; ++depth) {
+            int depthChar = ((aPoint >>> this.mShifts[ depth ]) & this.mMasks[ depth ]);
+            if (depthChar < ancestorNode.mMax) {
+                siblingNode = ancestorNode.childNode( depthChar + 1 );
+            }
+            ancestorNode = ancestorNode.childNode( depthChar );
+        }
+        return siblingNode;
+    }
+
+    private static <T> void clearPathNodes(IntervalNode<T> [] aPathNodes, int aFromDepth) {
+        for (int i = aFromDepth; i < aPathNodes.length && aPathNodes[ i ] != null; ++i) {
+            aPathNodes[ i ] = null;
+        }
+    }
+
+    private static <T> IntervalNode<T> firstLeafNode(IntervalNode<T> aNode) {
+        while (aNode.mChildrenNodes != null) {
+            aNode = aNode.mChildrenNodes[ 0 ];
+        }
+        return aNode;
+    }
+
+    private static <T> IntervalNode<T> lastLeafNode(IntervalNode<T> aNode) {
+        //两种编码的最后一个位置上都是真正的儿子
+        while (aNode.mChildrenNodes != null) {
+            aNode = aNode.mChildrenNodes[ aNode.mChildrenNodes.length - 1 ];
+        }
+        return aNode;
+    }
+
+    /**
+     * 依次把与闭区间 [aFrom, aTo] (无符号)相交的各区间按由小到大的顺序交给 aConsumer。
+     * 只下到终点不小于 aFrom 的那些儿子,遇到起点大于 aTo 的区间就停止,因此花费只与结果个数有关
+     * @param aFrom 无符号起点
+     * @param aTo 无符号终点
+     * @param aConsumer 接收相交的各区间
+     */
+    public void query(int aFrom, int aTo, Consumer<? super Interval<T>> aConsumer) {
+        long from = aFrom & 0xFFFF_FFFFL, to = aTo & 0xFFFF_FFFFL;
+        if (from > to) {
+            throw new IllegalArgumentException( "aFrom > aTo" );
+        }
+        this.visit( this.mRootNode, 0, true, false, from, 0xFFFF_FFFFL, to, aConsumer );
+    }
+
+    /**
+     * 按由小到大的顺序遍历所有区间,在Trie节点的儿子边界处切分,可以用于并行处理
+     */
+    public Spliterator<Interval<T>> spliterator() {
+        return new IntervalSpliterator<T>( this, 0, 0xFFFF_FFFFL );
+    }
+
+    public Stream<Interval<T>> stream() {
+        return StreamSupport.stream( this.spliterator(), false );
+    }
+
+    public Stream<Interval<T>> parallelStream() {
+        return StreamSupport.stream( this.spliterator(), true );
+    }
+
+    /**
+     * 按序遍历 aNode 子树中终点在 [aLowEnd, aHighEnd] 内的区间,遇到起点大于 aMaxStart 的就停止
+     * @param aLowBounded aNode 的路径是否与 aLowEnd 的高位相同,即本层字符是否要受 aLowEnd 限制
+     * @param aHighBounded aNode 的路径是否与 aHighEnd 的高位相同
+     * @return false 表示已经停止
+     */
+    private boolean visit(IntervalNode<T> aNode, int aDepth, boolean aLowBounded, boolean aHighBounded, long aLowEnd, long aHighEnd, long aMaxStart, Consumer<? super Interval<T>> aConsumer) {
+        if (aNode.mChildrenNodes == null) {
+            if (aNode.mInterval.mStart > aMaxStart) {
+                return false;
+            }
+            aConsumer.accept( aNode.mInterval );
+            return true;
+        }
+        int shift = this.mShifts[ aDepth ], mask = this.mMasks[ aDepth ];
+        int lowChar = aLowBounded ? ( int )(aLowEnd >>> shift) & mask : aNode.mMin;
+        int highChar = aHighBounded ? ( int )(aHighEnd >>> shift) & mask : aNode.mMax;
+        int lastChar = Math.min( highChar, aNode.mMax );
+        for (int depthChar = Math.max( lowChar, aNode.mMin ); depthChar <= lastChar;) {
+            //空隙处就是下一个真正的儿子,因此总是直接跳到下一个儿子
+            IntervalNode<T> childNode = aNode.childNode( depthChar );
+            int ownerChar = childNode.mOwnerChar;
+            if (ownerChar > lastChar) {
+                break;
+            }
+            if (!this.visit( childNode, aDepth + 1, aLowBounded && ownerChar == lowChar, aHighBounded && ownerChar == highChar, aLowEnd, aHighEnd, aMaxStart, aConsumer )) {
+                return false;
+            }
+            depthChar = ownerChar + 1;
+        }
+        return true;
+    }
+
+    /**
+     * 估算本树占用的堆内存字节数,按64位JVM开启压缩指针估算,包括节点、儿子数组和区间对象,不包括区间的绑定对象。
+     * 与其它树共享的子树也计算在内
+     */
+    public long estimateMemorySize() {
+        return IntervalTree.estimateMemorySize( this.mRootNode ) + 16;
+    }
+
+    private static <T> long estimateMemorySize(IntervalNode<T> aNode) {
+        //节点对象:对象头12 + 4个int + 3个引用 = 40
+        long size = 40;
+        if (aNode.mChildrenNodes == null) {
+            //区间对象:对象头12 + 1个引用 + 2个long = 32
+            return size + 32;
+        }
+        IntervalNode<T> [] childrenNodes = aNode.mChildrenNodes;
+        size += (16 + 4L * childrenNodes.length + 7) & ~7L;
+        if (aNode.mDenseChildrenNodes == null) {
+            //位图:稀疏节点对象中的4个long
+            size += 32;
+        }
+        for (int i = 0; i < childrenNodes.length; ++i) {
+            if (aNode.isRealChildAt( i )) {
+                size += IntervalTree.estimateMemorySize( childrenNodes[ i ] );
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 返回加入了区间 aInterval 的新区间树,本树保持不变。新树与本树共享所有没有改动的子树,
+     * 只复制从根到新叶子这条路径上的节点,因此读者可以继续无锁地使用旧树,直到新树发布出去。
+     * 本树中有空着的区间序号(见 getIntervalIndexLimit)时重用其中一个,否则是 getIntervalIndexLimit(),新树的区间序号上限随之加1。
+     * @param aInterval 要加入的区间,不能与已有的区间重叠相交
+     * @return 新的区间树
+     */
+    public IntervalTree<T> with(Interval<T> aInterval) {
+        @SuppressWarnings("unchecked")
+        Interval<T> [] adds = new Interval [] {
+            aInterval
+        };
+        return new Batch<T>( this, null, adds ).apply();
+    }
+
+    /**
+     * 返回去掉了与 aInterval 起点终点都相同的那个区间的新区间树,本树保持不变,同样只复制改动路径上的节点
+     * @param aInterval 要去掉的区间,只比较起点和终点
+     * @return 新的区间树;没有这样的区间时就是本树
+     */
+    public IntervalTree<T> without(Interval<T> aInterval) {
+        @SuppressWarnings("unchecked")
+        Interval<T> [] removes = new Interval [] {
+            aInterval
+        };
+        return new Batch<T>( this, removes, null ).apply();
+    }
+
+    /**
+     * 先去掉 aRemoves 中的各区间,再加入 aAdds 中的各区间,返回最终的新区间树,本树保持不变。
+     * 得到的区间与依次调用 without 和 with 相同,但全部改动按终点排好序后自根向下一次完成,
+     * 每个被改动的节点(包括根)只复制一次,而不是每个改动都复制一遍从根开始的整条路径。
+     * 加入的区间优先重用空着的区间序号:原地替换(起点终点都相同)的重用被替换的区间的序号,其余的依次重用这一批去掉的和本树中原来就空着的序号,
+     * 用完之后才从 getIntervalIndexLimit() 开始分配,因此反复增删替换不会使区间序号上限无限增长。
+     * VersionedIntervalTree.withRelease 的增量发布就是一次 applyBatch
+     * @param aRemoves 要去掉的区间,只比较起点和终点,没有这样的区间时忽略;可以为 null
+     * @param aAdds 要加入的区间,互相之间以及与去掉之后剩下的区间都不能重叠相交;可以为 null
+     * @return 新的区间树;没有任何改动时就是本树
+     */
+    public IntervalTree<T> applyBatch(Interval<T> [] aRemoves, Interval<T> [] aAdds) {
+        return new Batch<T>( this, aRemoves, aAdds ).apply();
+    }
+
+    /**
+     * 按由小到大的顺序取出所有区间
+     */
+    Interval<T> [] toIntervalArray() {
+        ArrayList<Interval<T>> intervalList = new ArrayList<Interval<T>>( this.mIntervalIndexLimit );
+        IntervalTree.collectIntervals( this.mRootNode, intervalList );
+        @SuppressWarnings("unchecked")
+        Interval<T> [] intervals = intervalList.toArray( new Interval [ intervalList.size() ] );
+        return intervals;
+    }
+
+    private static <T> void collectIntervals(IntervalNode<T> aNode, ArrayList<Interval<T>> aIntervalList) {
+        if (aNode.mChildrenNodes == null) {
+            aIntervalList.add( aNode.mInterval );
+        }
+        else {
+            IntervalNode<T> [] childrenNodes = aNode.mChildrenNodes;
+            for (int i = 0; i < childrenNodes.length; ++i) {
+                if (aNode.isRealChildAt( i )) {
+                    IntervalTree.collectIntervals( childrenNodes[ i ], aIntervalList );
+                }
+            }
+        }
+    }
+
+    /**
+     * 按由小到大的顺序逐个取出各叶子的区间,用一个按层的路径栈代替递归:稠密编码中下一个位置若是空隙,其上填的下一个儿子的字符
+     * 直接给出了它自己的位置,因此每次取下一个都是均摊常数步
+     */
+    static final class LeafCursor<T> {
+        private final IntervalNode<T> [] mPathNodes;
+        /**
+         * mPathIndexes[depth] 是 mPathNodes[depth] 中当前所在儿子的位置
+         */
+        private final int [] mPathIndexes;
+        private int mDepth;
+
+        @SuppressWarnings("unchecked")
+        LeafCursor(IntervalTree<T> aTree) {
+            this.mPathNodes = new IntervalNode [ aTree.mShifts.length ];
+            this.mPathIndexes = new int [ aTree.mShifts.length ];
+            this.mPathNodes[ 0 ] = aTree.mRootNode;
+            this.mPathIndexes[ 0 ] = -1;
+        }
+
+        /**
+         * @return 下一个区间,没有时返回 null
+         */
+        Interval<T> next() {
+            int depth = this.mDepth;
+            while (depth >= 0) {
+                IntervalNode<T> node = this.mPathNodes[ depth ];
+                int index = this.mPathIndexes[ depth ] + 1;
+                if (index >= node.mChildrenNodes.length) {
+                    --depth;
+                    continue;
+                }
+                IntervalNode<T> childNode = node.mChildrenNodes[ index ];
+                this.mPathIndexes[ depth ] = node.mDenseChildrenNodes == null ? index : childNode.mOwnerChar - node.mMin;
+                if (childNode.mChildrenNodes == null) {
+                    this.mDepth = depth;
+                    return childNode.mInterval;
+                }
+                this.mPathNodes[ ++depth ] = childNode;
+                this.mPathIndexes[ depth ] = -1;
+            }
+            this.mDepth = -1;
+            return null;
+        }
+    }
+
+    /**
+     * 一批写时复制的增删改动:把要去掉的叶子和要加入的叶子按终点合并排好序,再自根向下一次重建,
+     * 每个被改动的节点只按其原有的真正儿子与落在其下的改动重建一次,没有改动的子树都是共享的
+     */
+    static final class Batch<T> {
+        private final IntervalTree<T> mTree;
+        /**
+         * 按无符号终点排好序的改动的终点,终点相同的去掉和加入合为一项
+         */
+        private final int [] mEnds;
+        /**
+         * 与 mEnds 对应的新叶子, null 表示只是去掉该终点处的叶子
+         */
+        private final IntervalNode<T> [] mLeafNodes;
+        private final int mCount;
+        private final int mIntervalIndexLimit;
+        private final FreeIndex mFreeIndexes;
+        /**
+         * 重建的节点个数(不含叶子),用来检查每个被改动的节点只重建一次
+         */
+        int mRebuiltNodeCount;
+
+        Batch(IntervalTree<T> aTree, Interval<T> [] aRemoves, Interval<T> [] aAdds) {
+            this.mTree = aTree;
+            //要去掉的叶子:起点和终点都对上的才算,重复的只算一次
+            @SuppressWarnings("unchecked")
+            IntervalNode<T> [] removeNodes = new IntervalNode [ aRemoves != null ? aRemoves.length : 0 ];
+            int removeCount = 0;
+            for (int i = 0; i < removeNodes.length; ++i) {
+                Interval<T> remove = aRemoves[ i ];
+                IntervalNode<T> leafNode = aTree.searchContainingNode( ( int )remove.mEnd );
+                if (leafNode != null && leafNode.mInterval.mStart == remove.mStart && leafNode.mInterval.mEnd == remove.mEnd) {
+                    removeNodes[ removeCount++ ] = leafNode;
+                }
+            }
+            Arrays.sort( removeNodes, 0, removeCount, (aOne, aTwo) -> Long.compare( aOne.mInterval.mEnd, aTwo.mInterval.mEnd ) );
+            int distinctCount = 0;
+            for (int i = 0; i < removeCount; ++i) {
+                if (distinctCount == 0 || removeNodes[ distinctCount - 1 ] != removeNodes[ i ]) {
+                    removeNodes[ distinctCount++ ] = removeNodes[ i ];
+                }
+            }
+            removeCount = distinctCount;
+            long [] removeEnds = new long [ removeCount ];
+            for (int i = 0; i < removeCount; ++i) {
+                removeEnds[ i ] = removeNodes[ i ].mInterval.mEnd;
+            }
+            //要加入的区间按终点排序之后,互相之间只需检查相邻的,与剩下的区间则检查起点之后第一个没有被去掉的区间
+            Interval<T> [] adds = aAdds != null ? aAdds.clone() : IntervalTree.Batch.<T> newIntervalArray( 0 );
+            Arrays.sort( adds, (aOne, aTwo) -> Long.compare( aOne.mEnd, aTwo.mEnd ) );
+            for (int i = 0; i < adds.length; ++i) {
+                Interval<T> add = adds[ i ];
+                if (i > 0 && add.mStart <= adds[ i - 1 ].mEnd) {
+                    throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+                }
+                IntervalNode<T> ceilingNode = aTree.ceilingLeafNode( ( int )add.mStart );
+                while (ceilingNode != null && ceilingNode.mInterval.mStart <= add.mEnd && Arrays.binarySearch( removeEnds, ceilingNode.mInterval.mEnd ) >= 0) {
+                    ceilingNode = ceilingNode.mInterval.mEnd == 0xFFFF_FFFFL ? null : aTree.ceilingLeafNode( ( int )ceilingNode.mInterval.mEnd + 1 );
+                }
+                if (ceilingNode != null && ceilingNode.mInterval.mStart <= add.mEnd) {
+                    throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+                }
+            }
+            //按终点合并,终点相同的就是原地替换,新叶子直接重用被替换的叶子的区间序号;其余被去掉的叶子的区间序号空出来
+            int [] ends = new int [ removeCount + adds.length ];
+            Interval<T> [] addIntervals = IntervalTree.Batch.<T> newIntervalArray( ends.length );
+            int [] indexes = new int [ ends.length ];
+            int count = 0;
+            FreeIndex freeIndexes = aTree.mFreeIndexes;
+            for (int r = 0, a = 0; r < removeCount || a < adds.length; ++count) {
+                long removeEnd = r < removeCount ? removeEnds[ r ] : Long.MAX_VALUE;
+                long addEnd = a < adds.length ? adds[ a ].mEnd : Long.MAX_VALUE;
+                indexes[ count ] = -1;
+                if (removeEnd < addEnd) {
+                    ends[ count ] = ( int )removeEnd;
+                    freeIndexes = new FreeIndex( removeNodes[ r++ ].mIntervalIndex, freeIndexes );
+                }
+                else {
+                    ends[ count ] = ( int )addEnd;
+                    addIntervals[ count ] = adds[ a++ ];
+                    if (removeEnd == addEnd) {
+                        indexes[ count ] = removeNodes[ r++ ].mIntervalIndex;
+                    }
+                }
+            }
+            @SuppressWarnings("unchecked")
+            IntervalNode<T> [] leafNodes = new IntervalNode [ count ];
+            int indexLimit = aTree.mIntervalIndexLimit, lastMask = aTree.mMasks[ aTree.mMasks.length - 1 ];
+            for (int i = 0; i < count; ++i) {
+                if (addIntervals[ i ] != null) {
+                    int index = indexes[ i ];
+                    if (index < 0 && freeIndexes != null) {
+                        index = freeIndexes.mIndex;
+                        freeIndexes = freeIndexes.mNext;
+                    }
+                    else if (index < 0) {
+                        index = indexLimit++;
+                    }
+                    leafNodes[ i ] = new IntervalNode<T>( ends[ i ] & lastMask, addIntervals[ i ], index );
+                }
+            }
+            this.mEnds = ends;
+            this.mLeafNodes = leafNodes;
+            this.mCount = count;
+            this.mIntervalIndexLimit = indexLimit;
+            this.mFreeIndexes = freeIndexes;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Interval<T> [] newIntervalArray(int aLength) {
+            return new Interval [ aLength ];
+        }
+
+        /**
+         * @return 改动之后的新区间树,没有任何改动时就是原树
+         */
+        IntervalTree<T> apply() {
+            IntervalTree<T> tree = this.mTree;
+            if (this.mCount == 0) {
+                return tree;
+            }
+            IntervalNode<T> rootNode = this.rebuild( tree.mRootNode, tree.mRootNode.mOwnerChar, 0, 0, this.mCount );
+            if (rootNode == null) {
+                //全部去掉之后不再有任何区间序号
+                return new IntervalTree<T>( IntervalNode.<T> emptyRootNode(), 0, tree.mStride, tree.mSparseNodes );
+            }
+            return new IntervalTree<T>( rootNode, this.mIntervalIndexLimit, tree.mStride, tree.mSparseNodes, this.mFreeIndexes );
+        }
+
+        /**
+         * 按第 aDepth 层的节点 aNode 原有的真正儿子和落在其下的改动 [aFrom, aTo) 重建该节点, aNode 为 null 表示原来没有这个节点
+         * @return 新节点,没有任何儿子时返回 null
+         */
+        private IntervalNode<T> rebuild(IntervalNode<T> aNode, int aOwnerChar, int aDepth, int aFrom, int aTo) {
+            ++this.mRebuiltNodeCount;
+            int shift = this.mTree.mShifts[ aDepth ], mask = this.mTree.mMasks[ aDepth ];
+            boolean leafLevel = aDepth == this.mTree.mShifts.length - 1;
+            IntervalNode<T> [] existNodes = aNode != null ? aNode.mChildrenNodes : null;
+            int existLength = existNodes != null ? existNodes.length : 0;
+            @SuppressWarnings("unchecked")
+            IntervalNode<T> [] childrenNodes = new IntervalNode [ existLength + aTo - aFrom ];
+            int count = 0;
+            for (int i = 0, from = aFrom;;) {
+                while (i < existLength && !aNode.isRealChildAt( i )) {
+                    ++i;
+                }
+                IntervalNode<T> existNode = i < existLength ? existNodes[ i ] : null;
+                if (from == aTo) {
+                    if (existNode == null) {
+                        break;
+                    }
+                    childrenNodes[ count++ ] = existNode;
+                    ++i;
+                    continue;
+                }
+                int childChar = (this.mEnds[ from ] >>> shift) & mask;
+                if (existNode != null && existNode.mOwnerChar < childChar) {
+                    //没有改动的儿子原样共享
+                    childrenNodes[ count++ ] = existNode;
+                    ++i;
+                    continue;
+                }
+                int to = from + 1;
+                while (to < aTo && ((this.mEnds[ to ] >>> shift) & mask) == childChar) {
+                    ++to;
+                }
+                if (existNode != null && existNode.mOwnerChar == childChar) {
+                    ++i;
+                }
+                else {
+                    existNode = null;
+                }
+                //最后一层各改动的终点互不相同,每个字符上只有一项
+                IntervalNode<T> childNode = leafLevel ? this.mLeafNodes[ from ] : this.rebuild( existNode, childChar, aDepth + 1, from, to );
+                if (childNode != null) {
+                    childrenNodes[ count++ ] = childNode;
+                }
+                from = to;
+            }
+            return count == 0 ? null : IntervalNode.parentNode( aOwnerChar, childrenNodes, count, this.mTree.mSparseNodes );
+        }
+    }
+
+    /**
+     * 空着的区间序号组成的不可变链表栈,写时复制时入栈出栈都是常数步,新旧树共享没有改动的部分
+     */
+    private static final class FreeIndex {
+        final int mIndex;
+        final FreeIndex mNext;
+
+        FreeIndex(int aIndex, FreeIndex aNext) {
+            this.mIndex = aIndex;
+            this.mNext = aNext;
+        }
+    }
+
+    /**
+     * 遍历终点在 [mLowEnd, mHighEnd] 内的区间, trySplit 在此范围内的某个Trie节点的儿子边界处把前一半切分出去
+     */
+    private static final class IntervalSpliterator<T> implements Spliterator<Interval<T>> {
+        private final IntervalTree<T> mTree;
+        private long mLowEnd;
+        private final long mHighEnd;
+        /**
+         * tryAdvance 查找时记录路径,第一次用时才分配
+         */
+        private IntervalNode<T> [] mPathNodes;
+
+        IntervalSpliterator(IntervalTree<T> aTree, long aLowEnd, long aHighEnd) {
+            this.mTree = aTree;
+            this.mLowEnd = aLowEnd;
+            this.mHighEnd = aHighEnd;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Interval<T>> aAction) {
+            if (this.mLowEnd > this.mHighEnd) {
+                return false;
+            }
+            if (this.mPathNodes == null) {
+                @SuppressWarnings("unchecked")
+                IntervalNode<T> [] pathNodes = new IntervalNode [ this.mTree.mShifts.length ];
+                this.mPathNodes = pathNodes;
+            }
+            this.mPathNodes[ 0 ] = this.mTree.mRootNode;
+            //终点不小于 mLowEnd 的第一个区间
+            IntervalNode<T> leafNode = this.mTree.searchLeafNode( this.mPathNodes, 0, ( int )this.mLowEnd );
+            if (leafNode == null || leafNode.mInterval.mEnd > this.mHighEnd) {
+                this.mLowEnd = this.mHighEnd + 1;
+                return false;
+            }
+            this.mLowEnd = leafNode.mInterval.mEnd + 1;
+            aAction.accept( leafNode.mInterval );
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Interval<T>> aAction) {
+            if (this.mLowEnd <= this.mHighEnd) {
+                this.mTree.visit( this.mTree.mRootNode, 0, true, true, this.mLowEnd, this.mHighEnd, 0xFFFF_FFFFL, aAction );
+                this.mLowEnd = this.mHighEnd + 1;
+            }
+        }
+
+        @Override
+        public Spliterator<Interval<T>> trySplit() {
+            long low = this.mLowEnd, high = this.mHighEnd;
+            IntervalNode<T> node = this.mTree.mRootNode;
+            for (int depth = 0; low < high && node.mChildrenNodes != null; ++depth) {
+                int shift = this.mTree.mShifts[ depth ], mask = this.mTree.mMasks[ depth ];
+                int lowChar = ( int )(low >>> shift) & mask, highChar = ( int )(high >>> shift) & mask;
+                int firstChar = Math.max( lowChar, node.mMin ), lastChar = Math.min( highChar, node.mMax );
+                if (firstChar > lastChar) {
+                    return null;
+                }
+                IntervalNode<T> firstChildNode = node.childNode( firstChar );
+                if (firstChildNode.mOwnerChar > lastChar) {
+                    return null;
+                }
+                //在第一个儿子之后二分找一个范围内的真正儿子作为切分点,尽量靠近中间
+                for (int from = firstChildNode.mOwnerChar + 1, to = lastChar; from <= to;) {
+                    int middle = (from + to) >>> 1;
+                    int splitChar = node.childNode( middle ).mOwnerChar;
+                    if (splitChar <= to) {
+                        long base = low & ~((( long )mask << shift) | ((1L << shift) - 1));
+                        long splitEnd = base | (( long )splitChar << shift);
+                        IntervalSpliterator<T> prefix = new IntervalSpliterator<T>( this.mTree, this.mLowEnd, splitEnd - 1 );
+                        this.mLowEnd = splitEnd;
+                        return prefix;
+                    }
+                    to = middle - 1;
+                }
+                //范围内只有这一个儿子,下到这个儿子里面再切分
+                long base = low & ~((( long )mask << shift) | ((1L << shift) - 1));
+                long childLow = base | (( long )firstChildNode.mOwnerChar << shift);
+                low = Math.max( low, childLow );
+                high = Math.min( high, childLow | ((1L << shift) - 1) );
+                node = firstChildNode;
+            }
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            //按终点范围占整个32位空间的比例粗略估计
+            return this.mLowEnd > this.mHighEnd ? 0 : Math.max( 1, ( long )((this.mHighEnd - this.mLowEnd + 1) / 4294967296.0 * this.mTree.mIntervalIndexLimit) );
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        }
+    }
+
+    static class IntervalNode<T> {
+        /**
+         * 构造时选择了位图编码(默认不选)后,儿子个数不超过跨度 (mMax - mMin + 1) 的 1/BITMAP_DENSITY_DIVISOR 且跨度至少为 BITMAP_MIN_SPAN 时采用位图编码,
+         * 位图只有256位,因此16位步长的层中只有儿子字符都小于256的节点才可能采用
+         */
+        static final int BITMAP_DENSITY_DIVISOR = 4;
+        static final int BITMAP_MIN_SPAN = 16;
+
         int mOwnerChar;
         int mMin, mMax;//当min==max时就是一个点,这里用int是取无符号8位整形
-        IntervalNode<T> mParentNode;
+        /**
+         * 稠密编码时长度为 mMax - mMin + 1,下标为 c - mMin,空隙部分填成下一个儿子;
+         * 位图编码时只按序存放真正的儿子
+         */
         IntervalNode<T> [] mChildrenNodes;
+        /**
+         * 稠密节点就是 mChildrenNodes,位图编码的节点(SparseIntervalNode)和叶子为 null:
+         * 查找时只取这一个引用,其判空同时就是数组访问本来就要做的判空,稠密节点上不必先判断是哪种编码
+         */
+        IntervalNode<T> [] mDenseChildrenNodes;
 
         Interval<T> mInterval;
+        /**
+         * 叶子节点的区间序号
+         */
+        int mIntervalIndex;
 
-        IntervalNode(int aOwnerChar, int aMin, int aMax) {
-            if (aMin > aMax) {
-                throw new Error();
-            }
-            this.mOwnerChar = aOwnerChar;
+        private IntervalNode(int aOwnerChar, int aMin, int aMax, IntervalNode<T> [] aChildrenNodes, boolean aDense) {
             //父节点
+            this.mOwnerChar = aOwnerChar;
             this.mMin = aMin;
             this.mMax = aMax;
-            @SuppressWarnings("unchecked")
-            IntervalNode<T> [] childrenNodes = new IntervalNode [ aMax - aMin + 1 ];
-            this.mChildrenNodes = childrenNodes;
+            this.mChildrenNodes = aChildrenNodes;
+            this.mDenseChildrenNodes = aDense ? aChildrenNodes : null;
         }
 
-        IntervalNode(int aChar, Interval<T> aInterval) {
+        IntervalNode(int aChar, Interval<T> aInterval, int aIntervalIndex) {
             //叶子节点
             this.mOwnerChar = aChar;
             this.mMin = aChar;
             this.mMax = aChar;
             this.mInterval = aInterval;
+            this.mIntervalIndex = aIntervalIndex;
+        }
+
+        /**
+         * 空树的虚根:没有任何儿子, mMin > mMax 使得任何点都落在其右边而查不到
+         */
+        static <T> IntervalNode<T> emptyRootNode() {
+            IntervalNode<T> rootNode = new IntervalNode<T>( '\0', null, -1 );
+            rootNode.mMin = 0;
+            rootNode.mMax = -1;
+            @SuppressWarnings("unchecked")
+            IntervalNode<T> [] childrenNodes = new IntervalNode [ 0 ];
+            rootNode.mChildrenNodes = childrenNodes;
+            rootNode.mDenseChildrenNodes = childrenNodes;
+            rootNode.mInterval = null;
+            return rootNode;
         }
 
-        IntervalNode<T> search(int aPoint, int aLevel) {
-            //依次取最高8位、次高8位、次低8位、最低8位无符号值
-            int depthChar = ((aPoint >>> IntervalTree.BIT_MOVE_COUNT[ aLevel ]) & 0xFF);
+        /**
+         * 由按字符排好序的真正儿子构造父节点,按儿子的密度选择稠密编码或位图编码
+         * @param aChildrenNodes 前 aCount 个是真正的儿子,不会被保留
+         * @param aSparseNodes 为 false 时总是稠密编码
+         */
+        static <T> IntervalNode<T> parentNode(int aOwnerChar, IntervalNode<T> [] aChildrenNodes, int aCount, boolean aSparseNodes) {
+            if (aCount == 0) {
+                throw new Error();
+            }
+            int min = aChildrenNodes[ 0 ].mOwnerChar;
+            int max = aChildrenNodes[ aCount - 1 ].mOwnerChar;
+            int span = max - min + 1;
+            if (aSparseNodes && max <= 0xFF && span >= IntervalNode.BITMAP_MIN_SPAN && aCount * IntervalNode.BITMAP_DENSITY_DIVISOR <= span) {
+                return new SparseIntervalNode<T>( aOwnerChar, min, max, Arrays.copyOf( aChildrenNodes, aCount ) );
+            }
+            @SuppressWarnings("unchecked")
+            IntervalNode<T> [] childrenNodes = new IntervalNode [ span ];
+            for (int i = 0, from = 0; i < aCount; ++i) {
+                IntervalNode<T> childNode = aChildrenNodes[ i ];
+                //这里是非常关键的优化
+                //不仅在儿子字符的位置上放入，而且把前面空隙部分填成此儿子以大大加快查找匹配的速度
+                for (int to = childNode.mOwnerChar - min; from <= to; ++from) {
+                    childrenNodes[ from ] = childNode;
+                }
+            }
+            return new IntervalNode<T>( aOwnerChar, min, max, childrenNodes, true );
+        }
+
+        /**
+         * 取得字符 aChar 处的儿子, mMin <= aChar <= mMax;没有字符为 aChar 的儿子时就是下一个儿子,两种编码都是恒定时间
+         */
+        IntervalNode<T> childNode(int aChar) {
+            IntervalNode<T> [] denseChildrenNodes = this.mDenseChildrenNodes;
+            if (denseChildrenNodes != null) {
+                return denseChildrenNodes[ aChar - this.mMin ];
+            }
+            //rank:字符小于 aChar 的儿子个数,就是第一个字符不小于 aChar 的儿子的下标
+            return this.mChildrenNodes[ (( SparseIntervalNode<T> )this).rank( aChar ) ];
+        }
+
+        /**
+         * @return mChildrenNodes[aIndex] 是否是真正的儿子;稠密编码的空隙部分填的是下一个儿子,只有mOwnerChar对上的才是
+         */
+        boolean isRealChildAt(int aIndex) {
+            return this.mDenseChildrenNodes == null || this.mChildrenNodes[ aIndex ].mOwnerChar == this.mMin + aIndex;
+        }
+
+        /**
+         * 取得字符小于 aChar 的最后一个真正儿子, mMin < aChar <= mMax。
+         * 位图编码由 rank 直接得到;稠密编码各位置上儿子的字符是非降的,空隙部分填的是下一个儿子,
+         * 因此二分查找字符小于 aChar 的最后一个位置,最多 8 步(16位步长的层最多 16 步)
+         */
+        IntervalNode<T> lowerChildNode(int aChar) {
+            IntervalNode<T> [] childrenNodes = this.mChildrenNodes;
+            if (this.mDenseChildrenNodes == null) {
+                return childrenNodes[ (( SparseIntervalNode<T> )this).rank( aChar ) - 1 ];
+            }
+            //childrenNodes[low]的字符总是小于aChar, childrenNodes[high]的字符总是不小于aChar
+            int low = 0, high = aChar - this.mMin;
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                if (childrenNodes[ middle ].mOwnerChar < aChar) {
+                    low = middle;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return childrenNodes[ low ];
+        }
+
+        IntervalNode<T> search(int aPoint, int aLevel, int [] aShifts, int [] aMasks) {
+            //默认依次取最高8位、次高8位、次低8位、最低8位无符号值
+            int depthChar = ((aPoint >>> aShifts[ aLevel ]) & aMasks[ aLevel ]);
             if (depthChar < this.mMin) {
                 IntervalNode<T> searchNode = this.mChildrenNodes[ 0 ];
                 while (searchNode.mChildrenNodes != null) {
@@ -135,10 +1212,9 @@ public final class IntervalTree<T> {
                 return null;
             }
             else {
-                int levalChildIndex = depthChar - this.mMin;
-                IntervalNode<T> searchNode = this.mChildrenNodes[ levalChildIndex ];
-                if (aLevel == 3) {
-                    return searchNode;//此searchNode为第4层数据叶子节点
+                IntervalNode<T> searchNode = this.childNode( depthChar );
+                if (aLevel == aShifts.length - 1) {
+                    return searchNode;//此searchNode为最后一层数据叶子节点
                 }
                 else {
                     if (searchNode.mOwnerChar != depthChar) {
@@ -148,13 +1224,13 @@ public final class IntervalTree<T> {
                         return searchNode;
                     }
                     else {
-                        IntervalNode<T> findNode = searchNode.search( aPoint, aLevel + 1 );
+                        IntervalNode<T> findNode = searchNode.search( aPoint, aLevel + 1, aShifts, aMasks );
                         if (findNode == null) {
-                            if (levalChildIndex == this.mChildrenNodes.length - 1) {
+                            if (depthChar == this.mMax) {
                                 return null;
                             }
                             else {
-                                searchNode = this.mChildrenNodes[ levalChildIndex + 1 ];
+                                searchNode = this.childNode( depthChar + 1 );
                                 while (searchNode.mChildrenNodes != null) {
                                     searchNode = searchNode.mChildrenNodes[ 0 ];
                                 }
@@ -169,4 +1245,41 @@ public final class IntervalTree<T> {
             }
         }
     }
+
+    /**
+     * 位图编码的节点:256位占用位图直接放在节点对象中,第c位为1表示有字符为c的儿子,
+     * 查找时与节点的 mMin/mMax 在同一处,不必再跳到另外一个位图数组
+     */
+    static final class SparseIntervalNode<T> extends IntervalNode<T> {
+        private final long mBitmap0, mBitmap1, mBitmap2, mBitmap3;
+
+        SparseIntervalNode(int aOwnerChar, int aMin, int aMax, IntervalNode<T> [] aChildrenNodes) {
+            super( aOwnerChar, aMin, aMax, aChildrenNodes, false );
+            long [] bitmap = new long [ 4 ];
+            for (IntervalNode<T> childNode : aChildrenNodes) {
+                bitmap[ childNode.mOwnerChar >>> 6 ] |= 1L << childNode.mOwnerChar;
+            }
+            this.mBitmap0 = bitmap[ 0 ];
+            this.mBitmap1 = bitmap[ 1 ];
+            this.mBitmap2 = bitmap[ 2 ];
+            this.mBitmap3 = bitmap[ 3 ];
+        }
+
+        /**
+         * @return 字符小于 aChar 的儿子个数, 0 <= aChar <= 0xFF
+         */
+        int rank(int aChar) {
+            long lowBits = (1L << aChar) - 1;
+            switch (aChar >>> 6) {
+                case 0:
+                    return Long.bitCount( this.mBitmap0 & lowBits );
+                case 1:
+                    return Long.bitCount( this.mBitmap0 ) + Long.bitCount( this.mBitmap1 & lowBits );
+                case 2:
+                    return Long.bitCount( this.mBitmap0 ) + Long.bitCount( this.mBitmap1 ) + Long.bitCount( this.mBitmap2 & lowBits );
+                default:
+                    return Long.bitCount( this.mBitmap0 ) + Long.bitCount( this.mBitmap1 ) + Long.bitCount( this.mBitmap2 ) + Long.bitCount( this.mBitmap3 & lowBits );
+            }
+        }
+    }
 }
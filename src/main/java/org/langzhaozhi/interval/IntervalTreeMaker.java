@@ -1,8 +1,13 @@
 package org.langzhaozhi.interval;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 
 import org.langzhaozhi.interval.IntervalTree.IntervalNode;
 
@@ -10,63 +15,524 @@ import org.langzhaozhi.interval.IntervalTree.IntervalNode;
  * 采用类似DAT的fetch构造过程
  */
 public class IntervalTreeMaker {
+    /**
+     * AUTO 步长:区间个数少于此值时总是 8-8-8-8
+     */
+    static final int AUTO_MIN_COUNT = 4096;
+    /**
+     * AUTO 步长:为减少层数最多愿意多付出的儿子数组总长度,以压缩指针计约4M字节
+     */
+    static final long AUTO_EXTRA_SLOTS = 1L << 20;
+    /**
+     * 并行构造时区间个数不超过此值的一组子树在同一个任务中构造
+     */
+    private static final int PARALLEL_LEAF_COUNT = 4096;
+
     public static <T> IntervalTree<T> makeIntervalTree(Interval<T> [] aIntervalArray) {
+        IntervalTreeMaker.sortAndCheck( aIntervalArray );
+        return IntervalTreeMaker.makeSortedIntervalTree( aIntervalArray );
+    }
+
+    /**
+     * 并行构造：最高8位不同的各个子树互不相关,按最高8位把排好序的区间数组分段,在 aForkJoinPool 上并行构造各个子树。
+     * 构造结果是确定的,与单线程构造出来的区间树结构完全相同
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aForkJoinPool 并行构造各子树所用的线程池
+     */
+    public static <T> IntervalTree<T> makeIntervalTree(Interval<T> [] aIntervalArray, ForkJoinPool aForkJoinPool) {
+        return IntervalTreeMaker.makeIntervalTree( aIntervalArray, IntervalStride.STRIDE_8_8_8_8, aForkJoinPool );
+    }
+
+    /**
+     * 按指定的步长构造
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aStride 各层步长, AUTO 表示根据区间个数和分布自动选择
+     */
+    public static <T> IntervalTree<T> makeIntervalTree(Interval<T> [] aIntervalArray, IntervalStride aStride) {
+        return IntervalTreeMaker.makeIntervalTree( aIntervalArray, aStride, null );
+    }
+
+    /**
+     * 按指定的步长并行构造
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aStride 各层步长, AUTO 表示根据区间个数和分布自动选择
+     * @param aForkJoinPool 并行构造各子树所用的线程池,为 null 时单线程构造
+     */
+    public static <T> IntervalTree<T> makeIntervalTree(Interval<T> [] aIntervalArray, IntervalStride aStride, ForkJoinPool aForkJoinPool) {
+        return IntervalTreeMaker.makeIntervalTree( aIntervalArray, aStride, aForkJoinPool, false );
+    }
+
+    /**
+     * 按指定的步长并行构造,并可选择稀疏节点的位图编码:儿子很少的节点只存真正的儿子和一个256位的占用位图,
+     * 查找时由位图的rank得到儿子的下标,仍是恒定时间。能明显减少稀疏数据的内存,但查找时多一次rank,
+     * 大量区间时整体比全部稠密编码慢,所以默认不选
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aStride 各层步长, AUTO 表示根据区间个数和分布自动选择
+     * @param aForkJoinPool 并行构造各子树所用的线程池,为 null 时单线程构造
+     * @param aSparseNodes 是否对稀疏节点采用位图编码,之后 with/without 产生的新节点也沿用此选择
+     */
+    public static <T> IntervalTree<T> makeIntervalTree(Interval<T> [] aIntervalArray, IntervalStride aStride, ForkJoinPool aForkJoinPool, boolean aSparseNodes) {
+        if (aStride == null) {
+            throw new IllegalArgumentException( "aStride is null" );
+        }
+        IntervalTreeMaker.sortAndCheck( aIntervalArray );
+        return IntervalTreeMaker.makeSortedIntervalTree( aIntervalArray, aStride, aForkJoinPool, aSparseNodes );
+    }
+
+    /**
+     * 由已经按无符号起点排好序且互不相交的区间直接构造,省去排序和相交检查
+     * @param aSortedIntervalArray 排好序且互不相交的区间,不能为空
+     */
+    static <T> IntervalTree<T> makeSortedIntervalTree(Interval<T> [] aSortedIntervalArray) {
+        return IntervalTreeMaker.makeSortedIntervalTree( aSortedIntervalArray, IntervalStride.STRIDE_8_8_8_8, null, false );
+    }
+
+    /**
+     * @param aForkJoinPool 为 null 时单线程构造
+     */
+    static <T> IntervalTree<T> makeSortedIntervalTree(Interval<T> [] aSortedIntervalArray, IntervalStride aStride, ForkJoinPool aForkJoinPool, boolean aSparseNodes) {
+        IntervalStride stride = aStride == IntervalStride.AUTO ? IntervalTreeMaker.chooseStride( aSortedIntervalArray ) : aStride;
+        ProccessingNode<T> proccessingRootNode = new ProccessingNode<T>( aSortedIntervalArray.length );
+        if (aForkJoinPool == null) {
+            new MakeContext<T>( aSortedIntervalArray, stride ).fetchAll( proccessingRootNode );
+        }
+        else {
+            //只fetch虚根这一层,其下第一层的各个儿子子树各自独立构造
+            IntervalTreeMaker.fetch( new MakeContext<T>( aSortedIntervalArray, stride ), proccessingRootNode );
+            ProccessingNode<T> [] topNodes = proccessingRootNode.mChildrenNodes;
+            aForkJoinPool.invoke( new SubtreeTask<T>( aSortedIntervalArray, stride, aSparseNodes, topNodes, 0, topNodes.length ) );
+        }
+        IntervalNode<T> rootIntervalNode = proccessingRootNode.toIntervalNode( aSparseNodes );
+        return new IntervalTree<T>( rootIntervalNode, aSortedIntervalArray.length, stride, aSparseNodes );
+    }
+
+    /**
+     * AUTO 步长:区间不多时整棵树都在缓存里,用 8-8-8-8;否则在稠密儿子数组的总长度比 8-8-8-8 多出不超过 AUTO_EXTRA_SLOTS 的前提下,
+     * 选层数最少的步长。16-8-8 比 8-8-8-8 至多多出第一层的65536项,因此区间多时至少是 16-8-8
+     */
+    static IntervalStride chooseStride(Interval<?> [] aSortedIntervalArray) {
+        if (aSortedIntervalArray.length < IntervalTreeMaker.AUTO_MIN_COUNT) {
+            return IntervalStride.STRIDE_8_8_8_8;
+        }
+        long budget = IntervalTreeMaker.denseSlotCount( aSortedIntervalArray, IntervalStride.STRIDE_8_8_8_8 ) + IntervalTreeMaker.AUTO_EXTRA_SLOTS;
+        if (IntervalTreeMaker.denseSlotCount( aSortedIntervalArray, IntervalStride.STRIDE_16_16 ) <= budget) {
+            return IntervalStride.STRIDE_16_16;
+        }
+        return IntervalTreeMaker.denseSlotCount( aSortedIntervalArray, IntervalStride.STRIDE_16_8_8 ) <= budget ? IntervalStride.STRIDE_16_8_8 : IntervalStride.STRIDE_8_8_8_8;
+    }
+
+    /**
+     * @return 按 aStride 构造时所有节点都用稠密编码的儿子数组总长度,即各层每个节点的 max - min + 1 之和
+     */
+    private static long denseSlotCount(Interval<?> [] aSortedIntervalArray, IntervalStride aStride) {
+        long slotCount = 0;
+        for (int depth = 0; depth < aStride.mShifts.length; ++depth) {
+            int shift = aStride.mShifts[ depth ], mask = aStride.mMasks[ depth ];
+            //同一个父节点的儿子就是更高各层字符都相同的,终点有序所以其字符也有序
+            long parentPrefix = -1;
+            int minChar = 0, maxChar = 0;
+            for (Interval<?> interval : aSortedIntervalArray) {
+                long prefix = depth == 0 ? 0 : interval.mEnd >>> aStride.mShifts[ depth - 1 ];
+                int depthChar = ( int )(interval.mEnd >>> shift) & mask;
+                if (prefix != parentPrefix) {
+                    slotCount += parentPrefix < 0 ? 0 : maxChar - minChar + 1;
+                    parentPrefix = prefix;
+                    minChar = depthChar;
+                }
+                maxChar = depthChar;
+            }
+            slotCount += maxChar - minChar + 1;
+        }
+        return slotCount;
+    }
+
+    /**
+     * 构造合并了相邻同绑定对象区间的区间树,绑定对象用 Objects.equals 比较
+     * @see #makeCoalescedIntervalTree(Interval[], BiPredicate)
+     */
+    public static <T> CoalescedIntervalTree<T> makeCoalescedIntervalTree(Interval<T> [] aIntervalArray) {
+        return IntervalTreeMaker.makeCoalescedIntervalTree( aIntervalArray, Objects::equals );
+    }
+
+    /**
+     * 构造合并了相邻同绑定对象区间的区间树:首尾相接且绑定对象相等的区间合并成一个叶子,合并后的绑定对象取其中第一个区间的
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aEquality 判断两个绑定对象是否相等,总是拿合并中的第一个区间的绑定对象与后面的比较
+     * @return 合并后的区间树及合并映射
+     */
+    public static <T> CoalescedIntervalTree<T> makeCoalescedIntervalTree(Interval<T> [] aIntervalArray, BiPredicate<? super T, ? super T> aEquality) {
+        return IntervalTreeMaker.makeCoalescedIntervalTree( aIntervalArray, aEquality, IntervalStride.STRIDE_8_8_8_8, null, false );
+    }
+
+    /**
+     * 按指定的步长并行构造合并了相邻同绑定对象区间的区间树,合并本身是一遍顺序扫描,只有合并后区间树的构造是并行的
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aEquality 判断两个绑定对象是否相等,总是拿合并中的第一个区间的绑定对象与后面的比较
+     * @param aStride 各层步长, AUTO 表示根据合并后区间的个数和分布自动选择
+     * @param aForkJoinPool 并行构造各子树所用的线程池,为 null 时单线程构造
+     * @return 合并后的区间树及合并映射
+     */
+    public static <T> CoalescedIntervalTree<T> makeCoalescedIntervalTree(Interval<T> [] aIntervalArray, BiPredicate<? super T, ? super T> aEquality, IntervalStride aStride, ForkJoinPool aForkJoinPool) {
+        return IntervalTreeMaker.makeCoalescedIntervalTree( aIntervalArray, aEquality, aStride, aForkJoinPool, false );
+    }
+
+    /**
+     * 同 makeCoalescedIntervalTree(Interval[], BiPredicate, IntervalStride, ForkJoinPool),并可选择稀疏节点的位图编码
+     * @param aSparseNodes 是否对稀疏节点采用位图编码
+     * @see #makeIntervalTree(Interval[], IntervalStride, ForkJoinPool, boolean)
+     */
+    public static <T> CoalescedIntervalTree<T> makeCoalescedIntervalTree(Interval<T> [] aIntervalArray, BiPredicate<? super T, ? super T> aEquality, IntervalStride aStride, ForkJoinPool aForkJoinPool, boolean aSparseNodes) {
+        if (aStride == null) {
+            throw new IllegalArgumentException( "aStride is null" );
+        }
+        IntervalTreeMaker.sortAndCheck( aIntervalArray );
+        int count = aIntervalArray.length;
+        @SuppressWarnings("unchecked")
+        Interval<T> [] mergedIntervals = new Interval [ count ];
+        int [] originalOffsets = new int [ count + 1 ];
+        int mergedCount = 0;
+        for (int i = 0; i < count;) {
+            Interval<T> first = aIntervalArray[ i ];
+            int runEnd = i + 1;
+            while (runEnd < count && aIntervalArray[ runEnd ].mStart == aIntervalArray[ runEnd - 1 ].mEnd + 1 && aEquality.test( first.mAttachment, aIntervalArray[ runEnd ].mAttachment )) {
+                ++runEnd;
+            }
+            //没有合并的区间直接复用原始区间对象
+            mergedIntervals[ mergedCount ] = runEnd == i + 1 ? first : new Interval<T>( first.mAttachment, ( int )first.mStart, ( int )aIntervalArray[ runEnd - 1 ].mEnd );
+            originalOffsets[ mergedCount++ ] = i;
+            i = runEnd;
+        }
+        originalOffsets[ mergedCount ] = count;
+        IntervalTree<T> tree = IntervalTreeMaker.makeSortedIntervalTree( mergedCount == count ? mergedIntervals : Arrays.copyOf( mergedIntervals, mergedCount ), aStride, aForkJoinPool, aSparseNodes );
+        return new CoalescedIntervalTree<T>( tree, aIntervalArray.clone(), Arrays.copyOf( originalOffsets, mergedCount + 1 ) );
+    }
+
+    /**
+     * 构造扁平化的区间树：所有节点紧凑存放在几个连续的 int[] 中,叶子指向按序排列的区间数组
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     */
+    public static <T> FlatIntervalTree<T> makeFlatIntervalTree(Interval<T> [] aIntervalArray) {
+        IntervalTreeMaker.sortAndCheck( aIntervalArray );
+        int count = aIntervalArray.length;
+        int [] starts = new int [ count ];
+        int [] ends = new int [ count ];
+        for (int i = 0; i < count; ++i) {
+            starts[ i ] = ( int )aIntervalArray[ i ].mStart;
+            ends[ i ] = ( int )aIntervalArray[ i ].mEnd;
+        }
+        return new FlatIntervalTree<T>( FlatLayout.make( starts, ends, count ), aIntervalArray.clone() );
+    }
+
+    /**
+     * 构造绑定值为 int 的区间树,不创建任何 Interval 对象,不在任何区间内时查询返回 -1
+     * @see #makeIntIntervalTree(int[], int[], int[], int)
+     */
+    public static IntIntervalTree makeIntIntervalTree(int [] aStarts, int [] aEnds, int [] aValues) {
+        return IntervalTreeMaker.makeIntIntervalTree( aStarts, aEnds, aValues, -1 );
+    }
+
+    /**
+     * 构造绑定值为 int 的区间树,不创建任何 Interval 对象。三个数组长度必须相同,区间之间互不相交,顺序任意;三个数组都不会被修改
+     * @param aStarts 各区间的无符号起点
+     * @param aEnds 各区间的无符号终点
+     * @param aValues 各区间的绑定值
+     * @param aNoMatchValue 不在任何区间内时查询返回的值
+     */
+    public static IntIntervalTree makeIntIntervalTree(int [] aStarts, int [] aEnds, int [] aValues, int aNoMatchValue) {
+        int count = aStarts == null ? 0 : aStarts.length;
+        if (count == 0 || aEnds == null || aEnds.length != count || aValues == null || aValues.length != count) {
+            throw new IllegalArgumentException( "aStarts/aEnds/aValues not valid" );
+        }
+        boolean sorted = true;
+        for (int i = 0; i < count; ++i) {
+            if ((aStarts[ i ] & 0xFFFF_FFFFL) > (aEnds[ i ] & 0xFFFF_FFFFL)) {
+                throw new IllegalArgumentException( "start greater than end at " + i );
+            }
+            sorted &= i == 0 || (aStarts[ i - 1 ] & 0xFFFF_FFFFL) <= (aStarts[ i ] & 0xFFFF_FFFFL);
+        }
+        int [] starts = new int [ count ];
+        int [] ends = new int [ count ];
+        int [] values = new int [ count ];
+        if (sorted) {
+            System.arraycopy( aStarts, 0, starts, 0, count );
+            System.arraycopy( aEnds, 0, ends, 0, count );
+            System.arraycopy( aValues, 0, values, 0, count );
+        }
+        else {
+            //高32位是起点异或 Integer.MIN_VALUE(使有符号排序等同于无符号排序),低32位是原下标
+            long [] sortKeys = new long [ count ];
+            for (int i = 0; i < count; ++i) {
+                sortKeys[ i ] = (( long )(aStarts[ i ] ^ Integer.MIN_VALUE) << 32) | i;
+            }
+            Arrays.parallelSort( sortKeys );
+            for (int i = 0; i < count; ++i) {
+                int index = ( int )sortKeys[ i ];
+                starts[ i ] = aStarts[ index ];
+                ends[ i ] = aEnds[ index ];
+                values[ i ] = aValues[ index ];
+            }
+        }
+        for (int i = 1; i < count; ++i) {
+            if ((starts[ i ] & 0xFFFF_FFFFL) <= (ends[ i - 1 ] & 0xFFFF_FFFFL)) {
+                throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+            }
+        }
+        return new IntIntervalTree( FlatLayout.make( starts, ends, count ), values, aNoMatchValue );
+    }
+
+    /**
+     * 构造允许区间重叠相交的区间树：先把32位空间切分成互不相交的基本段，每个基本段指向覆盖它的所有区间
+     * @param aIntervalArray 可以重叠相交的区间,会被就地按无符号起点排序
+     */
+    public static <T> OverlapIntervalTree<T> makeOverlapIntervalTree(Interval<T> [] aIntervalArray) {
         if (aIntervalArray == null || aIntervalArray.length == 0) {
             throw new IllegalArgumentException( "aIntervalArray not valid" );
         }
-        //按无符号32位整数排序
-        Arrays.parallelSort( aIntervalArray, (aOne, aTwo) -> {
-            long v = (aOne.mStart & 0xFFFF_FFFFL) - (aTwo.mStart & 0xFFFF_FFFFL);
-            return v < 0 ? -1 : v == 0 ? 0 : 1;
-        } );
+        IntervalTreeMaker.sortByStart( aIntervalArray );
+        int count = aIntervalArray.length;
+        //按终点排序的下标,用于扫描时依次移出:高32位是终点异或 Integer.MIN_VALUE(使有符号排序等同于无符号排序),低32位是下标
+        long [] endKeys = new long [ count ];
+        for (int i = 0; i < count; ++i) {
+            endKeys[ i ] = (( long )(( int )aIntervalArray[ i ].mEnd ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.parallelSort( endKeys );
+        //扫描线：当前覆盖的区间的下标按起点顺序排列在 activeIndexes 的前 activeCount 项中;相同的覆盖数组只保留一份
+        int [] activeIndexes = new int [ 16 ];
+        int activeCount = 0;
+        CoverKey probeKey = new CoverKey();
+        HashMap<CoverKey, Interval<T> []> sharedCovers = new HashMap<CoverKey, Interval<T> []>();
+        @SuppressWarnings("unchecked")
+        Interval<Interval<T> []> [] segments = new Interval [ Math.max( 16, count * 2 ) ];
+        int segmentCount = 0;
+        long position = aIntervalArray[ 0 ].mStart;
+        for (int nextOpen = 0, nextClose = 0; nextClose < count;) {
+            long openPosition = nextOpen < count ? aIntervalArray[ nextOpen ].mStart : Long.MAX_VALUE;
+            long closePosition = aIntervalArray[ ( int )endKeys[ nextClose ] ].mEnd + 1;
+            long nextPosition = Math.min( openPosition, closePosition );
+            if (nextPosition > position && activeCount > 0) {
+                //[position, nextPosition - 1] 就是一个基本段,先用复用的探测键查找,没有时才分配覆盖数组
+                probeKey.reset( activeIndexes, activeCount );
+                Interval<T> [] cover = sharedCovers.get( probeKey );
+                if (cover == null) {
+                    @SuppressWarnings("unchecked")
+                    Interval<T> [] newCover = new Interval [ activeCount ];
+                    for (int i = 0; i < activeCount; ++i) {
+                        newCover[ i ] = aIntervalArray[ activeIndexes[ i ] ];
+                    }
+                    CoverKey key = new CoverKey();
+                    key.reset( Arrays.copyOf( activeIndexes, activeCount ), activeCount );
+                    sharedCovers.put( key, cover = newCover );
+                }
+                if (segmentCount == segments.length) {
+                    segments = Arrays.copyOf( segments, segmentCount * 2 );
+                }
+                segments[ segmentCount++ ] = new Interval<Interval<T> []>( cover, ( int )position, ( int )(nextPosition - 1) );
+            }
+            position = nextPosition;
+            //按起点顺序打开的下标总是大于已有的,直接追加在末尾仍然有序
+            while (nextOpen < count && aIntervalArray[ nextOpen ].mStart == position) {
+                if (activeCount == activeIndexes.length) {
+                    activeIndexes = Arrays.copyOf( activeIndexes, activeCount * 2 );
+                }
+                activeIndexes[ activeCount++ ] = nextOpen++;
+            }
+            while (nextClose < count && aIntervalArray[ ( int )endKeys[ nextClose ] ].mEnd + 1 == position) {
+                int closeAt = Arrays.binarySearch( activeIndexes, 0, activeCount, ( int )endKeys[ nextClose++ ] );
+                System.arraycopy( activeIndexes, closeAt + 1, activeIndexes, closeAt, --activeCount - closeAt );
+            }
+        }
+        return new OverlapIntervalTree<T>( IntervalTreeMaker.makeSortedIntervalTree( segmentCount == segments.length ? segments : Arrays.copyOf( segments, segmentCount ) ) );
+    }
+
+    /**
+     * 两棵区间树的并:结果覆盖至少被其中一棵覆盖的所有点。只被一棵覆盖的部分保留其绑定对象,两棵都覆盖的部分用 aMerge 合并绑定对象
+     * @see #makeIntersectionIntervalTree(IntervalTree, IntervalTree, BiFunction)
+     */
+    public static <T> IntervalTree<T> makeUnionIntervalTree(IntervalTree<T> aLeft, IntervalTree<T> aRight, BiFunction<? super T, ? super T, ? extends T> aMerge) {
+        return IntervalTreeMaker.combine( aLeft, aRight, true, true, aMerge );
+    }
+
+    /**
+     * 两棵区间树的交:结果只覆盖两棵都覆盖的点,绑定对象由 aMerge 合并两边的绑定对象得到。
+     * 两棵树的叶子都按由小到大的顺序只走一遍,切分出来的结果本来就有序且互不相交,直接走 makeSortedIntervalTree,不需要再排序;
+     * 结果的步长与 aLeft 的相同。切分点两边绑定对象相等的区间不会自动合并,需要时可以再用 makeCoalescedIntervalTree
+     * @param aLeft 左边的区间树
+     * @param aRight 右边的区间树
+     * @param aMerge 合并两边的绑定对象
+     * @return 新的区间树,结果为空时是一棵空树
+     */
+    public static <A, B, R> IntervalTree<R> makeIntersectionIntervalTree(IntervalTree<A> aLeft, IntervalTree<B> aRight, BiFunction<? super A, ? super B, ? extends R> aMerge) {
+        return IntervalTreeMaker.combine( aLeft, aRight, false, false, aMerge );
+    }
+
+    /**
+     * 两棵区间树的差:结果只覆盖 aLeft 覆盖而 aRight 不覆盖的点,绑定对象保留 aLeft 的
+     * @see #makeIntersectionIntervalTree(IntervalTree, IntervalTree, BiFunction)
+     */
+    public static <T> IntervalTree<T> makeDifferenceIntervalTree(IntervalTree<T> aLeft, IntervalTree<?> aRight) {
+        return IntervalTreeMaker.combine( aLeft, aRight, true, false, null );
+    }
+
+    /**
+     * 构造按版本保存各次发布的版本树,起点终点相同的区间的绑定对象用 Objects.equals 比较
+     * @see #makeVersionedIntervalTree(long[], IntervalTree[], BiPredicate)
+     */
+    public static <T> VersionedIntervalTree<T> makeVersionedIntervalTree(long [] aVersions, IntervalTree<T> [] aReleases) {
+        return IntervalTreeMaker.makeVersionedIntervalTree( aVersions, aReleases, Objects::equals );
+    }
+
+    /**
+     * 构造按版本保存各次发布的版本树,之后的发布可以再用 VersionedIntervalTree.withRelease 追加
+     * @param aVersions 各次发布的版本号,必须递增
+     * @param aReleases 各次发布的完整区间树,与 aVersions 一一对应
+     * @param aEquality 判断前后两次发布中起点终点相同的区间的绑定对象是否相等,相等时后一次沿用前一次的区间对象
+     * @return 版本树
+     */
+    public static <T> VersionedIntervalTree<T> makeVersionedIntervalTree(long [] aVersions, IntervalTree<T> [] aReleases, BiPredicate<? super T, ? super T> aEquality) {
+        if (aVersions.length != aReleases.length) {
+            throw new IllegalArgumentException( "aVersions and aReleases length mismatch" );
+        }
+        VersionedIntervalTree<T> tree = VersionedIntervalTree.empty( aEquality );
+        for (int i = 0; i < aVersions.length; ++i) {
+            tree = tree.withRelease( aVersions[ i ], aReleases[ i ] );
+        }
+        return tree;
+    }
+
+    /**
+     * 一遍扫描两棵树的叶子,把数轴按两边区间的端点切分成段,每段按被哪边覆盖决定是否输出
+     * @param aKeepLeft 是否输出只被左边覆盖的段
+     * @param aKeepRight 是否输出只被右边覆盖的段
+     * @param aMerge 两边都覆盖的段的绑定对象,为 null 表示不输出两边都覆盖的段
+     */
+    @SuppressWarnings("unchecked")
+    private static <A, B, R> IntervalTree<R> combine(IntervalTree<A> aLeft, IntervalTree<B> aRight, boolean aKeepLeft, boolean aKeepRight, BiFunction<? super A, ? super B, ? extends R> aMerge) {
+        IntervalTree.LeafCursor<A> leftCursor = new IntervalTree.LeafCursor<A>( aLeft );
+        IntervalTree.LeafCursor<B> rightCursor = new IntervalTree.LeafCursor<B>( aRight );
+        Interval<R> [] pieces = new Interval [ Math.max( 16, aLeft.getIntervalIndexLimit() + aRight.getIntervalIndexLimit() ) ];
+        int pieceCount = 0;
+        Interval<A> left = leftCursor.next();
+        Interval<B> right = rightCursor.next();
+        //两边当前区间还没有处理的部分的起点
+        long leftFrom = left != null ? left.mStart : 0;
+        long rightFrom = right != null ? right.mStart : 0;
+        while (left != null || right != null) {
+            if (pieceCount + 2 > pieces.length) {
+                pieces = Arrays.copyOf( pieces, pieces.length * 2 );
+            }
+            if (right == null || left != null && left.mEnd < rightFrom) {
+                if (aKeepLeft) {
+                    pieces[ pieceCount++ ] = IntervalTreeMaker.piece( ( Interval<R> )left, leftFrom, left.mEnd );
+                }
+                left = leftCursor.next();
+                leftFrom = left != null ? left.mStart : 0;
+            }
+            else if (left == null || right.mEnd < leftFrom) {
+                if (aKeepRight) {
+                    pieces[ pieceCount++ ] = IntervalTreeMaker.piece( ( Interval<R> )right, rightFrom, right.mEnd );
+                }
+                right = rightCursor.next();
+                rightFrom = right != null ? right.mStart : 0;
+            }
+            else if (leftFrom < rightFrom) {
+                //两边相交,先输出左边在右边开始之前的部分
+                if (aKeepLeft) {
+                    pieces[ pieceCount++ ] = IntervalTreeMaker.piece( ( Interval<R> )left, leftFrom, rightFrom - 1 );
+                }
+                leftFrom = rightFrom;
+            }
+            else if (rightFrom < leftFrom) {
+                if (aKeepRight) {
+                    pieces[ pieceCount++ ] = IntervalTreeMaker.piece( ( Interval<R> )right, rightFrom, leftFrom - 1 );
+                }
+                rightFrom = leftFrom;
+            }
+            else {
+                //从同一点开始,到先结束的一边为止是两边都覆盖的段
+                long end = Math.min( left.mEnd, right.mEnd );
+                if (aMerge != null) {
+                    pieces[ pieceCount++ ] = new Interval<R>( aMerge.apply( left.mAttachment, right.mAttachment ), ( int )leftFrom, ( int )end );
+                }
+                if (left.mEnd == end) {
+                    left = leftCursor.next();
+                    leftFrom = left != null ? left.mStart : 0;
+                }
+                else {
+                    leftFrom = end + 1;
+                }
+                if (right.mEnd == end) {
+                    right = rightCursor.next();
+                    rightFrom = right != null ? right.mStart : 0;
+                }
+                else {
+                    rightFrom = end + 1;
+                }
+            }
+        }
+        IntervalStride stride = aLeft.getStride();
+        if (pieceCount == 0) {
+            return new IntervalTree<R>( IntervalNode.emptyRootNode(), 0, stride, aLeft.mSparseNodes );
+        }
+        return IntervalTreeMaker.makeSortedIntervalTree( pieceCount == pieces.length ? pieces : Arrays.copyOf( pieces, pieceCount ), stride, null, aLeft.mSparseNodes );
+    }
+
+    /**
+     * @return 区间 aInterval 中 [aFrom, aTo] 这一段,就是整个区间时直接复用原来的区间对象
+     */
+    private static <T> Interval<T> piece(Interval<T> aInterval, long aFrom, long aTo) {
+        return aFrom == aInterval.mStart && aTo == aInterval.mEnd ? aInterval : new Interval<T>( aInterval.mAttachment, ( int )aFrom, ( int )aTo );
+    }
+
+    private static <T> void sortAndCheck(Interval<T> [] aIntervalArray) {
+        if (aIntervalArray == null || aIntervalArray.length == 0) {
+            throw new IllegalArgumentException( "aIntervalArray not valid" );
+        }
+        IntervalTreeMaker.sortByStart( aIntervalArray );
         //检查区间相交的情况，目前暂时不支持区间相交：只支持对整数区间的划分，划分意味着任意两个区间都不重叠
         for (int i = 1; i < aIntervalArray.length; ++i) {
             if ((aIntervalArray[ i ].mStart & 0xFFFF_FFFFL) <= (aIntervalArray[ i - 1 ].mEnd & 0xFFFF_FFFFL)) {
                 throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
             }
         }
-        MakeContext<T> context = new MakeContext<T>( aIntervalArray );
-        LinkedList<ProccessingNode<T>> queueFetch = new LinkedList<ProccessingNode<T>>();
-        queueFetch.add( context.mProccessingRootNode );
-        while (!queueFetch.isEmpty()) {
-            ProccessingNode<T> nextParentNode = queueFetch.removeFirst();
-            IntervalTreeMaker.fetch( context, queueFetch, nextParentNode );
-        }
-        IntervalNode<T> rootIntervalNode = context.mProccessingRootNode.toIntervalNode();
-        return new IntervalTree<T>( rootIntervalNode );
     }
 
-    private static <T> void fetch(MakeContext<T> aContext, LinkedList<ProccessingNode<T>> aQueue, ProccessingNode<T> aParentNode) {
-        //根据字典序构造下层Trie结构,类似DAT构造过程, childrenNodeList 就是 aParentNode 的儿子
+    private static <T> void sortByStart(Interval<T> [] aIntervalArray) {
+        //按无符号32位整数排序
+        Arrays.parallelSort( aIntervalArray, (aOne, aTwo) -> {
+            long v = (aOne.mStart & 0xFFFF_FFFFL) - (aTwo.mStart & 0xFFFF_FFFFL);
+            return v < 0 ? -1 : v == 0 ? 0 : 1;
+        } );
+    }
+
+    private static <T> void fetch(MakeContext<T> aContext, ProccessingNode<T> aParentNode) {
+        //根据字典序构造下层Trie结构,类似DAT构造过程, childrenNodes 就是 aParentNode 的儿子,8位步长时最多256个
         Interval<T> [] valueArray = aContext.mIntervalArray;
-        ArrayList<ProccessingNode<T>> childrenNodeList = null;
-        for (int i = aParentNode.mLeft, size = aParentNode.mRight, preChar = -1, parentDepth = aParentNode.mDepth, childDepth = parentDepth + 1; i < size; ++i) {
+        ProccessingNode<T> [] childrenNodes = aContext.mCacheChildNodes;
+        int shift = aContext.mStride.mShifts[ aParentNode.mDepth ], mask = aContext.mStride.mMasks[ aParentNode.mDepth ];
+        int leafDepth = aContext.mStride.mShifts.length;
+        int childCount = 0;
+        for (int i = aParentNode.mLeft, size = aParentNode.mRight, preChar = -1, childDepth = aParentNode.mDepth + 1; i < size; ++i) {
             Interval<T> nextValue = valueArray[ i ];
-            int childChar = ( int )((nextValue.mEnd >> IntervalTree.BIT_MOVE_COUNT[ parentDepth ]) & 0xFF);//从0,1,2,3共4层
+            int childChar = ( int )((nextValue.mEnd >> shift) & mask);//默认从0,1,2,3共4层
             if (childChar != preChar) {
                 if (childChar < preChar) {
                     throw new Error();
                 }
                 ProccessingNode<T> nextChildNode = new ProccessingNode<T>( childChar, childDepth, i );
-                if (childrenNodeList == null) {
-                    childrenNodeList = aContext.mCacheChildNodeList;
-                }
-                childrenNodeList.add( nextChildNode );
-                if (childDepth == 4) {
+                childrenNodes[ childCount++ ] = nextChildNode;
+                if (childDepth == leafDepth) {
                     //这个是数据节点
                     nextChildNode.mInterval = nextValue;
                 }
                 else {
                     //加入bfs遍历队列
-                    aQueue.add( nextChildNode );
+                    aContext.addFetch( nextChildNode );
                 }
                 preChar = childChar;
             }
         }
-        if (childrenNodeList != null) {
-            @SuppressWarnings("unchecked")
-            ProccessingNode<T> [] childrenNodes = childrenNodeList.toArray( new ProccessingNode [ childrenNodeList.size() ] );
-            int lastChildIndex = childrenNodes.length - 1;
+        if (childCount != 0) {
+            int lastChildIndex = childCount - 1;
             for (int i = 0; i < lastChildIndex; ++i) {
                 //标示各个儿子的mRight为下一个儿子的mLeft
                 childrenNodes[ i ].mRight = childrenNodes[ i + 1 ].mLeft;
@@ -74,9 +540,48 @@ public class IntervalTreeMaker {
             //设置最后一个儿子的mRight为父亲的mRight
             childrenNodes[ lastChildIndex ].mRight = aParentNode.mRight;
             //记录下父子关系
-            aParentNode.mChildrenNodes = childrenNodes;
-            //清理aContext.mCacheChildNodeList以备下次继续用
-            childrenNodeList.clear();
+            aParentNode.mChildrenNodes = Arrays.copyOf( childrenNodes, childCount );
+            //清理aContext.mCacheChildNodes以备下次继续用
+            Arrays.fill( childrenNodes, 0, childCount, null );
+        }
+    }
+
+    /**
+     * 并行构造第一层的 [mFrom,mTo) 这些儿子子树,每个子树构造完就直接记在其 mIntervalNode 上。
+     * 区间不多的一组子树在同一个任务中依次构造,免得16位步长时产生几万个很小的任务
+     */
+    private static final class SubtreeTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interval<T> [] mIntervalArray;
+        private final IntervalStride mStride;
+        private final boolean mSparseNodes;
+        private final ProccessingNode<T> [] mTopNodes;
+        private final int mFrom, mTo;
+
+        SubtreeTask(Interval<T> [] aIntervalArray, IntervalStride aStride, boolean aSparseNodes, ProccessingNode<T> [] aTopNodes, int aFrom, int aTo) {
+            this.mIntervalArray = aIntervalArray;
+            this.mStride = aStride;
+            this.mSparseNodes = aSparseNodes;
+            this.mTopNodes = aTopNodes;
+            this.mFrom = aFrom;
+            this.mTo = aTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.mTo - this.mFrom == 1 || this.mTopNodes[ this.mTo - 1 ].mRight - this.mTopNodes[ this.mFrom ].mLeft <= IntervalTreeMaker.PARALLEL_LEAF_COUNT) {
+                MakeContext<T> context = new MakeContext<T>( this.mIntervalArray, this.mStride );
+                for (int i = this.mFrom; i < this.mTo; ++i) {
+                    ProccessingNode<T> topNode = this.mTopNodes[ i ];
+                    context.fetchAll( topNode );
+                    topNode.mIntervalNode = topNode.toIntervalNode( this.mSparseNodes );
+                }
+            }
+            else {
+                int middle = (this.mFrom + this.mTo) >>> 1;
+                ForkJoinTask.invokeAll( new SubtreeTask<T>( this.mIntervalArray, this.mStride, this.mSparseNodes, this.mTopNodes, this.mFrom, middle ), new SubtreeTask<T>( this.mIntervalArray, this.mStride, this.mSparseNodes, this.mTopNodes, middle, this.mTo ) );
+            }
         }
     }
 
@@ -87,6 +592,10 @@ public class IntervalTreeMaker {
         private int mRight;
         private ProccessingNode<T> [] mChildrenNodes;
         private Interval<T> mInterval;
+        /**
+         * 并行构造时已经构造好的子树
+         */
+        private IntervalNode<T> mIntervalNode;
 
         ProccessingNode(int aTotalCount) {
             //虚根
@@ -103,29 +612,23 @@ public class IntervalTreeMaker {
             this.mLeft = aLeft;
         }
 
-        IntervalNode<T> toIntervalNode() {
-            if (this.mInterval == null) {
+        IntervalNode<T> toIntervalNode(boolean aSparseNodes) {
+            if (this.mIntervalNode != null) {
+                return this.mIntervalNode;
+            }
+            else if (this.mInterval == null) {
                 ProccessingNode<T> [] processingChildrenNodes = this.mChildrenNodes;
-                int lastProccessingChildIndex = processingChildrenNodes.length - 1;
-                ProccessingNode<T> firstProcessingChildNode = processingChildrenNodes[ 0 ];
-                ProccessingNode<T> lastProcessingChildNode = processingChildrenNodes[ lastProccessingChildIndex ];
-                IntervalNode<T> thisIntervalNode = new IntervalNode<T>( this.mChar, firstProcessingChildNode.mChar, lastProcessingChildNode.mChar );
-                for (int i = 0; i <= lastProccessingChildIndex; ++i) {
-                    ProccessingNode<T> nextProcessingChildNode = processingChildrenNodes[ i ];
-                    IntervalNode<T> nextIntervalChildNode = nextProcessingChildNode.toIntervalNode();
-                    nextIntervalChildNode.mParentNode = thisIntervalNode;
-                    int nextIntervalChildIndex = nextProcessingChildNode.mChar - firstProcessingChildNode.mChar;
-                    thisIntervalNode.mChildrenNodes[ nextIntervalChildIndex ] = nextIntervalChildNode;
-                    for (int j = nextIntervalChildIndex - 1; j >= 0 && thisIntervalNode.mChildrenNodes[ j ] == null; --j) {
-                        //这里是非常关键的优化
-                        //不仅在 nextIntervalChildIndex 位置上插入，而且把前面空隙部分填成此儿子以大大加快查找匹配的速度
-                        thisIntervalNode.mChildrenNodes[ j ] = nextIntervalChildNode;
-                    }
+                @SuppressWarnings("unchecked")
+                IntervalNode<T> [] childrenNodes = new IntervalNode [ processingChildrenNodes.length ];
+                for (int i = 0; i < processingChildrenNodes.length; ++i) {
+                    childrenNodes[ i ] = processingChildrenNodes[ i ].toIntervalNode( aSparseNodes );
                 }
-                return thisIntervalNode;
+                //稠密节点的空隙部分填成下一个儿子,选择了位图编码时稀疏节点用位图编码,见 IntervalNode.parentNode
+                return IntervalNode.parentNode( this.mChar, childrenNodes, childrenNodes.length, aSparseNodes );
             }
             else {
-                return new IntervalNode<T>( this.mChar, this.mInterval );
+                //叶子的mLeft就是其区间在排序后数组中的下标,作为区间序号
+                return new IntervalNode<T>( this.mChar, this.mInterval, this.mLeft );
             }
         }
     }
@@ -137,14 +640,93 @@ public class IntervalTreeMaker {
      */
     private static final class MakeContext<T> {
         Interval<T> [] mIntervalArray;
-        ProccessingNode<T> mProccessingRootNode;
-        ArrayList<ProccessingNode<T>> mCacheChildNodeList;
+        IntervalStride mStride;
+        /**
+         * 避免每次创建用途的cache,8位步长时一个节点最多256个儿子,16位步长时最多65536个
+         */
+        ProccessingNode<T> [] mCacheChildNodes;
+        /**
+         * bfs遍历队列,[mFetchHead,mFetchTail)是待fetch的节点
+         */
+        ProccessingNode<T> [] mFetchQueue;
+        int mFetchHead, mFetchTail;
 
-        MakeContext(Interval<T> [] aIntervalArray) {
+        @SuppressWarnings("unchecked")
+        MakeContext(Interval<T> [] aIntervalArray, IntervalStride aStride) {
             this.mIntervalArray = aIntervalArray;
-            this.mProccessingRootNode = new ProccessingNode<T>( aIntervalArray.length );
-            //避免每次创建用途的cache
-            this.mCacheChildNodeList = new ArrayList<ProccessingNode<T>>( aIntervalArray.length );
+            this.mStride = aStride;
+            this.mCacheChildNodes = new ProccessingNode [ aStride.mMaxFanout ];
+            this.mFetchQueue = new ProccessingNode [ 256 ];
+        }
+
+        void addFetch(ProccessingNode<T> aNode) {
+            if (this.mFetchTail == this.mFetchQueue.length) {
+                int pending = this.mFetchTail - this.mFetchHead;
+                if (this.mFetchHead >= pending) {
+                    //前面已经取走了一半以上,挪到开头继续用
+                    System.arraycopy( this.mFetchQueue, this.mFetchHead, this.mFetchQueue, 0, pending );
+                    Arrays.fill( this.mFetchQueue, pending, this.mFetchTail, null );
+                }
+                else {
+                    this.mFetchQueue = Arrays.copyOfRange( this.mFetchQueue, this.mFetchHead, this.mFetchHead + this.mFetchQueue.length * 2 );
+                }
+                this.mFetchHead = 0;
+                this.mFetchTail = pending;
+            }
+            this.mFetchQueue[ this.mFetchTail++ ] = aNode;
+        }
+
+        /**
+         * 以 aNode 为根,bfs依次fetch其下的所有节点
+         */
+        void fetchAll(ProccessingNode<T> aNode) {
+            this.addFetch( aNode );
+            while (this.mFetchHead != this.mFetchTail) {
+                ProccessingNode<T> nextParentNode = this.mFetchQueue[ this.mFetchHead ];
+                this.mFetchQueue[ this.mFetchHead++ ] = null;
+                IntervalTreeMaker.fetch( this, nextParentNode );
+            }
+        }
+    }
+
+    /**
+     * 覆盖数组去重用的键:按起点顺序排列的区间下标。查找时用一个复用的探测键,只有放进去的键才持有自己的下标数组
+     */
+    private static final class CoverKey {
+        private int [] mIndexes;
+        private int mCount;
+        private int mHash;
+
+        void reset(int [] aIndexes, int aCount) {
+            this.mIndexes = aIndexes;
+            this.mCount = aCount;
+            int hash = 1;
+            for (int i = 0; i < aCount; ++i) {
+                hash = 31 * hash + aIndexes[ i ];
+            }
+            this.mHash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.mHash;
+        }
+
+        @Override
+        public boolean equals(Object aOther) {
+            if (!(aOther instanceof CoverKey)) {
+                return false;
+            }
+            CoverKey other = ( CoverKey )aOther;
+            if (other.mCount != this.mCount || other.mHash != this.mHash) {
+                return false;
+            }
+            for (int i = 0; i < this.mCount; ++i) {
+                if (other.mIndexes[ i ] != this.mIndexes[ i ]) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 }
@@ -0,0 +1,312 @@
+package org.langzhaozhi.interval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * <p>可热加载的区间树注册表：监视一个源文件或目录，发生变化时在专门的后台线程上重新加载并构造下一代区间树，
+ * 用样本探测点校验通过后再原子地发布，校验失败或加载出错时继续使用当前这一代。</p>
+ *
+ * <p>查询只需一次 volatile 读，没有任何锁。成批查询的应当先用 getTree() 取得一棵树再在这棵树上完成整批，
+ * 因为区间树是不变对象，整批查询看到的始终是同一代完整的树，绝不会看到构造到一半的树。</p>
+ *
+ * <p>每一代都记录了加载构造花费的时间、从触发到发布的切换延迟以及估算的内存占用，通过 Listener 报告新旧两代。</p>
+ * @param <T>
+ */
+public final class IntervalTreeRegistry<T> implements Closeable {
+    /**
+     * 从源文件或目录加载出所有区间
+     */
+    @FunctionalInterface
+    public interface IntervalLoader<T> {
+        Interval<T> [] load(Path aSource) throws Exception;
+    }
+
+    /**
+     * 切换通知,在后台线程上回调
+     */
+    public interface Listener<T> {
+        /**
+         * @param aOldGeneration 被替换下来的一代,第一次加载时为 null
+         * @param aNewGeneration 刚发布的一代
+         */
+        void onSwap(Generation<T> aOldGeneration, Generation<T> aNewGeneration);
+
+        /**
+         * 加载、构造或校验失败,当前这一代继续有效
+         */
+        void onFailure(Path aSource, Throwable aCause);
+    }
+
+    /**
+     * 一代区间树及其统计信息
+     */
+    public static final class Generation<T> {
+        private final long mNumber;
+        private final IntervalTree<T> mTree;
+        private final long mBuildNanos;
+        private final long mValidateNanos;
+        private final long mSwapLatencyNanos;
+        /**
+         * 估算内存要遍历整棵树,只在第一次取时才计算,不拖慢切换;-1 表示还没有计算,并发计算的结果相同
+         */
+        private volatile long mMemorySize = -1;
+        private final long mPublishedMillis;
+
+        Generation(long aNumber, IntervalTree<T> aTree, long aBuildNanos, long aValidateNanos, long aSwapLatencyNanos, long aPublishedMillis) {
+            this.mNumber = aNumber;
+            this.mTree = aTree;
+            this.mBuildNanos = aBuildNanos;
+            this.mValidateNanos = aValidateNanos;
+            this.mSwapLatencyNanos = aSwapLatencyNanos;
+            this.mPublishedMillis = aPublishedMillis;
+        }
+
+        /**
+         * @return 代号,从1开始
+         */
+        public long getNumber() {
+            return this.mNumber;
+        }
+
+        public IntervalTree<T> getTree() {
+            return this.mTree;
+        }
+
+        /**
+         * @return 加载区间和构造区间树花费的纳秒数
+         */
+        public long getBuildNanos() {
+            return this.mBuildNanos;
+        }
+
+        /**
+         * @return 样本探测点校验花费的纳秒数
+         */
+        public long getValidateNanos() {
+            return this.mValidateNanos;
+        }
+
+        /**
+         * @return 从触发重新加载到发布出去的总纳秒数
+         */
+        public long getSwapLatencyNanos() {
+            return this.mSwapLatencyNanos;
+        }
+
+        /**
+         * @return 估算的区间树内存占用字节数,见 IntervalTree.estimateMemorySize;第一次调用时才遍历整棵树
+         */
+        public long getMemorySize() {
+            long memorySize = this.mMemorySize;
+            if (memorySize < 0) {
+                this.mMemorySize = memorySize = this.mTree.estimateMemorySize();
+            }
+            return memorySize;
+        }
+
+        public long getPublishedMillis() {
+            return this.mPublishedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Generation#" + this.mNumber + "[build=" + this.mBuildNanos / 1000_000 + "ms, validate=" + this.mValidateNanos / 1000_000 + "ms, swapLatency=" + this.mSwapLatencyNanos / 1000_000 + "ms, memory=" + this.getMemorySize() + "B]";
+        }
+    }
+
+    private final Path mSource;
+    private final IntervalLoader<T> mLoader;
+    private final Predicate<IntervalTree<T>> mValidator;
+    private final Listener<T> mListener;
+    private final ExecutorService mBuildExecutor;
+    /**
+     * 文件变化后等待多久没有新的变化才重新加载,以免文件还在写的过程中就去加载
+     */
+    private final long mQuietMillis;
+    private final AtomicBoolean mReloadPending = new AtomicBoolean();
+    private volatile Generation<T> mCurrent;
+    private WatchService mWatchService;
+    private Thread mWatchThread;
+
+    /**
+     * @param aSource 源文件或目录
+     * @param aLoader 加载区间
+     * @param aValidator 校验新构造的区间树,返回 false 就放弃这一代;可以用 probeValidator 构造,为 null 表示不校验
+     * @param aListener 切换通知,可以为 null
+     */
+    public IntervalTreeRegistry(Path aSource, IntervalLoader<T> aLoader, Predicate<IntervalTree<T>> aValidator, Listener<T> aListener) {
+        this( aSource, aLoader, aValidator, aListener, 500 );
+    }
+
+    public IntervalTreeRegistry(Path aSource, IntervalLoader<T> aLoader, Predicate<IntervalTree<T>> aValidator, Listener<T> aListener, long aQuietMillis) {
+        this.mSource = aSource;
+        this.mLoader = aLoader;
+        this.mValidator = aValidator;
+        this.mListener = aListener;
+        this.mQuietMillis = aQuietMillis;
+        this.mBuildExecutor = Executors.newSingleThreadExecutor( (aRunnable) -> {
+            Thread thread = new Thread( aRunnable, "IntervalTreeRegistry-build-" + aSource.getFileName() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * 由样本探测点构造校验器:每个探测点所在区间的绑定对象必须与期望的相等,期望为 null 表示该点不应在任何区间内
+     */
+    public static <T> Predicate<IntervalTree<T>> probeValidator(int [] aProbePoints, T [] aExpectedAttachments) {
+        int [] probePoints = aProbePoints.clone();
+        T [] expectedAttachments = aExpectedAttachments.clone();
+        return (aTree) -> {
+            for (int i = 0; i < probePoints.length; ++i) {
+                Interval<T> interval = aTree.getInterval( probePoints[ i ] );
+                if (expectedAttachments[ i ] == null ? interval != null : interval == null || !expectedAttachments[ i ].equals( interval.mAttachment )) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * 同步完成第一次加载,然后开始监视源文件或目录的变化
+     */
+    public synchronized void start() throws IOException {
+        if (this.mWatchService != null) {
+            throw new IllegalStateException( "already started" );
+        }
+        try {
+            this.reload().get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException( e );
+        }
+        catch (ExecutionException e) {
+            throw new IOException( "initial load failed: " + this.mSource, e.getCause() );
+        }
+        Path watchDirectory = Files.isDirectory( this.mSource ) ? this.mSource : this.mSource.toAbsolutePath().getParent();
+        this.mWatchService = watchDirectory.getFileSystem().newWatchService();
+        watchDirectory.register( this.mWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+        WatchService watchService = this.mWatchService;
+        this.mWatchThread = new Thread( () -> this.watch( watchService ), "IntervalTreeRegistry-watch-" + this.mSource.getFileName() );
+        this.mWatchThread.setDaemon( true );
+        this.mWatchThread.start();
+    }
+
+    private void watch(WatchService aWatchService) {
+        Path fileName = Files.isDirectory( this.mSource ) ? null : this.mSource.getFileName();
+        try {
+            for (;;) {
+                WatchKey key = aWatchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= fileName == null || event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals( event.context() );
+                }
+                key.reset();
+                if (changed) {
+                    //等到一段时间内不再有变化才加载
+                    for (WatchKey moreKey; (moreKey = aWatchService.poll( this.mQuietMillis, TimeUnit.MILLISECONDS )) != null;) {
+                        moreKey.pollEvents();
+                        moreKey.reset();
+                    }
+                    this.reload();
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            //关闭
+        }
+    }
+
+    /**
+     * 在后台线程上重新加载、构造、校验并发布下一代;已经有一次重新加载在排队时不再重复排队
+     * @return 发布出去的一代,失败时为 ExecutionException
+     */
+    public Future<Generation<T>> reload() {
+        long triggerNanos = System.nanoTime();
+        this.mReloadPending.set( true );
+        return this.mBuildExecutor.submit( () -> {
+            if (!this.mReloadPending.getAndSet( false ) && this.mCurrent != null) {
+                return this.mCurrent;//已经被前面排队的那次加载过了
+            }
+            try {
+                long buildStart = System.nanoTime();
+                IntervalTree<T> tree = IntervalTreeMaker.makeIntervalTree( this.mLoader.load( this.mSource ) );
+                long validateStart = System.nanoTime();
+                if (this.mValidator != null && !this.mValidator.test( tree )) {
+                    throw new IllegalStateException( "probe validation failed: " + this.mSource );
+                }
+                long publishNanos = System.nanoTime();
+                Generation<T> oldGeneration = this.mCurrent;
+                Generation<T> newGeneration = new Generation<T>( oldGeneration != null ? oldGeneration.mNumber + 1 : 1, tree, validateStart - buildStart, publishNanos - validateStart, publishNanos - triggerNanos, System.currentTimeMillis() );
+                this.mCurrent = newGeneration;
+                if (this.mListener != null) {
+                    this.mListener.onSwap( oldGeneration, newGeneration );
+                }
+                return newGeneration;
+            }
+            catch (Throwable e) {
+                if (this.mListener != null) {
+                    this.mListener.onFailure( this.mSource, e );
+                }
+                throw e;
+            }
+        } );
+    }
+
+    /**
+     * @return 当前这一代的区间树,只有一次 volatile 读;成批查询应当在同一棵树上完成
+     * @throws IllegalStateException 还没有加载出第一代
+     */
+    public IntervalTree<T> getTree() {
+        return this.current().mTree;
+    }
+
+    /**
+     * 在当前这一代区间树上查询,只有一次 volatile 读
+     * @throws IllegalStateException 还没有加载出第一代
+     */
+    public Interval<T> getInterval(int aPoint) {
+        return this.current().mTree.getInterval( aPoint );
+    }
+
+    /**
+     * @return 当前这一代,还没有加载出第一代时为 null
+     */
+    public Generation<T> getGeneration() {
+        return this.mCurrent;
+    }
+
+    private Generation<T> current() {
+        Generation<T> current = this.mCurrent;
+        if (current == null) {
+            throw new IllegalStateException( "not started" );
+        }
+        return current;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.mWatchService != null) {
+            this.mWatchService.close();
+            this.mWatchThread.interrupt();
+        }
+        this.mBuildExecutor.shutdownNow();
+    }
+}
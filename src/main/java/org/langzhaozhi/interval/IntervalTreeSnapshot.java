@@ -0,0 +1,228 @@
+package org.langzhaozhi.interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * <p>区间树的二进制快照：把构造好的区间树按扁平布局写成带版本号的二进制文件，
+ * 加载时通过 FileChannel.map 直接内存映射，不需要再解析文本、排序和构造，启动几乎是瞬时的，
+ * 同一台机器上的多个JVM还可以共享操作系统的页缓存。</p>
+ *
+ * <p>文件格式(小端序)：</p>
+ * <pre>
+ * 头部8个int: MAGIC, VERSION, 区间个数, 节点int个数, 儿子个数, 字典项个数, 字典字节数, 保留
+ * int[节点int个数]     FlatLayout.mNodes
+ * int[儿子个数]        FlatLayout.mChildren
+ * int[区间个数 * 2]    FlatLayout.mLeafBounds
+ * int[区间个数]        各区间绑定对象在字典中的编号, -1 表示 null
+ * int[字典项个数 + 1]  各字典项在字典字节区中的起始偏移
+ * byte[字典字节数]     字典字节区
+ * </pre>
+ */
+public final class IntervalTreeSnapshot {
+    public static final int MAGIC = 0x5352_5449;//"ITRS"
+    public static final int VERSION = 1;
+
+    static final int HEADER_INTS = 8;
+    /**
+     * 写快照时的缓冲区大小,各段依次经由它流式写出,不在堆上拼出整个文件
+     */
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    public static final Function<String, byte []> STRING_ENCODER = (aText) -> aText.getBytes( StandardCharsets.UTF_8 );
+    public static final Function<byte [], String> STRING_DECODER = (aBytes) -> new String( aBytes, StandardCharsets.UTF_8 );
+
+    private IntervalTreeSnapshot() {
+    }
+
+    /**
+     * 把区间树写成快照文件
+     * @param aTree 区间树
+     * @param aEncoder 把绑定对象编码成字节,相等的绑定对象在字典中只存一份
+     * @param aFile 快照文件
+     */
+    public static <T> void write(IntervalTree<T> aTree, Function<? super T, byte []> aEncoder, Path aFile) throws IOException {
+        Interval<T> [] intervals = aTree.toIntervalArray();
+        int count = intervals.length;
+        if (count == 0) {
+            throw new IllegalArgumentException( "empty interval tree" );
+        }
+        int [] starts = new int [ count ];
+        int [] ends = new int [ count ];
+        for (int i = 0; i < count; ++i) {
+            starts[ i ] = ( int )intervals[ i ].mStart;
+            ends[ i ] = ( int )intervals[ i ].mEnd;
+        }
+        IntervalTreeSnapshot.write( FlatLayout.make( starts, ends, count ), intervals, aEncoder, aFile );
+    }
+
+    /**
+     * 把扁平化区间树写成快照文件
+     * @param aTree 扁平化区间树
+     * @param aEncoder 把绑定对象编码成字节,相等的绑定对象在字典中只存一份
+     * @param aFile 快照文件
+     */
+    public static <T> void write(FlatIntervalTree<T> aTree, Function<? super T, byte []> aEncoder, Path aFile) throws IOException {
+        @SuppressWarnings("unchecked")
+        Interval<T> [] intervals = new Interval [ aTree.getIntervalCount() ];
+        for (int i = 0; i < intervals.length; ++i) {
+            intervals[ i ] = aTree.getIntervalAt( i );
+        }
+        IntervalTreeSnapshot.write( aTree.getLayout(), intervals, aEncoder, aFile );
+    }
+
+    private static <T> void write(FlatLayout aLayout, Interval<T> [] aIntervals, Function<? super T, byte []> aEncoder, Path aFile) throws IOException {
+        //字典:相同的绑定对象只编码一次
+        HashMap<T, Integer> dictionaryIds = new HashMap<T, Integer>();
+        byte [][] dictionary = new byte [ 16 ][];
+        int [] attachmentIds = new int [ aIntervals.length ];
+        int dictionaryByteCount = 0;
+        for (int i = 0; i < aIntervals.length; ++i) {
+            T attachment = aIntervals[ i ].mAttachment;
+            if (attachment == null) {
+                attachmentIds[ i ] = -1;
+            }
+            else {
+                Integer id = dictionaryIds.get( attachment );
+                if (id == null) {
+                    id = dictionaryIds.size();
+                    dictionaryIds.put( attachment, id );
+                    if (id == dictionary.length) {
+                        dictionary = Arrays.copyOf( dictionary, id << 1 );
+                    }
+                    dictionary[ id ] = aEncoder.apply( attachment );
+                    dictionaryByteCount += dictionary[ id ].length;
+                }
+                attachmentIds[ i ] = id;
+            }
+        }
+        int dictionaryCount = dictionaryIds.size();
+        long totalBytes = 4L * (IntervalTreeSnapshot.HEADER_INTS + aLayout.mNodes.length + aLayout.mChildren.length + aLayout.mLeafBounds.length + attachmentIds.length + dictionaryCount + 1) + dictionaryByteCount;
+        if (totalBytes > Integer.MAX_VALUE) {
+            throw new IOException( "snapshot too large: " + totalBytes + " bytes" );
+        }
+        int [] dictionaryOffsets = new int [ dictionaryCount + 1 ];
+        for (int i = 0; i < dictionaryCount; ++i) {
+            dictionaryOffsets[ i + 1 ] = dictionaryOffsets[ i ] + dictionary[ i ].length;
+        }
+        //先写到同目录的临时文件再原子地改名替换:别的JVM可能正映射着旧文件,原地截断会让它们读到 SIGBUS 或乱码,
+        //中途崩溃也不会留下写了一半的快照
+        Path directory = aFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile( directory, aFile.getFileName().toString(), ".tmp" );
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open( tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING )) {
+                ByteBuffer buffer = ByteBuffer.allocate( IntervalTreeSnapshot.WRITE_BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+                buffer.putInt( IntervalTreeSnapshot.MAGIC ).putInt( IntervalTreeSnapshot.VERSION ).putInt( aLayout.mLeafCount ).putInt( aLayout.mNodes.length ).putInt( aLayout.mChildren.length ).putInt( dictionaryCount ).putInt( dictionaryByteCount ).putInt( 0 );
+                IntervalTreeSnapshot.writeInts( channel, buffer, aLayout.mNodes );
+                IntervalTreeSnapshot.writeInts( channel, buffer, aLayout.mChildren );
+                IntervalTreeSnapshot.writeInts( channel, buffer, aLayout.mLeafBounds );
+                IntervalTreeSnapshot.writeInts( channel, buffer, attachmentIds );
+                IntervalTreeSnapshot.writeInts( channel, buffer, dictionaryOffsets );
+                for (int i = 0; i < dictionaryCount; ++i) {
+                    IntervalTreeSnapshot.writeBytes( channel, buffer, dictionary[ i ] );
+                }
+                IntervalTreeSnapshot.flush( channel, buffer );
+                channel.force( true );
+            }
+            Files.move( tempFile, aFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            moved = true;
+        }
+        finally {
+            if (!moved) {
+                Files.deleteIfExists( tempFile );
+            }
+        }
+    }
+
+    /**
+     * 把 aInts 经由 aBuffer 分批写入 aChannel,缓冲区满了才真正写出
+     */
+    private static void writeInts(FileChannel aChannel, ByteBuffer aBuffer, int [] aInts) throws IOException {
+        for (int i = 0; i < aInts.length;) {
+            if (aBuffer.remaining() < 4) {
+                IntervalTreeSnapshot.flush( aChannel, aBuffer );
+            }
+            int count = Math.min( aBuffer.remaining() >>> 2, aInts.length - i );
+            aBuffer.asIntBuffer().put( aInts, i, count );
+            aBuffer.position( aBuffer.position() + count * 4 );
+            i += count;
+        }
+    }
+
+    private static void writeBytes(FileChannel aChannel, ByteBuffer aBuffer, byte [] aBytes) throws IOException {
+        for (int i = 0; i < aBytes.length;) {
+            if (!aBuffer.hasRemaining()) {
+                IntervalTreeSnapshot.flush( aChannel, aBuffer );
+            }
+            int count = Math.min( aBuffer.remaining(), aBytes.length - i );
+            aBuffer.put( aBytes, i, count );
+            i += count;
+        }
+    }
+
+    private static void flush(FileChannel aChannel, ByteBuffer aBuffer) throws IOException {
+        aBuffer.flip();
+        while (aBuffer.hasRemaining()) {
+            aChannel.write( aBuffer );
+        }
+        aBuffer.clear();
+    }
+
+    /**
+     * 内存映射一个快照文件,之后的查询直接在映射的缓冲区上完成,不构造任何堆上的节点对象
+     * @param aFile 快照文件
+     * @param aDecoder 把字典中的字节解码成绑定对象,每个字典项最多解码一次
+     * @return 映射的区间树
+     */
+    public static <T> MappedIntervalTree<T> map(Path aFile, Function<byte [], ? extends T> aDecoder) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open( aFile, StandardOpenOption.READ )) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException( "snapshot too large: " + aFile );
+            }
+            //映射建立后即使关闭通道也一直有效
+            mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        ByteBuffer buffer = mapped.order( ByteOrder.LITTLE_ENDIAN );
+        if (buffer.limit() < IntervalTreeSnapshot.HEADER_INTS * 4 || buffer.getInt( 0 ) != IntervalTreeSnapshot.MAGIC) {
+            throw new IOException( "not an interval tree snapshot: " + aFile );
+        }
+        if (buffer.getInt( 4 ) != IntervalTreeSnapshot.VERSION) {
+            throw new IOException( "unsupported snapshot version " + buffer.getInt( 4 ) + ": " + aFile );
+        }
+        int leafCount = buffer.getInt( 8 ), nodeIntCount = buffer.getInt( 12 ), childCount = buffer.getInt( 16 ), dictionaryCount = buffer.getInt( 20 ), dictionaryByteCount = buffer.getInt( 24 );
+        long expectedBytes = 4L * (IntervalTreeSnapshot.HEADER_INTS + nodeIntCount + childCount + 3L * leafCount + dictionaryCount + 1) + dictionaryByteCount;
+        if (leafCount <= 0 || nodeIntCount <= 0 || childCount <= 0 || dictionaryCount < 0 || dictionaryByteCount < 0 || expectedBytes != buffer.limit()) {
+            throw new IOException( "corrupt interval tree snapshot: " + aFile );
+        }
+        int offset = IntervalTreeSnapshot.HEADER_INTS * 4;
+        IntBuffer nodes = IntervalTreeSnapshot.intSection( buffer, offset, nodeIntCount );
+        IntBuffer children = IntervalTreeSnapshot.intSection( buffer, offset += nodeIntCount * 4, childCount );
+        IntBuffer leafBounds = IntervalTreeSnapshot.intSection( buffer, offset += childCount * 4, leafCount * 2 );
+        IntBuffer attachmentIds = IntervalTreeSnapshot.intSection( buffer, offset += leafCount * 8, leafCount );
+        IntBuffer dictionaryOffsets = IntervalTreeSnapshot.intSection( buffer, offset += leafCount * 4, dictionaryCount + 1 );
+        buffer.position( offset + (dictionaryCount + 1) * 4 );
+        ByteBuffer dictionaryBytes = buffer.slice();
+        return new MappedIntervalTree<T>( nodes, children, leafBounds, attachmentIds, dictionaryOffsets, dictionaryBytes, leafCount, dictionaryCount, aDecoder );
+    }
+
+    private static IntBuffer intSection(ByteBuffer aBuffer, int aOffset, int aIntCount) {
+        aBuffer.position( aOffset );
+        ByteBuffer section = aBuffer.slice().order( ByteOrder.LITTLE_ENDIAN );
+        section.limit( aIntCount * 4 );
+        return section.asIntBuffer();
+    }
+}
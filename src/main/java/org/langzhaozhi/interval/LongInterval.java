@@ -0,0 +1,38 @@
+package org.langzhaozhi.interval;
+
+/**
+ * 64 位无符号整数型闭区间[start,end]
+ *
+ * @param <T> 此区间的绑定对象,由应用做出解释
+ */
+public final class LongInterval<T> {
+    public final T mAttachment;
+    /**
+     * 无符号64位的小值，比较时要用 Long.compareUnsigned
+     */
+    public final long mStart;
+    /**
+     * 无符号64位的大值，比较时要用 Long.compareUnsigned
+     */
+    public final long mEnd;
+
+    public LongInterval(T aAttachment, long aStart, long aEnd) {
+        if (Long.compareUnsigned( aStart, aEnd ) > 0) {
+            throw new IllegalArgumentException();
+        }
+        this.mAttachment = aAttachment;
+        this.mStart = aStart;
+        this.mEnd = aEnd;
+    }
+
+    public boolean contains(long aPoint) {
+        //加上Long.MIN_VALUE就可以用有符号比较代替无符号比较
+        long point = aPoint + Long.MIN_VALUE;
+        return this.mStart + Long.MIN_VALUE <= point && point <= this.mEnd + Long.MIN_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "[0x" + Long.toHexString( this.mStart ) + ",0x" + Long.toHexString( this.mEnd ) + "]:" + this.mAttachment;
+    }
+}
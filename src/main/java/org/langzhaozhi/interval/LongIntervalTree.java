@@ -0,0 +1,85 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>64位无符号整型区间划分树，和 IntervalTree 是同样的按字节划分的Trie查找方法，
+ * 只是每层依次取64位的最高字节、次高字节...,最多8层,因此每次查询恒定至多8个单步就立即匹配到要的结果。</p>
+ *
+ * <p>层数可以在构造时配置：当所有区间的边界都只落在高若干字节上时(例如都是按大块对齐的ID段或时间段),
+ * 只需要这么多层就足够区分了，查询也就只需这么多步；个别前缀块中的边界区分不开时只在该块下面加深。</p>
+ *
+ * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class LongIntervalTree<T> {
+    /**
+     * 虚根节点
+     */
+    private final ByteTrieNode<LongInterval<T>> mRootNode;
+    /**
+     * 构造时配置的层数,1到8
+     */
+    private final int mDepth;
+    /**
+     * 实际最深的叶子所在的层数,区分不开的前缀块下面会比 mDepth 更深
+     */
+    private final int mMaxDepth;
+
+    LongIntervalTree(ByteTrieNode<LongInterval<T>> aRootNode, int aDepth) {
+        this.mRootNode = aRootNode;
+        this.mDepth = aDepth;
+        this.mMaxDepth = aRootNode.maxDepth();
+    }
+
+    /**
+     * @return 构造时配置的层数
+     */
+    public int getDepth() {
+        return this.mDepth;
+    }
+
+    /**
+     * @return 实际最深的叶子所在的层数,即查询最多的步数。只在边界用 getDepth() 个字节区分不开的前缀块下面才比 getDepth() 大
+     */
+    public int getMaxDepth() {
+        return this.mMaxDepth;
+    }
+
+    /**
+     * 获取一个点aPoint所属的区间,每次查询都是恒常的至多 getMaxDepth() 步就立即匹配出结果
+     * @param aPoint 一个无符号64位的点
+     * @return 参数aPoint所在的区间
+     */
+    public LongInterval<T> getInterval(long aPoint) {
+        ByteTrieNode<LongInterval<T>> parentNode = this.mRootNode;
+        for (int depth = 0;; ++depth) {
+            int depthChar = ( int )(aPoint >>> (56 - (depth << 3))) & 0xFF;
+            if (depthChar < parentNode.mMin) {
+                LongInterval<T> interval = parentNode.mChildrenNodes[ 0 ].firstLeafNode().mValue;
+                return interval.contains( aPoint ) ? interval : null;
+            }
+            else if (depthChar > parentNode.mMax) {
+                //类似递归的回溯
+                ByteTrieNode<LongInterval<T>> rootNode = this.mRootNode;
+                while (parentNode != rootNode) {
+                    parentNode = parentNode.mParentNode;
+                    depthChar = (( int )(aPoint >>> (56 - (--depth << 3))) & 0xFF) + 1;
+                    if (depthChar <= parentNode.mMax) {
+                        LongInterval<T> interval = parentNode.mChildrenNodes[ depthChar - parentNode.mMin ].firstLeafNode().mValue;
+                        return interval.contains( aPoint ) ? interval : null;
+                    }
+                }
+                return null;
+            }
+            else {
+                ByteTrieNode<LongInterval<T>> searchNode = parentNode.mChildrenNodes[ depthChar - parentNode.mMin ];
+                if (searchNode.mChildrenNodes == null || searchNode.mOwnerChar != depthChar) {
+                    LongInterval<T> interval = searchNode.firstLeafNode().mValue;
+                    return interval.contains( aPoint ) ? interval : null;
+                }
+                else {
+                    parentNode = searchNode;
+                }
+            }
+        }
+    }
+}
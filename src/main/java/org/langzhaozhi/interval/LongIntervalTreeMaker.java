@@ -0,0 +1,36 @@
+package org.langzhaozhi.interval;
+
+import java.util.Arrays;
+
+/**
+ * 构造 LongIntervalTree
+ */
+public class LongIntervalTreeMaker {
+    public static <T> LongIntervalTree<T> makeLongIntervalTree(LongInterval<T> [] aIntervalArray) {
+        return LongIntervalTreeMaker.makeLongIntervalTree( aIntervalArray, 8 );
+    }
+
+    /**
+     * @param aIntervalArray 互不相交的区间,会被就地按无符号起点排序
+     * @param aDepth 层数,1到8：一般只取最高 aDepth 个字节来划分;某个 aDepth 字节前缀块中的区间边界区分不开时,
+     *        只在该块下面继续按后面的字节加深,其它块不受影响
+     */
+    public static <T> LongIntervalTree<T> makeLongIntervalTree(LongInterval<T> [] aIntervalArray, int aDepth) {
+        if (aIntervalArray == null || aIntervalArray.length == 0) {
+            throw new IllegalArgumentException( "aIntervalArray not valid" );
+        }
+        if (aDepth < 1 || aDepth > 8) {
+            throw new IllegalArgumentException( "aDepth must be in [1,8]: " + aDepth );
+        }
+        //按无符号64位整数排序
+        Arrays.parallelSort( aIntervalArray, (aOne, aTwo) -> Long.compareUnsigned( aOne.mStart, aTwo.mStart ) );
+        //只支持对整数区间的划分
+        for (int i = 1; i < aIntervalArray.length; ++i) {
+            if (Long.compareUnsigned( aIntervalArray[ i ].mStart, aIntervalArray[ i - 1 ].mEnd ) <= 0) {
+                throw new IllegalArgumentException( "暂不支持区间重叠相交的情况" );
+            }
+        }
+        ByteTrieNode<LongInterval<T>> rootNode = ByteTrieNode.make( aIntervalArray, aDepth, 8, (aIndex, aDepthIndex) -> ( int )(aIntervalArray[ aIndex ].mStart >>> (56 - (aDepthIndex << 3))) & 0xFF, (aIndex, aDepthIndex) -> ( int )(aIntervalArray[ aIndex ].mEnd >>> (56 - (aDepthIndex << 3))) & 0xFF );
+        return new LongIntervalTree<T>( rootNode, aDepth );
+    }
+}
@@ -0,0 +1,135 @@
+package org.langzhaozhi.interval;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * <p>内存映射的区间树，由 IntervalTreeSnapshot.map 加载。</p>
+ *
+ * <p>查询直接在映射的缓冲区上进行，和 FlatLayout 共用 FlatLayout.searchLeaf 的走法，恒常的至多四步，不构造任何堆上的节点或区间对象：
+ * getIntervalIndex 返回区间序号，再通过 getStart/getEnd/getAttachmentId 取得区间的各部分。
+ * 绑定对象在第一次用到时才从字典中解码并缓存，因此解码次数最多是字典项个数。</p>
+ *
+ * <p>可以任意多线程并发访问,绑定对象应当是不变对象。</p>
+ * @param <T>
+ */
+public final class MappedIntervalTree<T> {
+    private final MappedNodes mNodes;
+    private final IntBuffer mLeafBounds;
+    private final IntBuffer mAttachmentIds;
+    private final IntBuffer mDictionaryOffsets;
+    private final ByteBuffer mDictionaryBytes;
+    private final int mIntervalCount;
+    private final Function<byte [], ? extends T> mDecoder;
+    /**
+     * 已经解码的字典项,并发时同一项可能被重复解码,但结果相等因此无妨。
+     * 用 AtomicReferenceArray 而不是普通数组,保证别的线程读到的解码对象是完整构造好了的
+     */
+    private final AtomicReferenceArray<T> mDecodedAttachments;
+
+    MappedIntervalTree(IntBuffer aNodes, IntBuffer aChildren, IntBuffer aLeafBounds, IntBuffer aAttachmentIds, IntBuffer aDictionaryOffsets, ByteBuffer aDictionaryBytes, int aIntervalCount, int aDictionaryCount, Function<byte [], ? extends T> aDecoder) {
+        this.mNodes = new MappedNodes( aNodes, aChildren );
+        this.mLeafBounds = aLeafBounds;
+        this.mAttachmentIds = aAttachmentIds;
+        this.mDictionaryOffsets = aDictionaryOffsets;
+        this.mDictionaryBytes = aDictionaryBytes;
+        this.mIntervalCount = aIntervalCount;
+        this.mDecoder = aDecoder;
+        this.mDecodedAttachments = new AtomicReferenceArray<T>( aDictionaryCount );
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的区间序号,每次查询都是恒常的至多四步
+     * @param aPoint 一个点
+     * @return 区间序号, -1 表示不在任何区间内
+     */
+    public int getIntervalIndex(int aPoint) {
+        int leaf = FlatLayout.searchLeaf( this.mNodes, aPoint );
+        if (leaf < 0) {
+            return -1;
+        }
+        int point = aPoint ^ Integer.MIN_VALUE;
+        return this.mLeafBounds.get( leaf << 1 ) <= point && point <= this.mLeafBounds.get( (leaf << 1) + 1 ) ? leaf : -1;
+    }
+
+    /**
+     * 获取一个点aPoint所属区间的绑定对象
+     * @param aPoint 一个点
+     * @return 绑定对象, 不在任何区间内或者绑定对象本身是 null 时返回 null
+     */
+    public T getAttachment(int aPoint) {
+        int index = this.getIntervalIndex( aPoint );
+        return index >= 0 ? this.getAttachmentById( this.mAttachmentIds.get( index ) ) : null;
+    }
+
+    public int getIntervalCount() {
+        return this.mIntervalCount;
+    }
+
+    /**
+     * @return 序号为 aIntervalIndex 的区间的无符号32位起点
+     */
+    public int getStart(int aIntervalIndex) {
+        return this.mLeafBounds.get( aIntervalIndex << 1 ) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return 序号为 aIntervalIndex 的区间的无符号32位终点
+     */
+    public int getEnd(int aIntervalIndex) {
+        return this.mLeafBounds.get( (aIntervalIndex << 1) + 1 ) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return 序号为 aIntervalIndex 的区间的绑定对象在字典中的编号, -1 表示 null
+     */
+    public int getAttachmentId(int aIntervalIndex) {
+        return this.mAttachmentIds.get( aIntervalIndex );
+    }
+
+    public int getAttachmentCount() {
+        return this.mDecodedAttachments.length();
+    }
+
+    public T getAttachmentById(int aAttachmentId) {
+        if (aAttachmentId < 0) {
+            return null;
+        }
+        T attachment = this.mDecodedAttachments.get( aAttachmentId );
+        if (attachment == null) {
+            int from = this.mDictionaryOffsets.get( aAttachmentId ), to = this.mDictionaryOffsets.get( aAttachmentId + 1 );
+            byte [] bytes = new byte [ to - from ];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[ i ] = this.mDictionaryBytes.get( from + i );
+            }
+            attachment = this.mDecoder.apply( bytes );
+            this.mDecodedAttachments.lazySet( aAttachmentId, attachment );
+        }
+        return attachment;
+    }
+
+    /**
+     * 映射缓冲区中的节点与儿子数据
+     */
+    private static final class MappedNodes implements FlatNodeAccess {
+        private final IntBuffer mNodes;
+        private final IntBuffer mChildren;
+
+        MappedNodes(IntBuffer aNodes, IntBuffer aChildren) {
+            this.mNodes = aNodes;
+            this.mChildren = aChildren;
+        }
+
+        @Override
+        public int nodeInt(int aIndex) {
+            return this.mNodes.get( aIndex );
+        }
+
+        @Override
+        public int childInt(int aIndex) {
+            return this.mChildren.get( aIndex );
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>允许区间重叠相交的32位无符号整型区间树，由 IntervalTreeMaker.makeOverlapIntervalTree 构造。</p>
+ *
+ * <p>构造时把整个32位空间预先切分成互不相交的基本段，每个基本段绑定覆盖它的所有区间组成的数组，
+ * 相同的覆盖数组只存一份被各基本段共享。这些基本段本身就是对区间的划分，直接用 IntervalTree 组织，
+ * 因此 getAllIntervals 和 IntervalTree.getInterval 一样恒常四步就找到覆盖一个点的所有区间，而且不分配任何对象。</p>
+ *
+ * <p>不变对象，意味着一旦构造就不再改变，因此可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class OverlapIntervalTree<T> {
+    @SuppressWarnings("rawtypes")
+    private static final Interval [] EMPTY_INTERVALS = new Interval [ 0 ];
+
+    /**
+     * 基本段组成的区间树,每个基本段的绑定对象就是覆盖它的所有区间
+     */
+    private final IntervalTree<Interval<T> []> mSegmentTree;
+
+    OverlapIntervalTree(IntervalTree<Interval<T> []> aSegmentTree) {
+        this.mSegmentTree = aSegmentTree;
+    }
+
+    /**
+     * 获取覆盖一个点aPoint的所有区间,每次查询都是恒常的四步就立即匹配出结果
+     * @param aPoint 一个点
+     * @return 覆盖aPoint的所有区间,按起点由小到大排列;没有时返回空数组。返回的数组是共享的,调用者不得修改
+     */
+    public Interval<T> [] getAllIntervals(int aPoint) {
+        Interval<Interval<T> []> segment = this.mSegmentTree.getInterval( aPoint );
+        @SuppressWarnings("unchecked")
+        Interval<T> [] intervals = segment != null ? segment.mAttachment : OverlapIntervalTree.EMPTY_INTERVALS;
+        return intervals;
+    }
+}
@@ -0,0 +1,361 @@
+package org.langzhaozhi.interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.function.BiPredicate;
+
+import org.langzhaozhi.interval.IntervalTree.IntervalNode;
+
+/**
+ * <p>按版本保存地址库各次发布的区间树，回答"某个点在版本X时属于哪个区间"，由 IntervalTreeMaker.makeVersionedIntervalTree 构造，
+ * 之后每次发布用 withRelease 追加。</p>
+ *
+ * <p>所有版本共用一棵段树：把各次发布的区间端点合在一起把数轴切成段，每段内的点在每个版本中所属的区间都相同，
+ * 段的绑定对象是它的历史 History ，即按版本递增的 (生效版本, 区间) 序列，区间为 null 表示从该版本起此段不在任何区间内；
+ * 第 i 项的有效范围是 [getValidFrom(i), getValidTo(i)) 。查询时先在段树中找到点所在的段，再在其历史中找版本：
+ * 最新的一项和它前面的一项(即上一次改动之前)各只需一次比较，绝大多数段只有一项历史，只多一次比较；
+ * 更早的版本才在该段其余的历史中二分查找，花费是该段改动次数的对数，与发布的总次数无关。</p>
+ *
+ * <p>追加发布时一遍扫描段树的叶子和新发布的区间：没有变化的段原样保留，只有被切开或区间改变了的段才换成新的段，
+ * 改动不多时用 IntervalTree.applyBatch 只复制改动路径上的节点，新旧两个版本树共享所有没有改动的子树；
+ * 区间的起点终点和绑定对象都没有变化时沿用上一个版本的区间对象，不会每个版本都存一份。</p>
+ *
+ * <p>不变对象，可以任意多线程并发访问。</p>
+ * @param <T>
+ */
+public final class VersionedIntervalTree<T> {
+    /**
+     * 改动的段数乘以此值仍小于段数时按路径复制增量修改段树,否则整棵重新构造
+     */
+    private static final int INCREMENTAL_RATIO = 16;
+
+    private final IntervalTree<History<T>> mSegmentTree;
+    /**
+     * 各次发布的版本号,递增
+     */
+    private final long [] mVersions;
+    private final BiPredicate<? super T, ? super T> mEquality;
+
+    VersionedIntervalTree(IntervalTree<History<T>> aSegmentTree, long [] aVersions, BiPredicate<? super T, ? super T> aEquality) {
+        this.mSegmentTree = aSegmentTree;
+        this.mVersions = aVersions;
+        this.mEquality = aEquality;
+    }
+
+    /**
+     * @param aEquality 判断两次发布中起点终点相同的区间的绑定对象是否相等,相等时沿用前一次的区间对象
+     * @return 没有任何发布的版本树
+     */
+    static <T> VersionedIntervalTree<T> empty(BiPredicate<? super T, ? super T> aEquality) {
+        return new VersionedIntervalTree<T>( new IntervalTree<History<T>>( IntervalNode.emptyRootNode(), 0, IntervalStride.STRIDE_8_8_8_8, false ), new long [ 0 ], aEquality );
+    }
+
+    /**
+     * 获取一个点aPoint在版本aVersion时所属的区间:aVersion 不是发布的版本号时取不大于它的最近一次发布
+     * @param aPoint 一个点
+     * @param aVersion 版本号,例如发布日期
+     * @return 该版本中aPoint所在的区间,不在任何区间内或者早于第一次发布时返回 null
+     */
+    public Interval<T> getInterval(int aPoint, long aVersion) {
+        Interval<History<T>> segment = this.mSegmentTree.getInterval( aPoint );
+        return segment != null ? segment.mAttachment.find( aVersion ) : null;
+    }
+
+    /**
+     * 获取一个点aPoint在最新版本中所属的区间
+     */
+    public Interval<T> getInterval(int aPoint) {
+        Interval<History<T>> segment = this.mSegmentTree.getInterval( aPoint );
+        return segment != null ? segment.mAttachment.mIntervals[ segment.mAttachment.mIntervals.length - 1 ] : null;
+    }
+
+    /**
+     * @return aPoint 所在段的历史,从没有被任何发布覆盖过时返回 null
+     */
+    public History<T> getHistory(int aPoint) {
+        Interval<History<T>> segment = this.mSegmentTree.getInterval( aPoint );
+        return segment != null ? segment.mAttachment : null;
+    }
+
+    /**
+     * @return 各次发布的版本号,递增
+     */
+    public long [] getVersions() {
+        return this.mVersions.clone();
+    }
+
+    public int getReleaseCount() {
+        return this.mVersions.length;
+    }
+
+    /**
+     * @return 最新一次发布的版本号,没有发布时返回 Long.MIN_VALUE
+     */
+    public long getLatestVersion() {
+        return this.mVersions.length > 0 ? this.mVersions[ this.mVersions.length - 1 ] : Long.MIN_VALUE;
+    }
+
+    /**
+     * @return 段的个数
+     */
+    public int getSegmentCount() {
+        return ( int )this.mSegmentTree.stream().count();
+    }
+
+    /**
+     * 追加一次发布,返回新的版本树,本树保持不变
+     * @param aVersion 版本号,必须大于 getLatestVersion()
+     * @param aRelease 这次发布的完整区间树
+     * @return 新的版本树
+     */
+    public VersionedIntervalTree<T> withRelease(long aVersion, IntervalTree<T> aRelease) {
+        if (this.mVersions.length > 0 && aVersion <= this.getLatestVersion()) {
+            throw new IllegalArgumentException( "版本号必须递增: " + aVersion );
+        }
+        IntervalTree.LeafCursor<History<T>> segmentCursor = new IntervalTree.LeafCursor<History<T>>( this.mSegmentTree );
+        IntervalTree.LeafCursor<T> releaseCursor = new IntervalTree.LeafCursor<T>( aRelease );
+        ArrayList<Interval<History<T>>> segments = new ArrayList<Interval<History<T>>>();
+        ArrayList<Interval<History<T>>> removes = new ArrayList<Interval<History<T>>>();
+        ArrayList<Interval<History<T>>> adds = new ArrayList<Interval<History<T>>>();
+        Interval<History<T>> segment = segmentCursor.next();
+        Interval<T> release = releaseCursor.next();
+        //两边当前区间还没有处理的部分的起点
+        long segmentFrom = segment != null ? segment.mStart : 0;
+        long releaseFrom = release != null ? release.mStart : 0;
+        while (segment != null || release != null) {
+            if (release == null || segment != null && segment.mEnd < releaseFrom) {
+                this.piece( aVersion, segment, segmentFrom, segment.mEnd, null, segments, removes, adds );
+                segment = segmentCursor.next();
+                segmentFrom = segment != null ? segment.mStart : 0;
+            }
+            else if (segment == null || release.mEnd < segmentFrom) {
+                this.piece( aVersion, null, releaseFrom, release.mEnd, release, segments, removes, adds );
+                release = releaseCursor.next();
+                releaseFrom = release != null ? release.mStart : 0;
+            }
+            else if (segmentFrom < releaseFrom) {
+                //两边相交,先处理段在新区间开始之前的部分
+                this.piece( aVersion, segment, segmentFrom, releaseFrom - 1, null, segments, removes, adds );
+                segmentFrom = releaseFrom;
+            }
+            else if (releaseFrom < segmentFrom) {
+                this.piece( aVersion, null, releaseFrom, segmentFrom - 1, release, segments, removes, adds );
+                releaseFrom = segmentFrom;
+            }
+            else {
+                long end = Math.min( segment.mEnd, release.mEnd );
+                this.piece( aVersion, segment, segmentFrom, end, release, segments, removes, adds );
+                if (segment.mEnd == end) {
+                    segment = segmentCursor.next();
+                    segmentFrom = segment != null ? segment.mStart : 0;
+                }
+                else {
+                    segmentFrom = end + 1;
+                }
+                if (release.mEnd == end) {
+                    release = releaseCursor.next();
+                    releaseFrom = release != null ? release.mStart : 0;
+                }
+                else {
+                    releaseFrom = end + 1;
+                }
+            }
+        }
+        IntervalTree<History<T>> segmentTree;
+        if (segments.isEmpty()) {
+            segmentTree = new IntervalTree<History<T>>( IntervalNode.emptyRootNode(), 0, IntervalStride.STRIDE_8_8_8_8, false );
+        }
+        else if ((removes.size() + adds.size()) * VersionedIntervalTree.INCREMENTAL_RATIO < segments.size()) {
+            @SuppressWarnings("unchecked")
+            Interval<History<T>> [] removeArray = removes.toArray( new Interval [ removes.size() ] );
+            @SuppressWarnings("unchecked")
+            Interval<History<T>> [] addArray = adds.toArray( new Interval [ adds.size() ] );
+            segmentTree = this.mSegmentTree.applyBatch( removeArray, addArray );
+        }
+        else {
+            @SuppressWarnings("unchecked")
+            Interval<History<T>> [] segmentArray = segments.toArray( new Interval [ segments.size() ] );
+            segmentTree = IntervalTreeMaker.makeSortedIntervalTree( segmentArray );
+        }
+        long [] versions = Arrays.copyOf( this.mVersions, this.mVersions.length + 1 );
+        versions[ this.mVersions.length ] = aVersion;
+        return new VersionedIntervalTree<T>( segmentTree, versions, this.mEquality );
+    }
+
+    /**
+     * 处理扫描出来的一段 [aFrom, aTo]:它原来属于段 aSegment(可以为 null),在新发布中属于区间 aRelease(可以为 null)
+     */
+    private void piece(long aVersion, Interval<History<T>> aSegment, long aFrom, long aTo, Interval<T> aRelease, ArrayList<Interval<History<T>>> aSegments, ArrayList<Interval<History<T>>> aRemoves, ArrayList<Interval<History<T>>> aAdds) {
+        History<T> history;
+        if (aSegment == null) {
+            history = new History<T>( new long [] {
+                aVersion
+            }, VersionedIntervalTree.single( aRelease ) );
+        }
+        else {
+            Interval<T> last = aSegment.mAttachment.mIntervals[ aSegment.mAttachment.mIntervals.length - 1 ];
+            history = this.same( last, aRelease ) ? aSegment.mAttachment : aSegment.mAttachment.append( aVersion, aRelease );
+            if (history == aSegment.mAttachment && aFrom == aSegment.mStart && aTo == aSegment.mEnd) {
+                //没有被切开也没有变化的段原样保留
+                aSegments.add( aSegment );
+                return;
+            }
+            //被切开的段每一块都会走到这里,只去掉一次
+            if (aFrom == aSegment.mStart) {
+                aRemoves.add( aSegment );
+            }
+        }
+        Interval<History<T>> newSegment = new Interval<History<T>>( history, ( int )aFrom, ( int )aTo );
+        aSegments.add( newSegment );
+        aAdds.add( newSegment );
+    }
+
+    private boolean same(Interval<T> aOne, Interval<T> aTwo) {
+        if (aOne == aTwo) {
+            return true;
+        }
+        return aOne != null && aTwo != null && aOne.mStart == aTwo.mStart && aOne.mEnd == aTwo.mEnd && this.mEquality.test( aOne.mAttachment, aTwo.mAttachment );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Interval<T> [] single(Interval<T> aInterval) {
+        return new Interval [] {
+            aInterval
+        };
+    }
+
+    /**
+     * 取出版本aVersion时的完整区间树
+     * @return 新的区间树,该版本没有任何区间时是一棵空树
+     */
+    public IntervalTree<T> toIntervalTree(long aVersion) {
+        ArrayList<Interval<T>> intervalList = new ArrayList<Interval<T>>();
+        IntervalTree.LeafCursor<History<T>> segmentCursor = new IntervalTree.LeafCursor<History<T>>( this.mSegmentTree );
+        for (Interval<History<T>> segment = segmentCursor.next(); segment != null; segment = segmentCursor.next()) {
+            Interval<T> interval = segment.mAttachment.find( aVersion );
+            //一个区间可能被后来的端点切成了好几段,相邻的段只取一次
+            if (interval != null && (intervalList.isEmpty() || intervalList.get( intervalList.size() - 1 ) != interval)) {
+                intervalList.add( interval );
+            }
+        }
+        if (intervalList.isEmpty()) {
+            return new IntervalTree<T>( IntervalNode.emptyRootNode(), 0, IntervalStride.STRIDE_8_8_8_8, false );
+        }
+        @SuppressWarnings("unchecked")
+        Interval<T> [] intervals = intervalList.toArray( new Interval [ intervalList.size() ] );
+        return IntervalTreeMaker.makeSortedIntervalTree( intervals );
+    }
+
+    /**
+     * 估算占用的堆内存字节数,计算方法与 IntervalTree.estimateMemorySize 相同:段树,各段的历史,以及各版本的区间对象,
+     * 被多个段共享的历史和区间对象只算一次,不包括区间的绑定对象
+     */
+    public long estimateMemorySize() {
+        long size = this.mSegmentTree.estimateMemorySize() + 16 + ((16 + 8L * this.mVersions.length + 7) & ~7L);
+        IdentityHashMap<Object, Boolean> counted = new IdentityHashMap<Object, Boolean>();
+        IntervalTree.LeafCursor<History<T>> segmentCursor = new IntervalTree.LeafCursor<History<T>>( this.mSegmentTree );
+        for (Interval<History<T>> segment = segmentCursor.next(); segment != null; segment = segmentCursor.next()) {
+            History<T> history = segment.mAttachment;
+            if (counted.put( history, Boolean.TRUE ) != null) {
+                continue;
+            }
+            //历史对象:对象头12 + 2个引用 = 24,再加两个数组
+            int length = history.mIntervals.length;
+            size += 24 + 16 + 8L * length + ((16 + 4L * length + 7) & ~7L);
+            for (Interval<T> interval : history.mIntervals) {
+                if (interval != null && counted.put( interval, Boolean.TRUE ) == null) {
+                    size += 32;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 一段的历史:第 i 项在版本 [getValidFrom(i), getValidTo(i)) 内有效,其区间覆盖整段, null 表示此段不在任何区间内。
+     * 不变对象,可以被多个段共享
+     * @param <T>
+     */
+    public static final class History<T> {
+        /**
+         * 各项的生效版本,递增
+         */
+        final long [] mValidFrom;
+        final Interval<T> [] mIntervals;
+
+        History(long [] aValidFrom, Interval<T> [] aIntervals) {
+            this.mValidFrom = aValidFrom;
+            this.mIntervals = aIntervals;
+        }
+
+        public int size() {
+            return this.mIntervals.length;
+        }
+
+        public long getValidFrom(int aIndex) {
+            return this.mValidFrom[ aIndex ];
+        }
+
+        /**
+         * @return 第 aIndex 项失效的版本(不含),最后一项一直有效,返回 Long.MAX_VALUE
+         */
+        public long getValidTo(int aIndex) {
+            return aIndex + 1 < this.mValidFrom.length ? this.mValidFrom[ aIndex + 1 ] : Long.MAX_VALUE;
+        }
+
+        public Interval<T> getInterval(int aIndex) {
+            return this.mIntervals[ aIndex ];
+        }
+
+        /**
+         * 查最新的一项和它前面的一项都是一次比较,更早的版本在其余的历史中二分查找
+         * @return 版本 aVersion 时的区间,即生效版本不大于 aVersion 的最后一项
+         */
+        public Interval<T> find(long aVersion) {
+            long [] validFrom = this.mValidFrom;
+            int high = validFrom.length - 1;
+            //最常见的是查最新版本或者只有一项历史
+            if (validFrom[ high ] <= aVersion) {
+                return this.mIntervals[ high ];
+            }
+            //其次是查此段上一次改动之前的版本,例如与前一次发布对比
+            if (high == 0) {
+                return null;
+            }
+            if (validFrom[ --high ] <= aVersion) {
+                return this.mIntervals[ high ];
+            }
+            int low = 0;
+            --high;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (validFrom[ mid ] <= aVersion) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 ? this.mIntervals[ high ] : null;
+        }
+
+        History<T> append(long aVersion, Interval<T> aInterval) {
+            int length = this.mIntervals.length;
+            long [] validFrom = Arrays.copyOf( this.mValidFrom, length + 1 );
+            Interval<T> [] intervals = Arrays.copyOf( this.mIntervals, length + 1 );
+            validFrom[ length ] = aVersion;
+            intervals[ length ] = aInterval;
+            return new History<T>( validFrom, intervals );
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < this.mIntervals.length; ++i) {
+                text.append( i == 0 ? "" : ", " ).append( this.mValidFrom[ i ] ).append( "->" ).append( this.mIntervals[ i ] );
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.langzhaozhi.interval;
+
+/**
+ * <p>扁平布局上的批量查询，JDK 17 及以上的版本(多版本JAR的 META-INF/versions/17)。</p>
+ *
+ * <p>jdk.incubator.vector 是孵化模块，只有启动时加了 --add-modules jdk.incubator.vector 才会被解析，
+ * 因此先检查模块是否存在，存在时才去加载 VectorFlatBatchSearch；不存在或者 -Dorg.langzhaozhi.interval.vector=false 时与 Java 8 的版本一样逐个查找。</p>
+ */
+final class FlatBatchSearch {
+    private static final boolean VECTORIZED = !"false".equals( System.getProperty( "org.langzhaozhi.interval.vector" ) ) && ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isPresent() && VectorFlatBatchSearch.isSupported();
+
+    private FlatBatchSearch() {
+    }
+
+    static boolean isVectorized() {
+        return FlatBatchSearch.VECTORIZED;
+    }
+
+    static void search(FlatLayout aLayout, int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        if (FlatBatchSearch.VECTORIZED) {
+            VectorFlatBatchSearch.search( aLayout, aPoints, aFrom, aTo, aOut );
+        }
+        else {
+            for (int i = aFrom; i < aTo; ++i) {
+                aOut[ i ] = aLayout.search( aPoints[ i ] );
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.langzhaozhi.interval;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>用 Vector API 在扁平布局上批量查询：每次取 SPECIES.length() 个点放在各个通道中，逐层同时做完全相同的事情，
+ * 取出各点这一层的8位字符、与各自节点的 min/max 比较、按字符 gather 儿子、判断儿子是否是空隙填充的，
+ * 走不下去的通道用掩码关掉并记下候选叶子，全部通道都关掉或者走完四层后，再 gather 各候选叶子的起点终点一起做 contains 比较。</p>
+ *
+ * <p>逐层的分支全部变成了掩码运算，各点的查找路径不同也不会有分支预测失败；余下不足一组的点逐个查找。
+ * 只在 FlatBatchSearch 确认 jdk.incubator.vector 模块存在后才会加载此类。</p>
+ */
+final class VectorFlatBatchSearch {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private VectorFlatBatchSearch() {
+    }
+
+    /**
+     * @return 首选的向量至少有4个int通道时才值得向量化
+     */
+    static boolean isSupported() {
+        return VectorFlatBatchSearch.SPECIES.length() >= 4;
+    }
+
+    /**
+     * gather aArray[aOffset + aIndexes[lane]]。没有选中的通道的下标换成0再不带掩码地 gather,其结果由调用者用掩码丢弃:
+     * JDK 17 的 C2 在一些平台上把带掩码的 gather 编译成不带掩码的,没有选中的通道上残留的下标会越界访问内存
+     */
+    private static IntVector gather(int [] aArray, int aOffset, IntVector aIndexes, VectorMask<Integer> aMask, int [] aIndexMap) {
+        aIndexes.blend( 0, aMask.not() ).intoArray( aIndexMap, 0 );
+        return IntVector.fromArray( VectorFlatBatchSearch.SPECIES, aArray, aOffset, aIndexMap, 0 );
+    }
+
+    static void search(FlatLayout aLayout, int [] aPoints, int aFrom, int aTo, int [] aOut) {
+        VectorSpecies<Integer> species = VectorFlatBatchSearch.SPECIES;
+        int [] nodes = aLayout.mNodes;
+        int [] children = aLayout.mChildren;
+        int [] leafBounds = aLayout.mLeafBounds;
+        int lanes = species.length();
+        //gather 的下标表,每批只分配这一次
+        int [] indexMap = new int [ lanes ];
+        int i = aFrom;
+        for (; i + lanes <= aTo; i += lanes) {
+            IntVector points = IntVector.fromArray( species, aPoints, i );
+            IntVector node = IntVector.zero( species );
+            IntVector leaf = IntVector.broadcast( species, -1 );
+            VectorMask<Integer> active = species.maskAll( true );
+            for (int depth = 0; depth < IntervalTree.BIT_MOVE_COUNT.length && active.anyTrue(); ++depth) {
+                IntVector base = node.lanewise( VectorOperators.LSHL, 2 );
+                IntVector bounds = VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_BOUNDS, base, active, indexMap );
+                IntVector depthChar = points.lanewise( VectorOperators.LSHR, IntervalTree.BIT_MOVE_COUNT[ depth ] ).lanewise( VectorOperators.AND, 0xFF );
+                IntVector min = bounds.lanewise( VectorOperators.AND, 0xFF );
+                IntVector max = bounds.lanewise( VectorOperators.LSHR, 8 ).lanewise( VectorOperators.AND, 0xFF );
+                //小于 min 的候选叶子是子树的第一个叶子,大于 max 的是子树之后的下一个叶子
+                VectorMask<Integer> below = depthChar.compare( VectorOperators.LT, min ).and( active );
+                VectorMask<Integer> above = depthChar.compare( VectorOperators.GT, max ).and( active );
+                leaf = leaf.blend( VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_FIRST_LEAF, base, below, indexMap ), below );
+                leaf = leaf.blend( VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_NEXT_LEAF, base, above, indexMap ), above );
+                VectorMask<Integer> inRange = active.andNot( below.or( above ) );
+                IntVector childOffset = VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_CHILD_OFFSET, base, inRange, indexMap );
+                IntVector child = VectorFlatBatchSearch.gather( children, 0, childOffset.add( depthChar ).sub( min ), inRange, indexMap );
+                //负值是第4层的数据叶子
+                VectorMask<Integer> leafChild = child.compare( VectorOperators.LT, 0 ).and( inRange );
+                leaf = leaf.blend( child.lanewise( VectorOperators.NOT ), leafChild );
+                VectorMask<Integer> innerChild = inRange.andNot( leafChild );
+                IntVector childBase = child.lanewise( VectorOperators.LSHL, 2 );
+                IntVector childBounds = VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_BOUNDS, childBase, innerChild, indexMap );
+                //空隙上填的是下一个儿子,其字符与本层字符对不上,候选叶子就是它的第一个叶子
+                VectorMask<Integer> gap = childBounds.lanewise( VectorOperators.LSHR, 16 ).lanewise( VectorOperators.AND, 0xFF ).compare( VectorOperators.NE, depthChar ).and( innerChild );
+                leaf = leaf.blend( VectorFlatBatchSearch.gather( nodes, FlatLayout.NODE_FIRST_LEAF, childBase, gap, indexMap ), gap );
+                active = innerChild.andNot( gap );
+                node = node.blend( child, active );
+            }
+            //向量化的 contains:叶子的起点终点已经异或 Integer.MIN_VALUE,点也异或后直接有符号比较
+            VectorMask<Integer> found = leaf.compare( VectorOperators.GE, 0 );
+            IntVector leafBase = leaf.lanewise( VectorOperators.LSHL, 1 );
+            IntVector starts = VectorFlatBatchSearch.gather( leafBounds, 0, leafBase, found, indexMap );
+            IntVector ends = VectorFlatBatchSearch.gather( leafBounds, 1, leafBase, found, indexMap );
+            IntVector signedPoints = points.lanewise( VectorOperators.XOR, Integer.MIN_VALUE );
+            VectorMask<Integer> hit = found.and( starts.compare( VectorOperators.LE, signedPoints ) ).and( signedPoints.compare( VectorOperators.LE, ends ) );
+            leaf.blend( -1, hit.not() ).intoArray( aOut, i );
+        }
+        for (; i < aTo; ++i) {
+            aOut[ i ] = aLayout.search( aPoints[ i ] );
+        }
+    }
+}
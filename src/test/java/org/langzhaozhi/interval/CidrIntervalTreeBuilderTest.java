@@ -0,0 +1,44 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * CIDR最长前缀匹配必须与逐个比较各前缀的结果一致,由 surefire 在 test 阶段运行
+ */
+public class CidrIntervalTreeBuilderTest {
+    @Test
+    public void longestPrefixMatch() {
+        Random random = new Random( 20150210 );
+        int [] prefixes = new int [ 3000 ];
+        int [] lengths = new int [ prefixes.length ];
+        CidrIntervalTreeBuilder<String> builder = new CidrIntervalTreeBuilder<String>();
+        for (int i = 0; i < prefixes.length; ++i) {
+            //集中在 10.0.0.0/8 附近以产生大量嵌套,再加上一些完全相同的前缀
+            lengths[ i ] = i == 0 ? 0 : 8 + random.nextInt( 25 );
+            prefixes[ i ] = i > 0 && i % 100 == 0 ? prefixes[ i - 1 ] : 0x0A00_0000 | random.nextInt( 1 << 16 ) << 8;
+            lengths[ i ] = i > 0 && i % 100 == 0 ? lengths[ i - 1 ] : lengths[ i ];
+            prefixes[ i ] &= lengths[ i ] == 0 ? 0 : 0xFFFF_FFFF << (32 - lengths[ i ]);
+            builder.add( prefixes[ i ], lengths[ i ], "前缀" + i );
+        }
+        IntervalTree<String> tree = builder.build();
+        for (int i = 0; i < 20000; ++i) {
+            int point = i < 19000 ? 0x0A00_0000 | random.nextInt( 1 << 24 ) : random.nextInt();
+            int best = -1;
+            for (int j = 0; j < prefixes.length; ++j) {
+                boolean match = lengths[ j ] == 0 || ((point ^ prefixes[ j ]) >>> (32 - lengths[ j ])) == 0;
+                if (match && (best < 0 || lengths[ j ] >= lengths[ best ])) {
+                    best = j;
+                }
+            }
+            String message = "0x" + Integer.toHexString( point );
+            Interval<String> interval = tree.getInterval( point );
+            assertNotNull( message, interval );
+            assertEquals( message, "前缀" + best, interval.mAttachment );
+        }
+    }
+}
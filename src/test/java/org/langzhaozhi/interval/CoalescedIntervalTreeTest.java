@@ -0,0 +1,63 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * 合并相邻同绑定对象区间后查询结果不变,并能找回原始区间,由 surefire 在 test 阶段运行
+ */
+public class CoalescedIntervalTreeTest {
+    @Test
+    public void mergesAdjacentEqualAttachments() {
+        Random random = new Random( 20150215 );
+        //首尾相接的区间,绑定对象成串重复,偶尔留出空隙
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervals = new Interval [ 200000 ];
+        long start = 0;
+        String label = "归属地0";
+        for (int i = 0; i < intervals.length; ++i) {
+            if (random.nextInt( 8 ) == 0) {
+                label = "归属地" + random.nextInt( 4 );
+            }
+            start += random.nextInt( 20 ) == 0 ? 1 + random.nextInt( 1000 ) : 0;
+            long end = start + random.nextInt( 20000 );
+            intervals[ i ] = new Interval<String>( new String( label ), ( int )start, ( int )end );
+            start = end + 1;
+        }
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        CoalescedIntervalTree<String> coalesced = IntervalTreeMaker.makeCoalescedIntervalTree( intervals.clone() );
+        //合并后同样可以自动选择步长并行构造
+        CoalescedIntervalTree<String> parallelCoalesced = IntervalTreeMaker.makeCoalescedIntervalTree( intervals.clone(), Objects::equals, IntervalStride.AUTO, ForkJoinPool.commonPool() );
+        assertNotEquals( IntervalStride.AUTO, parallelCoalesced.getTree().getStride() );
+        assertEquals( coalesced.getMergedCount(), parallelCoalesced.getMergedCount() );
+        assertEquals( intervals.length, coalesced.getOriginalCount() );
+        assertTrue( coalesced.getMergedCount() < intervals.length / 4 );
+        assertTrue( coalesced.getTree().estimateMemorySize() < tree.estimateMemorySize() );
+        for (int i = 0; i < 1000000; ++i) {
+            int point = i % 2 == 0 ? random.nextInt() : random.nextInt( ( int )start );
+            String message = "0x" + Integer.toHexString( point );
+            Interval<String> expected = tree.getInterval( point );
+            Interval<String> merged = coalesced.getInterval( point );
+            int mergedIndex = coalesced.getTree().getIntervalIndex( point );
+            assertEquals( message, mergedIndex, parallelCoalesced.getTree().getIntervalIndex( point ) );
+            assertSame( message, coalesced.getOriginalInterval( point ), parallelCoalesced.getOriginalInterval( point ) );
+            assertSame( message, expected, coalesced.getOriginalInterval( point ) );
+            if (expected == null) {
+                assertTrue( message, merged == null && mergedIndex < 0 );
+            }
+            else {
+                assertEquals( message, expected.mAttachment, merged.mAttachment );
+                assertEquals( message, merged.mStart, coalesced.getOriginalIntervalAt( coalesced.getOriginalFrom( mergedIndex ) ).mStart );
+                assertEquals( message, merged.mEnd, coalesced.getOriginalIntervalAt( coalesced.getOriginalTo( mergedIndex ) - 1 ).mEnd );
+            }
+        }
+    }
+}
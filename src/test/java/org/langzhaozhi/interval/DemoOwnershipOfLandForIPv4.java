@@ -57,6 +57,22 @@ public class DemoOwnershipOfLandForIPv4 {
         } while (index != 0);
         long t2 = System.currentTimeMillis();
         System.out.println( "区间树所有32位地址查询花费:" + (t2 - t1) + " ms, 平均每秒:" + (0xFFFF_FFFFL + 1L) * 1000.0 / (t2 - t1) + " 条/秒" );
+
+        System.out.println();
+        System.out.println( "开始进行所有32位全IP数据的区间树批量查询速度测试..." );
+        int [] batchPoints = new int [ 4096 ];
+        @SuppressWarnings("unchecked")
+        Interval<String> [] batchOut = new Interval [ batchPoints.length ];
+        t1 = System.currentTimeMillis();
+        index = 0;
+        do {
+            for (int i = 0; i < batchPoints.length; ++i) {
+                batchPoints[ i ] = index++;
+            }
+            intervalTre.getIntervals( batchPoints, 0, batchPoints.length, batchOut );
+        } while (index != 0);
+        t2 = System.currentTimeMillis();
+        System.out.println( "区间树所有32位地址批量查询花费:" + (t2 - t1) + " ms, 平均每秒:" + (0xFFFF_FFFFL + 1L) * 1000.0 / (t2 - t1) + " 条/秒" );
         System.out.println();
         System.out.println();
         System.out.println();
@@ -0,0 +1,56 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 对打包好的多版本JAR做的集成测试,由 jdk17 profile 中的 failsafe 在 integration-test 阶段运行,
+ * 运行时加了 --add-modules jdk.incubator.vector,因此必须加载到 META-INF/versions/17 下的向量化实现
+ */
+public class FlatBatchSearchIT {
+    @Test
+    public void loadsVectorizedLayer() {
+        URL classUrl = FlatBatchSearch.class.getResource( "FlatBatchSearch.class" );
+        assertTrue( String.valueOf( classUrl ), classUrl != null && classUrl.toString().contains( "!/META-INF/versions/17/" ) );
+        assertTrue( FlatBatchSearch.isVectorized() );
+    }
+
+    @Test
+    public void batchMatchesSingleLookup() {
+        Random random = new Random( 20150224 );
+        for (int count : new int [] {
+            1, 300, 200000
+        }) {
+            Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, count );
+            FlatIntervalTree<String> flatTree = IntervalTreeMaker.makeFlatIntervalTree( intervals.clone() );
+            int [] starts = new int [ count ], ends = new int [ count ], values = new int [ count ];
+            for (int i = 0; i < count; ++i) {
+                starts[ i ] = ( int )intervals[ i ].mStart;
+                ends[ i ] = ( int )intervals[ i ].mEnd;
+                values[ i ] = i * 7;
+            }
+            IntIntervalTree intTree = IntervalTreeMaker.makeIntIntervalTree( starts, ends, values );
+            //长度不是向量通道数的整数倍,起点也不对齐
+            int [] points = new int [ 100003 ];
+            for (int i = 0; i < points.length; ++i) {
+                Interval<String> near = intervals[ random.nextInt( count ) ];
+                points[ i ] = (i & 3) == 0 ? random.nextInt() : ( int )((i & 1) == 0 ? near.mStart : near.mEnd) + (i & 2) - 1;
+            }
+            int [] expectedIndexes = new int [ points.length ], expectedValues = new int [ points.length ];
+            for (int i = 3; i < points.length; ++i) {
+                expectedIndexes[ i ] = flatTree.getIntervalIndex( points[ i ] );
+                expectedValues[ i ] = expectedIndexes[ i ] >= 0 ? expectedIndexes[ i ] * 7 : intTree.getNoMatchValue();
+            }
+            int [] indexes = new int [ points.length ], outValues = new int [ points.length ];
+            flatTree.getIntervalIndexes( points, 3, points.length, indexes );
+            intTree.getValues( points, 3, points.length, outValues );
+            assertArrayEquals( expectedIndexes, indexes );
+            assertArrayEquals( expectedValues, outValues );
+        }
+    }
+}
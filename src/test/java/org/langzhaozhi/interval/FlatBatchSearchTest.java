@@ -0,0 +1,57 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 扁平布局的批量查询结果必须与逐个查询完全一致,由 surefire 在 test 阶段运行
+ */
+public class FlatBatchSearchTest {
+    @Test
+    public void batchMatchesSingleLookup() {
+        Random random = new Random( 20150224 );
+        for (int count : new int [] {
+            1, 300, 200000
+        }) {
+            Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, count );
+            FlatIntervalTree<String> flatTree = IntervalTreeMaker.makeFlatIntervalTree( intervals.clone() );
+            int [] starts = new int [ count ], ends = new int [ count ], values = new int [ count ];
+            for (int i = 0; i < count; ++i) {
+                starts[ i ] = ( int )intervals[ i ].mStart;
+                ends[ i ] = ( int )intervals[ i ].mEnd;
+                values[ i ] = i * 7;
+            }
+            IntIntervalTree intTree = IntervalTreeMaker.makeIntIntervalTree( starts, ends, values );
+            //长度不是向量通道数的整数倍,起点也不对齐
+            int [] points = new int [ 100003 ];
+            for (int i = 0; i < points.length; ++i) {
+                Interval<String> near = intervals[ random.nextInt( count ) ];
+                points[ i ] = (i & 3) == 0 ? random.nextInt() : ( int )((i & 1) == 0 ? near.mStart : near.mEnd) + (i & 2) - 1;
+            }
+            int [] indexes = new int [ points.length ];
+            int [] outValues = new int [ points.length ];
+            flatTree.getIntervalIndexes( points, 3, points.length, indexes );
+            intTree.getValues( points, 3, points.length, outValues );
+            for (int i = 3; i < points.length; ++i) {
+                int expected = flatTree.getIntervalIndex( points[ i ] );
+                assertEquals( "0x" + Integer.toHexString( points[ i ] ), expected, indexes[ i ] );
+                assertEquals( "0x" + Integer.toHexString( points[ i ] ), expected >= 0 ? expected * 7 : intTree.getNoMatchValue(), outValues[ i ] );
+            }
+            //越界的范围在开始前就被拒绝, aOut 不会被改写一部分
+            int [] shortOut = new int [ points.length - 1 ];
+            try {
+                intTree.getValues( points, 0, points.length, shortOut );
+                fail( "越界的范围必须拒绝" );
+            }
+            catch (IndexOutOfBoundsException e) {
+                assertTrue( Arrays.stream( shortOut ).allMatch( (aValue) -> aValue == 0 ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 扁平化区间树的查询结果必须与区间树完全一致,由 surefire 在 test 阶段运行
+ */
+public class FlatIntervalTreeTest {
+    @Test
+    public void matchesIntervalTree() {
+        Random random = new Random( 20150206 );
+        for (int count : new int [] {
+            1, 2, 100, 100000
+        }) {
+            Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, count );
+            IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals );
+            FlatIntervalTree<String> flatTree = IntervalTreeMaker.makeFlatIntervalTree( intervals );
+            for (int i = 0; i < 1000000; ++i) {
+                int point = i < count ? ( int )intervals[ i ].mEnd + (i & 1) : random.nextInt();
+                assertSame( "0x" + Integer.toHexString( point ), tree.getInterval( point ), flatTree.getInterval( point ) );
+            }
+        }
+    }
+}
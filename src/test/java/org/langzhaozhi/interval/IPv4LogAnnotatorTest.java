@@ -0,0 +1,74 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * 并行日志标注与按区间统计的结果必须与逐行查询一致,由 surefire 在 test 阶段运行
+ */
+public class IPv4LogAnnotatorTest {
+    @Test
+    public void annotatesAndAggregates() throws IOException {
+        Random random = new Random( 20150221 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 20000 );
+        for (int i = 0; i < intervals.length; ++i) {
+            intervals[ i ] = new Interval<String>( "归属地" + (i % 300), ( int )intervals[ i ].mStart, ( int )intervals[ i ].mEnd );
+        }
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        //第二个字段是地址,混有CRLF行、空行、格式不对的行、只有一个数字的行,最后一行没有换行
+        StringBuilder log = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        long [] expectedCounts = new long [ tree.getIntervalIndexLimit() + 1 ];
+        int lineCount = 200000;
+        for (int i = 0; i < lineCount; ++i) {
+            int point = (i & 3) == 0 ? random.nextInt() : ( int )intervals[ random.nextInt( intervals.length ) ].mStart + random.nextInt( 3 );
+            //单独的十进制数不是点分十进制地址,即使其值落在某个区间内也不标注
+            String address = i % 997 == 0 ? "999.1.2.3" : i % 1009 == 0 ? "" : i % 991 == 0 ? Integer.toUnsignedString( point ) : DemoOwnershipOfLandForIPv4.ipInt2String( point );
+            String line = i % 1013 == 0 ? "" : "2015-02-21T10:00:00," + address + ",GET /index.html?id=" + i;
+            String lineBreak = i == lineCount - 1 ? "" : i % 5 == 0 ? "\r\n" : "\n";
+            Interval<String> interval = address.equals( DemoOwnershipOfLandForIPv4.ipInt2String( point ) ) && !line.isEmpty() ? tree.getInterval( point ) : null;
+            log.append( line ).append( lineBreak );
+            expected.append( line ).append( ',' ).append( interval != null ? interval.mAttachment : "-" ).append( lineBreak );
+            ++expectedCounts[ interval != null ? tree.getIntervalIndex( point ) : expectedCounts.length - 1 ];
+        }
+        File input = File.createTempFile( "access", ".log" );
+        File output = File.createTempFile( "access", ".annotated" );
+        input.deleteOnExit();
+        output.deleteOnExit();
+        Files.write( input.toPath(), log.toString().getBytes( StandardCharsets.UTF_8 ) );
+        ForkJoinPool pool = new ForkJoinPool( 4 );
+        try {
+            for (int chunkSize : new int [] {
+                1, 4096, 1 << 20
+            }) {
+                IPv4LogAnnotator<String> annotator = new IPv4LogAnnotator<String>( tree, 1, ',', chunkSize, pool );
+                long count = annotator.annotate( input.toPath(), output.toPath(), IntervalTreeSnapshot.STRING_ENCODER, "-".getBytes( StandardCharsets.UTF_8 ) );
+                assertEquals( lineCount, count );
+                assertEquals( "chunkSize=" + chunkSize, expected.toString(), new String( Files.readAllBytes( output.toPath() ), StandardCharsets.UTF_8 ) );
+                assertArrayEquals( "chunkSize=" + chunkSize, expectedCounts, annotator.aggregate( input.toPath() ) );
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        //同一份日志重复8遍,用默认的块大小和公共线程池
+        File bigInput = File.createTempFile( "access", ".big.log" );
+        bigInput.deleteOnExit();
+        byte [] logBytes = (log.toString() + "\n").getBytes( StandardCharsets.UTF_8 );
+        for (int i = 0; i < 8; ++i) {
+            Files.write( bigInput.toPath(), logBytes, StandardOpenOption.APPEND );
+        }
+        IPv4LogAnnotator<String> annotator = new IPv4LogAnnotator<String>( tree, 1, ',', IPv4LogAnnotator.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool() );
+        assertEquals( 8L * lineCount, annotator.annotate( bigInput.toPath(), output.toPath(), IntervalTreeSnapshot.STRING_ENCODER, "-".getBytes( StandardCharsets.UTF_8 ) ) );
+    }
+}
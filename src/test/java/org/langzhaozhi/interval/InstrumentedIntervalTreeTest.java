@@ -0,0 +1,67 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * 查询采样统计、结构统计与JMX注册,由 surefire 在 test 阶段运行
+ */
+public class InstrumentedIntervalTreeTest {
+    @Test
+    public void samplesStructureAndJmx() throws JMException {
+        Random random = new Random( 20150220 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 200000 );
+        for (IntervalStride stride : new IntervalStride [] {
+            IntervalStride.STRIDE_8_8_8_8, IntervalStride.STRIDE_16_8_8
+        }) {
+            IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), stride );
+            InstrumentedIntervalTree<String> instrumented = new InstrumentedIntervalTree<String>( tree, 1 );
+            int [] points = new int [ 100000 ];
+            long hitCount = 0;
+            for (int i = 0; i < points.length; ++i) {
+                points[ i ] = (i & 1) == 0 ? random.nextInt() : ( int )intervals[ random.nextInt( intervals.length ) ].mEnd;
+                assertSame( "0x" + Integer.toHexString( points[ i ] ), tree.getInterval( points[ i ] ), instrumented.getInterval( points[ i ] ) );
+                hitCount += tree.getInterval( points[ i ] ) != null ? 1 : 0;
+            }
+            InstrumentedIntervalTree.Snapshot snapshot = instrumented.snapshot();
+            long pathCount = snapshot.getLeafPathCount() + snapshot.getGapDescentCount() + snapshot.getMinDescentCount() + snapshot.getBacktrackCount();
+            assertEquals( points.length, snapshot.getSampledLookupCount() );
+            assertEquals( hitCount, snapshot.getHitCount() );
+            assertEquals( points.length, pathCount );
+            assertEquals( points.length, Arrays.stream( snapshot.getExitLevelCounts() ).sum() );
+            assertEquals( intervals.length, instrumented.getIntervalCount() );
+            assertEquals( tree.estimateMemorySize(), instrumented.getEstimatedMemorySize() );
+            assertEquals( tree.estimateMemorySize(), Arrays.stream( instrumented.getLevelMemorySizes() ).sum() + 16 );
+            assertEquals( 1, instrumented.getLevelNodeCounts()[ 0 ] );
+            assertEquals( intervals.length, instrumented.getLevelChildCounts()[ stride.getLevelCount() - 1 ] );
+            //采样时统计的是采样到的那部分,批量查询的结果仍然完整
+            InstrumentedIntervalTree<String> sampled = new InstrumentedIntervalTree<String>( tree, 64 );
+            int [] indexes = new int [ points.length ];
+            sampled.getIntervalIndexes( points, 0, points.length, indexes );
+            for (int i = 0; i < points.length; ++i) {
+                assertEquals( "0x" + Integer.toHexString( points[ i ] ), tree.getIntervalIndex( points[ i ] ), indexes[ i ] );
+            }
+            assertTrue( sampled.getSampledLookupCount() == points.length / 64 || sampled.getSampledLookupCount() == points.length / 64 + 1 );
+            String name = "org.langzhaozhi.interval:type=IntervalTree,name=" + stride;
+            sampled.register( name );
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals( Long.valueOf( sampled.getSampledLookupCount() ), server.getAttribute( new ObjectName( name ), "SampledLookupCount" ) );
+            server.invoke( new ObjectName( name ), "reset", null, null );
+            assertEquals( 0, sampled.getSampledLookupCount() );
+            sampled.unregister();
+            assertFalse( server.isRegistered( new ObjectName( name ) ) );
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * 128位区间树按IPv6前缀查询,边界区分不开的前缀块各自加深,由 surefire 在 test 阶段运行
+ */
+public class Int128IntervalTreeTest {
+    @Test
+    public void ipv6Prefixes() {
+        //IPv6: 2001:db8::/32 和 2001:db9::/48 以及 2400::/12, 都按/64对齐因此只需8层
+        @SuppressWarnings("unchecked")
+        Int128Interval<String> [] intervals = new Int128Interval [] {
+            new Int128Interval<String>( "2001:db8::/32", 0x2001_0db8_0000_0000L, 0L, 0x2001_0db8_FFFF_FFFFL, -1L ), new Int128Interval<String>( "2001:db9::/48", 0x2001_0db9_0000_0000L, 0L, 0x2001_0db9_0000_FFFFL, -1L ), new Int128Interval<String>( "2400::/12", 0x2400_0000_0000_0000L, 0L, 0x240F_FFFF_FFFF_FFFFL, -1L )
+        };
+        for (int depth : new int [] {
+            8, 16
+        }) {
+            Int128IntervalTree<String> tree = Int128IntervalTreeMaker.makeInt128IntervalTree( intervals.clone(), depth );
+            assertNull( tree.getInterval( 0x2001_0db7_FFFF_FFFFL, -1L ) );
+            assertSame( intervals[ 0 ], tree.getInterval( 0x2001_0db8_0000_0000L, 0L ) );
+            assertSame( intervals[ 0 ], tree.getInterval( 0x2001_0db8_1234_5678L, 0x1234_5678_9abc_def0L ) );
+            assertSame( intervals[ 1 ], tree.getInterval( 0x2001_0db9_0000_FFFFL, -1L ) );
+            assertNull( tree.getInterval( 0x2001_0db9_0001_0000L, 0L ) );
+            assertSame( intervals[ 2 ], tree.getInterval( 0x2408_0000_0000_0000L, 1L ) );
+            assertNull( tree.getInterval( 0x2410_0000_0000_0000L, 0L ) );
+            assertNull( tree.getInterval( -1L, -1L ) );
+        }
+    }
+
+    @Test
+    public void deepensOnlyAmbiguousBlocks() {
+        Int128Interval<String> prefix = new Int128Interval<String>( "2001:db8::/32", 0x2001_0db8_0000_0000L, 0L, 0x2001_0db8_FFFF_FFFFL, -1L );
+        //同一个/64块中的两个区间用8层区分不开,只在这一块下面加深到16层
+        @SuppressWarnings("unchecked")
+        Int128Interval<String> [] unaligned = new Int128Interval [] {
+            new Int128Interval<String>( "a", 0L, 0L, 0L, 5L ), new Int128Interval<String>( "b", 0L, 6L, 0L, 9L ), prefix
+        };
+        Int128IntervalTree<String> unalignedTree = Int128IntervalTreeMaker.makeInt128IntervalTree( unaligned.clone(), 8 );
+        assertEquals( 8, unalignedTree.getDepth() );
+        assertEquals( 16, unalignedTree.getMaxDepth() );
+        assertSame( unaligned[ 0 ], unalignedTree.getInterval( 0L, 5L ) );
+        assertSame( unaligned[ 1 ], unalignedTree.getInterval( 0L, 6L ) );
+        assertNull( unalignedTree.getInterval( 0L, 10L ) );
+        assertNull( unalignedTree.getInterval( 1L, 0L ) );
+        assertSame( prefix, unalignedTree.getInterval( 0x2001_0db8_1234_5678L, 0L ) );
+    }
+}
@@ -0,0 +1,46 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * int绑定值区间树的查询结果必须与对象区间树的区间序号一致,由 surefire 在 test 阶段运行
+ */
+public class IntIntervalTreeTest {
+    @Test
+    public void matchesIntervalIndexes() {
+        Random random = new Random( 20150214 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 100000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        //倒序传入,由构造过程排序
+        int [] starts = new int [ intervals.length ];
+        int [] ends = new int [ intervals.length ];
+        int [] values = new int [ intervals.length ];
+        for (int i = 0; i < intervals.length; ++i) {
+            int j = intervals.length - 1 - i;
+            starts[ i ] = ( int )intervals[ j ].mStart;
+            ends[ i ] = ( int )intervals[ j ].mEnd;
+            values[ i ] = j * 3;
+        }
+        IntIntervalTree intTree = IntervalTreeMaker.makeIntIntervalTree( starts, ends, values, Integer.MIN_VALUE );
+        assertEquals( intervals.length, intTree.getIntervalCount() );
+        assertEquals( ( int )intervals[ 0 ].mStart, intTree.getStart( 0 ) );
+        int [] points = new int [ 1000000 ];
+        int [] out = new int [ points.length ];
+        for (int i = 0; i < points.length; ++i) {
+            points[ i ] = random.nextInt();
+        }
+        intTree.getValues( points, 0, points.length, out );
+        int [] indexes = new int [ points.length ];
+        tree.getIntervalIndexes( points, 0, points.length, indexes );
+        for (int i = 0; i < points.length; ++i) {
+            int index = indexes[ i ];
+            int expected = index < 0 ? Integer.MIN_VALUE : index * 3;
+            assertEquals( "0x" + Integer.toHexString( points[ i ] ), expected, intTree.getValue( points[ i ] ) );
+            assertEquals( "0x" + Integer.toHexString( points[ i ] ), expected, out[ i ] );
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 按区间计数与多线程合并的结果必须与逐个查询区间序号一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalCounterTest {
+    @Test
+    public void countsMergeAcrossThreads() throws InterruptedException {
+        Random random = new Random( 20150222 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 50000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        int [] points = new int [ 1 << 20 ];
+        for (int i = 0; i < points.length; ++i) {
+            points[ i ] = (i & 1) == 0 ? random.nextInt() : ( int )intervals[ random.nextInt( intervals.length ) ].mEnd - random.nextInt( 4 );
+        }
+        long [] expected = new long [ tree.getIntervalIndexLimit() ];
+        long expectedMiss = 0;
+        for (int point : points) {
+            int index = tree.getIntervalIndex( point );
+            if (index >= 0) {
+                ++expected[ index ];
+            }
+            else {
+                ++expectedMiss;
+            }
+        }
+        long [] counts = new long [ tree.getIntervalIndexLimit() ];
+        assertEquals( expectedMiss, tree.countInto( points, counts ) );
+        assertArrayEquals( expected, counts );
+        //4个线程各自成批或逐个计数,合并后应当是4倍
+        IntervalCounter<String> counter = new IntervalCounter<String>( tree );
+        Thread [] threads = new Thread [ 4 ];
+        for (int t = 0; t < threads.length; ++t) {
+            boolean single = (t & 1) == 0;
+            threads[ t ] = new Thread( () -> {
+                if (single) {
+                    for (int point : points) {
+                        counter.add( point );
+                    }
+                }
+                else {
+                    for (int from = 0; from < points.length; from += 4096) {
+                        counter.add( points, from, Math.min( points.length, from + 4096 ) );
+                    }
+                }
+            } );
+            threads[ t ].start();
+        }
+        //计数时不取锁,并发读取到的只是稍早一点的计数,但不会变少
+        boolean monotonic = true;
+        long lastMissCount = 0;
+        while (threads[ 0 ].isAlive() || threads[ 1 ].isAlive()) {
+            long missCount = counter.getMissCount();
+            monotonic &= missCount >= lastMissCount && missCount <= 4 * expectedMiss;
+            lastMissCount = missCount;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue( monotonic );
+        long [] merged = counter.getCounts();
+        for (int i = 0; i < merged.length; ++i) {
+            assertEquals( 4 * expected[ i ], merged[ i ] );
+        }
+        assertEquals( 4 * expectedMiss, counter.getMissCount() );
+        long [] total = new long [ 1 ];
+        counter.forEach( (aInterval, aCount) -> total[ 0 ] += aCount );
+        assertEquals( 4L * points.length, total[ 0 ] + counter.getMissCount() );
+        //清零之后本线程再计数一遍,读取时只减去各分段清零时的计数;第二轮本线程的分段也已经清零过
+        for (int round = 0; round < 2; ++round) {
+            counter.reset();
+            assertEquals( 0, counter.getMissCount() );
+            assertEquals( 0, Arrays.stream( counter.getCounts() ).sum() );
+            counter.add( points, 0, points.length / 2 );
+            for (int i = points.length / 2; i < points.length; ++i) {
+                counter.add( points[ i ] );
+            }
+            assertArrayEquals( expected, counter.getCounts() );
+            assertEquals( expectedMiss, counter.getMissCount() );
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 三种格式流式加载的区间树必须与直接构造的完全一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalFileLoaderTest {
+    @Test
+    public void bracketAndCsvMatchMadeTree() throws IOException {
+        Random random = new Random( 20150213 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 20000 );
+        StringBuilder bracket = new StringBuilder( "## 注释行\n\n" );
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < intervals.length; ++i) {
+            Interval<String> interval = intervals[ i ];
+            String label = "归属地" + (i % 50);
+            bracket.append( '[' ).append( DemoOwnershipOfLandForIPv4.ipInt2String( ( int )interval.mStart ) ).append( ',' ).append( DemoOwnershipOfLandForIPv4.ipInt2String( ( int )interval.mEnd ) ).append( "]:" ).append( label ).append( i % 7 == 0 ? "\r\n" : "\n" );
+            //CSV 倒序写入,起点用十进制整数,标签带引号
+            csv.insert( 0, interval.mStart + ", " + DemoOwnershipOfLandForIPv4.ipInt2String( ( int )interval.mEnd ) + ",\"" + label + "\"\n" );
+            intervals[ i ] = new Interval<String>( label, ( int )interval.mStart, ( int )interval.mEnd );
+        }
+        File file = File.createTempFile( "interval", ".txt" );
+        file.deleteOnExit();
+        Files.write( file.toPath(), bracket.toString().getBytes( StandardCharsets.UTF_8 ) );
+        IntervalFileLoader bracketLoader = new IntervalFileLoader( IntervalFileLoader.Format.BRACKET ).load( file.toPath() );
+        IntervalFileLoader csvLoader = new IntervalFileLoader( IntervalFileLoader.Format.CSV ).load( ByteBuffer.wrap( csv.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+        IntervalTree<String> bracketTree = bracketLoader.build();
+        IntervalTree<String> csvTree = csvLoader.build();
+        IntervalTree<String> expectedTree = IntervalTreeMaker.makeIntervalTree( intervals );
+        assertEquals( 50, bracketLoader.getLabelCount() );
+        assertEquals( 50, csvLoader.getLabelCount() );
+        assertEquals( intervals.length, bracketLoader.size() );
+        for (int i = 0; i < 1000000; ++i) {
+            int point = random.nextInt();
+            Interval<String> expected = expectedTree.getInterval( point );
+            for (IntervalTree<String> tree : Arrays.asList( bracketTree, csvTree )) {
+                Interval<String> interval = tree.getInterval( point );
+                assertTrue( "0x" + Integer.toHexString( point ), expected == null ? interval == null : interval != null && interval.mStart == expected.mStart && interval.mEnd == expected.mEnd && interval.mAttachment.equals( expected.mAttachment ) );
+            }
+        }
+        //同一个加载器中相同的标签是同一个对象
+        assertSame( bracketTree.getInterval( ( int )intervals[ 0 ].mStart ).mAttachment, bracketTree.getInterval( ( int )intervals[ 50 ].mStart ).mAttachment );
+    }
+
+    @Test
+    public void cidrLines() {
+        IntervalTree<String> cidrTree = new IntervalFileLoader( IntervalFileLoader.Format.CIDR ).load( ByteBuffer.wrap( "10.0.0.0/8,内网\n10.1.0.0/16 , 分部\n".getBytes( StandardCharsets.UTF_8 ) ) ).build();
+        assertEquals( "内网", cidrTree.getInterval( 0x0A02_0000 ).mAttachment );
+        assertEquals( "分部", cidrTree.getInterval( 0x0A01_FFFF ).mAttachment );
+        assertNull( cidrTree.getInterval( 0x0B00_0000 ) );
+    }
+
+    @Test
+    public void badLineReportsLineNumber() {
+        try {
+            new IntervalFileLoader( IntervalFileLoader.Format.BRACKET ).load( ByteBuffer.wrap( "[1.2.3.4,1.2.3]:坏行\n".getBytes( StandardCharsets.UTF_8 ) ) );
+            fail( "坏行必须拒绝" );
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "line 1:" ) );
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * 各种步长构造的区间树的查询、批量查询、并行构造与写时复制结果必须一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalStrideTest {
+    @Test
+    public void everyStrideMatches() {
+        Random random = new Random( 20150217 );
+        for (int count : new int [] {
+            1, 5000, 200000
+        }) {
+            //大的一组集中在 10.0.0.0/8 里,16-16 步长的第二层节点才不至于太稀疏;小的两组散布在整个32位空间
+            boolean clustered = count == 200000;
+            Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, count );
+            for (int i = 0; clustered && i < count; ++i) {
+                intervals[ i ] = new Interval<String>( intervals[ i ].mAttachment, 0x0A00_0000 | ( int )(intervals[ i ].mStart >>> 8), 0x0A00_0000 | ( int )(intervals[ i ].mEnd >>> 8) );
+            }
+            IntervalTree<String> expectedTree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+            int [] points = new int [ 200000 ];
+            for (int i = 0; i < points.length; ++i) {
+                //一半是随机点,一半是有序的连续点
+                points[ i ] = i % 2 == 0 ? random.nextInt() : ( int )intervals[ (i / 1000) % count ].mStart + (i % 1000) - 500;
+            }
+            for (IntervalStride stride : IntervalStride.values()) {
+                if (stride == IntervalStride.STRIDE_16_16 && !clustered) {
+                    //散布在整个32位空间的少量区间用 16-16 时每个第二层节点几乎都要65536项,不适用
+                    continue;
+                }
+                IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), stride );
+                IntervalTree<String> parallelTree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), stride, ForkJoinPool.commonPool() );
+                assertNotEquals( IntervalStride.AUTO, tree.getStride() );
+                assertEquals( tree.getStride(), parallelTree.getStride() );
+                assertEquals( tree.estimateMemorySize(), parallelTree.estimateMemorySize() );
+                if (stride != IntervalStride.AUTO) {
+                    assertEquals( stride, tree.getStride() );
+                }
+                for (int point : points) {
+                    String message = stride + " 0x" + Integer.toHexString( point );
+                    Interval<String> expected = expectedTree.getInterval( point );
+                    assertSame( message, expected, tree.getInterval( point ) );
+                    assertSame( message, expected, parallelTree.getInterval( point ) );
+                    assertSame( message, expected, tree.getIntervalRecursive( point ) );
+                }
+                assertTrue( stride.toString(), TestIntervalTree.checkBatch( tree, intervals, points ) );
+                //写时复制也按同样的步长
+                IntervalTree<String> cowTree = tree;
+                for (int i = 0; i < count; i += 3) {
+                    cowTree = cowTree.without( intervals[ i ] );
+                }
+                for (int i = 0; i < count; i += 3) {
+                    cowTree = cowTree.with( intervals[ i ] );
+                }
+                assertArrayEquals( intervals, cowTree.toIntervalArray() );
+                assertEquals( tree.getStride(), cowTree.getStride() );
+                for (int i = 0; i < 20000; ++i) {
+                    assertSame( stride + " 0x" + Integer.toHexString( points[ i ] ), expectedTree.getInterval( points[ i ] ), cowTree.getInterval( points[ i ] ) );
+                }
+            }
+        }
+    }
+}
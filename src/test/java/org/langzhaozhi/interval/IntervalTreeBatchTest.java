@@ -0,0 +1,32 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 批量查询与逐个 getInterval 查询的结果必须一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeBatchTest {
+    @Test
+    public void batchMatchesSingleLookup() {
+        Random random = new Random( 20150202 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 10000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals );
+        int [] points = new int [ 100000 ];
+        for (int i = 0; i < points.length; ++i) {
+            points[ i ] = random.nextInt();
+        }
+        assertTrue( TestIntervalTree.checkBatch( tree, intervals, points ) );
+        //排好序的点走复用上一个叶子和公共前缀路径的快速通道
+        Arrays.sort( points );
+        assertTrue( TestIntervalTree.checkBatch( tree, intervals, points ) );
+        for (int i = 0; i < points.length; ++i) {
+            points[ i ] = 0xFF00_0000 + i;
+        }
+        assertTrue( TestIntervalTree.checkBatch( tree, intervals, points ) );
+    }
+}
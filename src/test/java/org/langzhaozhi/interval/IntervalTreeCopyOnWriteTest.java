@@ -0,0 +1,237 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 写时复制增量更新(with/without/applyBatch)的结果必须与按起点记录的模型一致,旧树不受影响,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeCopyOnWriteTest {
+    @Test
+    public void randomUpdatesMatchModel() {
+        Random random = new Random( 20150211 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 2000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        IntervalTree<String> originalTree = tree;
+        //用TreeMap按起点记录当前应有的区间
+        TreeMap<Long, Interval<String>> model = IntervalTreeCopyOnWriteTest.model( intervals );
+        int maxSize = model.size();
+        for (int round = 0; round < 3000; ++round) {
+            maxSize = Math.max( maxSize, model.size() );
+            if (random.nextInt( 3 ) == 0 || model.isEmpty()) {
+                int start = random.nextInt();
+                Interval<String> interval = new Interval<String>( "新区间" + round, start, ( int )Math.min( (start & 0xFFFF_FFFFL) + random.nextInt( 1 << 16 ), 0xFFFF_FFFFL ) );
+                Map.Entry<Long, Interval<String>> floor = model.floorEntry( interval.mEnd );
+                boolean overlap = floor != null && floor.getValue().mEnd >= interval.mStart;
+                try {
+                    tree = tree.with( interval );
+                    assertFalse( interval.toString(), overlap );
+                    model.put( interval.mStart, interval );
+                }
+                catch (IllegalArgumentException e) {
+                    assertTrue( interval.toString(), overlap );
+                }
+            }
+            else {
+                Interval<String> interval = round % 2 == 0 ? model.firstEntry().getValue() : IntervalTreeCopyOnWriteTest.randomModelInterval( random, model );
+                @SuppressWarnings("unchecked")
+                Interval<String> [] removes = new Interval [] {
+                    interval
+                };
+                tree = tree.applyBatch( removes, null );
+                model.remove( interval.mStart );
+            }
+            if (round % 100 == 0 || model.size() < 3) {
+                for (int i = 0; i < 2000; ++i) {
+                    int point = i < 1000 || model.isEmpty() ? random.nextInt() : ( int )IntervalTreeCopyOnWriteTest.randomModelInterval( random, model ).mEnd + (i & 1);
+                    assertSame( "0x" + Integer.toHexString( point ), IntervalTreeCopyOnWriteTest.expected( model, point ), tree.getInterval( point ) );
+                }
+                IntervalTreeCopyOnWriteTest.assertIntervalIndexes( tree );
+            }
+        }
+        //去掉的区间序号被之后加入的区间重用,上限不超过曾经同时存在的区间个数
+        maxSize = Math.max( maxSize, model.size() );
+        assertTrue( "区间序号上限 " + tree.getIntervalIndexLimit() + " 超过了最多时的区间个数 " + maxSize, tree.getIntervalIndexLimit() <= maxSize );
+        //删光以后是空树
+        while (!model.isEmpty()) {
+            tree = tree.without( model.pollFirstEntry().getValue() );
+        }
+        assertNull( tree.getInterval( 0 ) );
+        assertNull( tree.getInterval( -1 ) );
+        assertEquals( 0, tree.getIntervalIndexLimit() );
+        tree = tree.with( intervals[ 0 ] );
+        assertSame( intervals[ 0 ], tree.getInterval( ( int )intervals[ 0 ].mStart ) );
+        assertEquals( 0, tree.getIntervalIndex( ( int )intervals[ 0 ].mStart ) );
+        //旧树一直不受影响
+        for (Interval<String> interval : intervals) {
+            assertSame( interval, originalTree.getInterval( ( int )interval.mStart ) );
+            assertSame( interval, originalTree.getInterval( ( int )interval.mEnd ) );
+        }
+    }
+
+    /**
+     * 一批随机的增删(其中一部分是原地替换)一次完成:结果与逐个 without/with 相同,而且每个被改动的节点(包括根)只重建一次
+     */
+    @Test
+    public void applyBatchRebuildsEachNodeOnce() {
+        Random random = new Random( 20150211 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 2000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        TreeMap<Long, Interval<String>> model = IntervalTreeCopyOnWriteTest.model( intervals );
+        @SuppressWarnings("unchecked")
+        Interval<String> [] removes = new Interval [ 300 ];
+        for (int i = 0; i < removes.length; ++i) {
+            //可能重复,重复的只去掉一次
+            removes[ i ] = intervals[ random.nextInt( intervals.length ) ];
+            model.remove( removes[ i ].mStart );
+        }
+        ArrayList<Interval<String>> addList = new ArrayList<Interval<String>>();
+        for (int i = 0; i < 100; ++i) {
+            //原地替换:同样的起点终点,新的绑定对象
+            Interval<String> removed = removes[ i ];
+            if (!model.containsKey( removed.mStart ) && addList.stream().noneMatch( (aAdd) -> aAdd.mStart == removed.mStart )) {
+                addList.add( new Interval<String>( "替换" + i, ( int )removed.mStart, ( int )removed.mEnd ) );
+            }
+        }
+        while (addList.size() < 300) {
+            int start = random.nextInt();
+            Interval<String> interval = new Interval<String>( "批量" + addList.size(), start, ( int )Math.min( (start & 0xFFFF_FFFFL) + random.nextInt( 256 ), 0xFFFF_FFFFL ) );
+            Map.Entry<Long, Interval<String>> floor = model.floorEntry( interval.mEnd );
+            boolean overlap = floor != null && floor.getValue().mEnd >= interval.mStart;
+            for (int i = 0; !overlap && i < addList.size(); ++i) {
+                overlap = addList.get( i ).mStart <= interval.mEnd && interval.mStart <= addList.get( i ).mEnd;
+            }
+            if (!overlap) {
+                addList.add( interval );
+            }
+        }
+        for (Interval<String> add : addList) {
+            model.put( add.mStart, add );
+        }
+        @SuppressWarnings("unchecked")
+        Interval<String> [] adds = addList.toArray( new Interval [ addList.size() ] );
+        IntervalTree.Batch<String> batch = new IntervalTree.Batch<String>( tree, removes, adds );
+        IntervalTree<String> batchTree = batch.apply();
+        IntervalTree<String> sequentialTree = tree;
+        for (Interval<String> remove : removes) {
+            sequentialTree = sequentialTree.without( remove );
+        }
+        for (Interval<String> add : adds) {
+            sequentialTree = sequentialTree.with( add );
+        }
+        assertSame( tree, tree.applyBatch( null, null ) );
+        //8-8-8-8步长下被改动的节点就是各改动终点的不同的高8位、高16位、高24位前缀,再加上根
+        TreeMap<Long, Boolean> touched = new TreeMap<Long, Boolean>();
+        for (Interval<String> interval : removes) {
+            touched.put( interval.mEnd, Boolean.TRUE );
+        }
+        for (Interval<String> interval : adds) {
+            touched.put( interval.mEnd, Boolean.TRUE );
+        }
+        long [] prefixes = new long [] {
+            -1, -1, -1
+        };
+        int expectedRebuilt = 1;
+        for (long end : touched.keySet()) {
+            for (int depth = 0; depth < prefixes.length; ++depth) {
+                long prefix = end >>> (24 - (depth << 3));
+                if (prefix != prefixes[ depth ]) {
+                    prefixes[ depth ] = prefix;
+                    ++expectedRebuilt;
+                }
+            }
+        }
+        assertEquals( expectedRebuilt, batch.mRebuiltNodeCount );
+        //原地替换的重用被替换的区间的序号,其余的先用空出来的序号,区间序号上限只随净增的区间个数增长
+        for (Interval<String> add : adds) {
+            if (add.mAttachment.startsWith( "替换" )) {
+                assertEquals( add.toString(), tree.getIntervalIndex( ( int )add.mStart ), batchTree.getIntervalIndex( ( int )add.mStart ) );
+            }
+        }
+        assertEquals( Math.max( tree.getIntervalIndexLimit(), model.size() ), batchTree.getIntervalIndexLimit() );
+        IntervalTreeCopyOnWriteTest.assertIntervalIndexes( batchTree );
+        IntervalTreeCopyOnWriteTest.assertIntervalIndexes( sequentialTree );
+        for (int i = 0; i < 20000; ++i) {
+            int point = i % 2 == 0 ? random.nextInt() : ( int )IntervalTreeCopyOnWriteTest.randomModelInterval( random, model ).mEnd - (i & 3);
+            Interval<String> expected = IntervalTreeCopyOnWriteTest.expected( model, point );
+            assertSame( "0x" + Integer.toHexString( point ), expected, batchTree.getInterval( point ) );
+            assertSame( "0x" + Integer.toHexString( point ), expected, sequentialTree.getInterval( point ) );
+        }
+    }
+
+    /**
+     * 与剩下的区间或者同一批的区间相交时整批拒绝,相交的区间在同一批中先被去掉就可以
+     */
+    @Test
+    public void applyBatchRejectsOverlaps() {
+        Random random = new Random( 20150211 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 2000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        Interval<String> first = intervals[ 0 ];
+        @SuppressWarnings("unchecked")
+        Interval<String> [] firstRemoves = new Interval [] {
+            first
+        };
+        @SuppressWarnings("unchecked")
+        Interval<String> [] overlapAdds = new Interval [] {
+            new Interval<String>( "相交", ( int )first.mStart, ( int )first.mStart )
+        };
+        @SuppressWarnings("unchecked")
+        Interval<String> [] selfOverlapAdds = new Interval [] {
+            new Interval<String>( "甲", ( int )first.mStart, ( int )first.mEnd ), new Interval<String>( "乙", ( int )first.mEnd, ( int )first.mEnd )
+        };
+        for (Interval<String> [] rejectedAdds : Arrays.asList( overlapAdds, selfOverlapAdds )) {
+            try {
+                tree.applyBatch( rejectedAdds == overlapAdds ? null : firstRemoves, rejectedAdds );
+                fail( Arrays.toString( rejectedAdds ) );
+            }
+            catch (IllegalArgumentException e) {
+                //预期之中
+            }
+        }
+        assertSame( overlapAdds[ 0 ], tree.applyBatch( firstRemoves, overlapAdds ).getInterval( ( int )first.mStart ) );
+        assertSame( first, tree.getInterval( ( int )first.mStart ) );
+    }
+
+    private static TreeMap<Long, Interval<String>> model(Interval<String> [] aIntervals) {
+        TreeMap<Long, Interval<String>> model = new TreeMap<Long, Interval<String>>();
+        for (Interval<String> interval : aIntervals) {
+            model.put( interval.mStart, interval );
+        }
+        return model;
+    }
+
+    private static Interval<String> expected(TreeMap<Long, Interval<String>> aModel, int aPoint) {
+        Map.Entry<Long, Interval<String>> floor = aModel.floorEntry( aPoint & 0xFFFF_FFFFL );
+        return floor != null && floor.getValue().contains( aPoint ) ? floor.getValue() : null;
+    }
+
+    /**
+     * 各区间的区间序号互不相同,并且都小于区间序号上限
+     */
+    private static void assertIntervalIndexes(IntervalTree<String> aTree) {
+        boolean [] used = new boolean [ aTree.getIntervalIndexLimit() ];
+        aTree.stream().forEach( (aInterval) -> {
+            int index = aTree.getIntervalIndex( ( int )aInterval.mStart );
+            assertTrue( "区间 " + aInterval + " 的序号 " + index, index >= 0 && index < used.length && !used[ index ] );
+            used[ index ] = true;
+        } );
+    }
+
+    private static Interval<String> randomModelInterval(Random aRandom, TreeMap<Long, Interval<String>> aModel) {
+        Map.Entry<Long, Interval<String>> entry = aModel.ceilingEntry( aRandom.nextLong() & 0xFFFF_FFFFL );
+        return entry != null ? entry.getValue() : aModel.lastEntry().getValue();
+    }
+}
@@ -0,0 +1,82 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 前后区间与空隙查询的结果必须与 TreeMap 完全一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeGapTest {
+    @Test
+    public void floorCeilingGapMatchTreeMap() {
+        Random random = new Random( 20150219 );
+        for (int count : new int [] {
+            1, 50, 300000
+        }) {
+            Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, count );
+            TreeMap<Long, Interval<String>> model = new TreeMap<Long, Interval<String>>();
+            for (Interval<String> interval : intervals) {
+                model.put( interval.mStart, interval );
+            }
+            for (IntervalStride stride : new IntervalStride [] {
+                IntervalStride.STRIDE_8_8_8_8, IntervalStride.STRIDE_16_8_8
+            }) {
+                IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), stride );
+                for (int i = 0; i < 1000000; ++i) {
+                    Interval<String> near = intervals[ random.nextInt( count ) ];
+                    int point;
+                    switch (i & 7) {
+                        case 0 :
+                            point = ( int )near.mStart - 1;
+                            break;
+                        case 1 :
+                            point = ( int )near.mStart;
+                            break;
+                        case 2 :
+                            point = ( int )near.mEnd;
+                            break;
+                        case 3 :
+                            point = ( int )near.mEnd + 1;
+                            break;
+                        case 4 :
+                            point = i < 64 ? (i & 8) == 0 ? 0 : -1 : random.nextInt();
+                            break;
+                        default :
+                            point = random.nextInt();
+                    }
+                    String message = stride + " 0x" + Integer.toHexString( point );
+                    long key = point & 0xFFFF_FFFFL;
+                    Map.Entry<Long, Interval<String>> floorEntry = model.floorEntry( key );
+                    Map.Entry<Long, Interval<String>> higherEntry = model.higherEntry( key );
+                    Interval<String> floor = floorEntry != null ? floorEntry.getValue() : null;
+                    Interval<String> ceiling = floor != null && floor.contains( point ) ? floor : higherEntry != null ? higherEntry.getValue() : null;
+                    long gap = floor != null && floor.contains( point ) ? IntervalTree.NO_GAP : ((floor != null ? floor.mEnd + 1 : 0) << 32) | (higherEntry != null ? higherEntry.getValue().mStart - 1 : 0xFFFF_FFFFL);
+                    assertSame( message, floor, tree.floorInterval( point ) );
+                    assertSame( message, ceiling, tree.ceilingInterval( point ) );
+                    assertEquals( message, gap, tree.gapAround( point ) );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void emptyTreeIsOneGap() {
+        @SuppressWarnings("unchecked")
+        Interval<String> [] singleInterval = new Interval [] {
+            new Interval<String>( "x", 5, 9 )
+        };
+        IntervalTree<String> emptyTree = IntervalTreeMaker.makeIntervalTree( singleInterval ).without( new Interval<String>( "x", 5, 9 ) );
+        long gap = emptyTree.gapAround( 7 );
+        assertNull( emptyTree.floorInterval( 7 ) );
+        assertNull( emptyTree.ceilingInterval( 7 ) );
+        assertEquals( 0, IntervalTree.gapStart( gap ) );
+        assertEquals( -1, IntervalTree.gapEnd( gap ) );
+    }
+}
@@ -0,0 +1,29 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * 并行构造的区间树必须与单线程构造的完全相同,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeMakerParallelTest {
+    @Test
+    public void matchesSequentialMake() {
+        Random random = new Random( 20150212 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 1000000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+        IntervalTree<String> parallelTree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), ForkJoinPool.commonPool() );
+        assertEquals( tree.estimateMemorySize(), parallelTree.estimateMemorySize() );
+        assertArrayEquals( tree.toIntervalArray(), parallelTree.toIntervalArray() );
+        for (int i = 0; i < 1000000; ++i) {
+            int point = random.nextInt();
+            assertSame( "0x" + Integer.toHexString( point ), tree.getInterval( point ), parallelTree.getInterval( point ) );
+        }
+    }
+}
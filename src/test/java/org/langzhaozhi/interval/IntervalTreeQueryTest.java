@@ -0,0 +1,66 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Spliterator;
+
+import org.junit.Test;
+
+/**
+ * 区间相交查询、顺序遍历与并行遍历的结果必须与排好序的区间数组一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeQueryTest {
+    @Test
+    public void queryAndStreamMatchSortedIntervals() {
+        Random random = new Random( 20150218 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 300000 );
+        for (IntervalStride stride : new IntervalStride [] {
+            IntervalStride.STRIDE_8_8_8_8, IntervalStride.STRIDE_16_8_8
+        }) {
+            IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), stride );
+            for (int i = 0; i < 2000; ++i) {
+                long from = random.nextLong() & 0xFFFF_FFFFL;
+                long to = Math.min( 0xFFFF_FFFFL, from + (i % 2 == 0 ? random.nextInt( 1 << 16 ) : random.nextInt( 1 << 24 )) );
+                ArrayList<Interval<String>> expected = new ArrayList<Interval<String>>();
+                for (Interval<String> interval : intervals) {
+                    if (interval.mEnd >= from && interval.mStart <= to) {
+                        expected.add( interval );
+                    }
+                }
+                ArrayList<Interval<String>> actual = new ArrayList<Interval<String>>();
+                tree.query( ( int )from, ( int )to, actual::add );
+                assertEquals( stride + " [0x" + Long.toHexString( from ) + ",0x" + Long.toHexString( to ) + "]", expected, actual );
+            }
+            //顺序遍历、并行流、逐个 tryAdvance 与反复切分之后拼接起来都要和排好序的数组一致
+            assertArrayEquals( intervals, tree.stream().toArray() );
+            assertEquals( Arrays.stream( intervals ).mapToLong( (aInterval) -> aInterval.mEnd - aInterval.mStart ).sum(), tree.parallelStream().mapToLong( (aInterval) -> aInterval.mEnd - aInterval.mStart ).sum() );
+            assertArrayEquals( intervals, tree.parallelStream().toArray() );
+            ArrayList<Interval<String>> collected = new ArrayList<Interval<String>>();
+            Spliterator<Interval<String>> spliterator = tree.spliterator();
+            for (int i = 0; i < 1000; ++i) {
+                spliterator.tryAdvance( collected::add );
+            }
+            IntervalTreeQueryTest.splitAndCollect( spliterator, 12, collected );
+            assertArrayEquals( intervals, collected.toArray() );
+        }
+        IntervalTree<String> emptyTree = IntervalTreeMaker.makeIntervalTree( intervals.clone() ).applyBatch( intervals, null );
+        assertEquals( 0, emptyTree.stream().count() );
+        assertNull( emptyTree.spliterator().trySplit() );
+    }
+
+    private static void splitAndCollect(Spliterator<Interval<String>> aSpliterator, int aDepth, ArrayList<Interval<String>> aOut) {
+        Spliterator<Interval<String>> prefix = aDepth > 0 ? aSpliterator.trySplit() : null;
+        if (prefix != null) {
+            IntervalTreeQueryTest.splitAndCollect( prefix, aDepth - 1, aOut );
+            IntervalTreeQueryTest.splitAndCollect( aSpliterator, aDepth - 1, aOut );
+        }
+        else {
+            aSpliterator.forEachRemaining( aOut::add );
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+/**
+ * 热加载注册表的加载、校验与原子发布,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeRegistryTest {
+    @Test
+    public void reloadsValidatesAndPublishes() throws Exception {
+        Path directory = Files.createTempDirectory( "interval-registry" );
+        Path source = directory.resolve( "table.txt" );
+        Files.write( source, "0,99,A\n100,199,B\n".getBytes( StandardCharsets.UTF_8 ) );
+        IntervalTreeRegistry.IntervalLoader<String> loader = (aSource) -> {
+            @SuppressWarnings("unchecked")
+            Interval<String> [] intervals = Files.readAllLines( aSource, StandardCharsets.UTF_8 ).stream().map( (aLine) -> aLine.split( "," ) ).map( (aParts) -> new Interval<String>( aParts[ 2 ], Integer.parseInt( aParts[ 0 ] ), Integer.parseInt( aParts[ 1 ] ) ) ).toArray( Interval []::new );
+            return intervals;
+        };
+        try {
+            //探测点150必须属于B
+            try (IntervalTreeRegistry<String> registry = new IntervalTreeRegistry<String>( source, loader, IntervalTreeRegistry.probeValidator( new int [] {
+                150
+            }, new String [] {
+                "B"
+            } ), null, 100 )) {
+                //还没有 start 时查询是状态错误,而不是空指针
+                try {
+                    registry.getTree();
+                    fail( "start 之前不能 getTree" );
+                }
+                catch (IllegalStateException e) {
+                    assertNull( registry.getGeneration() );
+                }
+                registry.start();
+                assertEquals( "A", registry.getInterval( 50 ).mAttachment );
+                assertEquals( 1L, registry.getGeneration().getNumber() );
+                IntervalTree<String> firstTree = registry.getTree();
+                //校验不通过的新表不会发布
+                Files.write( source, "0,99,A\n100,199,C\n".getBytes( StandardCharsets.UTF_8 ) );
+                try {
+                    registry.reload().get();
+                    fail( "校验不通过的新表不能发布" );
+                }
+                catch (ExecutionException e) {
+                    assertSame( firstTree, registry.getTree() );
+                }
+                //文件变化后由后台线程自动加载
+                Files.write( source, "0,49,A2\n100,199,B\n".getBytes( StandardCharsets.UTF_8 ) );
+                for (int i = 0; i < 100 && registry.getGeneration().getNumber() == 1; ++i) {
+                    Thread.sleep( 100 );
+                }
+                assertEquals( 2L, registry.getGeneration().getNumber() );
+                assertEquals( "A2", registry.getInterval( 10 ).mAttachment );
+                assertNull( registry.getInterval( 50 ) );
+                assertNotNull( firstTree.getInterval( 50 ) );
+                assertTrue( registry.getGeneration().getMemorySize() > 0 );
+            }
+        }
+        finally {
+            Files.delete( source );
+            Files.delete( directory );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 区间树的并交差在每个点上的结果必须与两棵树逐点查询的组合一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeSetOperationTest {
+    @Test
+    public void unionIntersectionDifference() {
+        Random random = new Random( 20150223 );
+        for (int round = 0; round < 4; ++round) {
+            Interval<String> [] lefts = TestIntervalTree.randomIntervals( random, 1000 << (round * 2) );
+            Interval<String> [] rights = TestIntervalTree.randomIntervals( random, 700 << (round * 2) );
+            IntervalTree<String> left = IntervalTreeMaker.makeIntervalTree( lefts.clone(), round == 3 ? IntervalStride.STRIDE_16_8_8 : IntervalStride.STRIDE_8_8_8_8 );
+            IntervalTree<String> right = IntervalTreeMaker.makeIntervalTree( rights.clone() );
+            IntervalTree<String> union = IntervalTreeMaker.makeUnionIntervalTree( left, right, (aOne, aTwo) -> aOne + "|" + aTwo );
+            IntervalTree<Integer> intersection = IntervalTreeMaker.makeIntersectionIntervalTree( left, right, (aOne, aTwo) -> aOne.length() + aTwo.length() );
+            IntervalTree<String> difference = IntervalTreeMaker.makeDifferenceIntervalTree( left, right );
+            assertArrayEquals( lefts, IntervalTreeMaker.makeUnionIntervalTree( left, IntervalTreeMaker.makeDifferenceIntervalTree( left, left ), null ).stream().toArray() );
+            for (int i = 0; i < 400000; ++i) {
+                Interval<String> [] near = (i & 1) == 0 ? lefts : rights;
+                Interval<String> interval = near[ random.nextInt( near.length ) ];
+                int point = (i & 6) == 0 ? random.nextInt() : ( int )((i & 2) == 0 ? interval.mStart : interval.mEnd) + ((i & 4) == 0 ? -1 : 1) * (i & 1);
+                String message = "round " + round + " 0x" + Integer.toHexString( point );
+                Interval<String> l = left.getInterval( point ), r = right.getInterval( point );
+                Interval<String> u = union.getInterval( point );
+                Interval<Integer> n = intersection.getInterval( point );
+                Interval<String> d = difference.getInterval( point );
+                if (l == null && r == null) {
+                    assertNull( message, u );
+                }
+                else {
+                    assertNotNull( message, u );
+                    assertEquals( message, l == null ? r.mAttachment : r == null ? l.mAttachment : l.mAttachment + "|" + r.mAttachment, u.mAttachment );
+                }
+                if (l != null && r != null) {
+                    assertNotNull( message, n );
+                    assertEquals( message, l.mAttachment.length() + r.mAttachment.length(), n.mAttachment.intValue() );
+                    //两边都覆盖的段不能超出两边区间的公共部分
+                    assertTrue( message, u.mStart >= Math.max( l.mStart, r.mStart ) && u.mEnd <= Math.min( l.mEnd, r.mEnd ) );
+                }
+                else {
+                    assertNull( message, n );
+                }
+                if (l != null && r == null) {
+                    assertNotNull( message, d );
+                    assertEquals( message, l.mAttachment, d.mAttachment );
+                }
+                else {
+                    assertNull( message, d );
+                }
+            }
+        }
+    }
+}
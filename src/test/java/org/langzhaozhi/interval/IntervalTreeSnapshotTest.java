@@ -0,0 +1,55 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 内存映射快照的查询结果必须与区间树完全一致,由 surefire 在 test 阶段运行
+ */
+public class IntervalTreeSnapshotTest {
+    @Test
+    public void mappedTreeMatchesIntervalTree() throws IOException {
+        Random random = new Random( 20150207 );
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 100000 );
+        IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals );
+        File file = File.createTempFile( "interval", ".snapshot" );
+        file.deleteOnExit();
+        IntervalTreeSnapshot.write( tree, IntervalTreeSnapshot.STRING_ENCODER, file.toPath() );
+        MappedIntervalTree<String> mappedTree = IntervalTreeSnapshot.map( file.toPath(), IntervalTreeSnapshot.STRING_DECODER );
+        for (int i = 0; i < 1000000; ++i) {
+            int point = random.nextInt();
+            IntervalTreeSnapshotTest.assertMapped( tree.getInterval( point ), mappedTree, point );
+        }
+        //旧文件还映射着时写入新快照:新快照改名替换上去,旧映射仍然完整可读
+        IntervalTree<String> newTree = IntervalTreeMaker.makeIntervalTree( TestIntervalTree.randomIntervals( random, 10 ) );
+        IntervalTreeSnapshot.write( newTree, IntervalTreeSnapshot.STRING_ENCODER, file.toPath() );
+        MappedIntervalTree<String> newMappedTree = IntervalTreeSnapshot.map( file.toPath(), IntervalTreeSnapshot.STRING_DECODER );
+        for (int i = 0; i < 100000; ++i) {
+            int point = random.nextInt();
+            IntervalTreeSnapshotTest.assertMapped( tree.getInterval( point ), mappedTree, point );
+            IntervalTreeSnapshotTest.assertMapped( newTree.getInterval( point ), newMappedTree, point );
+        }
+        File [] leftovers = file.getParentFile().listFiles( (aDirectory, aName) -> aName.startsWith( file.getName() ) && aName.endsWith( ".tmp" ) );
+        assertTrue( leftovers != null && leftovers.length == 0 );
+    }
+
+    private static void assertMapped(Interval<String> aExpected, MappedIntervalTree<String> aMappedTree, int aPoint) {
+        String message = "0x" + Integer.toHexString( aPoint );
+        int index = aMappedTree.getIntervalIndex( aPoint );
+        if (aExpected == null) {
+            assertTrue( message, index < 0 );
+        }
+        else {
+            assertTrue( message, index >= 0 );
+            assertEquals( message, ( int )aExpected.mStart, aMappedTree.getStart( index ) );
+            assertEquals( message, ( int )aExpected.mEnd, aMappedTree.getEnd( index ) );
+            assertEquals( message, aExpected.mAttachment, aMappedTree.getAttachment( aPoint ) );
+        }
+    }
+}
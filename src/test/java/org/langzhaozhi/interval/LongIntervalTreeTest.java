@@ -0,0 +1,73 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 64位区间树的查询结果必须与逐个区间比较一致,边界区分不开的前缀块各自加深,由 surefire 在 test 阶段运行
+ */
+public class LongIntervalTreeTest {
+    @Test
+    public void randomIntervals() {
+        Random random = new Random( 20150208 );
+        @SuppressWarnings("unchecked")
+        LongInterval<String> [] intervals = new LongInterval [ 10000 ];
+        long step = Long.divideUnsigned( -1L, intervals.length );
+        for (int i = 0; i < intervals.length; ++i) {
+            long start = i * step + (random.nextLong() >>> 2) % (step / 2);
+            long end = start + (random.nextLong() >>> 2) % (step / 2);
+            intervals[ i ] = new LongInterval<String>( "区间" + i, start, end );
+        }
+        LongIntervalTree<String> tree = LongIntervalTreeMaker.makeLongIntervalTree( intervals.clone() );
+        //只配置2层时大多数2字节前缀块中的边界区分不开,这些块各自加深
+        LongIntervalTree<String> shallowTree = LongIntervalTreeMaker.makeLongIntervalTree( intervals.clone(), 2 );
+        for (int i = 0; i < 100000; ++i) {
+            LongInterval<String> interval = intervals[ i % intervals.length ];
+            long point = i % 3 == 0 ? random.nextLong() : i % 3 == 1 ? interval.mStart + (i & 3) - 2 : interval.mEnd + (i & 3) - 2;
+            LongInterval<String> expected = interval.contains( point ) ? interval : null;
+            for (int j = 0; expected == null && j < intervals.length && i % 3 == 0; ++j) {
+                expected = intervals[ j ].contains( point ) ? intervals[ j ] : null;
+            }
+            if (i % 3 != 0 && expected == null) {
+                continue;//落在边界外的点由下面的随机点覆盖
+            }
+            assertSame( "0x" + Long.toHexString( point ), expected, tree.getInterval( point ) );
+            assertSame( "0x" + Long.toHexString( point ), expected, shallowTree.getInterval( point ) );
+        }
+    }
+
+    @Test
+    public void deepensOnlyAmbiguousBlocks() {
+        //按最高4字节对齐的区间只需4层
+        @SuppressWarnings("unchecked")
+        LongInterval<String> [] alignedIntervals = new LongInterval [] {
+            new LongInterval<String>( "A", 0x0000_0001_0000_0000L, 0x0000_0001_FFFF_FFFFL ), new LongInterval<String>( "B", 0x0000_0003_0000_0000L, 0x0000_0004_FFFF_FFFFL )
+        };
+        LongIntervalTree<String> alignedTree = LongIntervalTreeMaker.makeLongIntervalTree( alignedIntervals, 4 );
+        assertNull( alignedTree.getInterval( 0x0000_0000_FFFF_FFFFL ) );
+        assertSame( alignedIntervals[ 0 ], alignedTree.getInterval( 0x0000_0001_1234_5678L ) );
+        assertNull( alignedTree.getInterval( 0x0000_0002_0000_0000L ) );
+        assertSame( alignedIntervals[ 1 ], alignedTree.getInterval( 0x0000_0004_0000_0000L ) );
+        assertNull( alignedTree.getInterval( 0x0000_0005_0000_0000L ) );
+        assertEquals( 4, alignedTree.getMaxDepth() );
+        //C和D的边界落在同一个4字节前缀块中,只在这一块下面加深到8层,A、B所在的块仍然是4层
+        @SuppressWarnings("unchecked")
+        LongInterval<String> [] mixedIntervals = new LongInterval [] {
+            alignedIntervals[ 0 ], alignedIntervals[ 1 ], new LongInterval<String>( "C", 0x0000_0007_0000_0000L, 0x0000_0007_0000_0010L ), new LongInterval<String>( "D", 0x0000_0007_0000_0011L, 0x0000_0008_FFFF_FFFFL )
+        };
+        LongIntervalTree<String> mixedTree = LongIntervalTreeMaker.makeLongIntervalTree( mixedIntervals.clone(), 4 );
+        assertEquals( 4, mixedTree.getDepth() );
+        assertEquals( 8, mixedTree.getMaxDepth() );
+        assertSame( mixedIntervals[ 0 ], mixedTree.getInterval( 0x0000_0001_1234_5678L ) );
+        assertNull( mixedTree.getInterval( 0x0000_0006_FFFF_FFFFL ) );
+        assertSame( mixedIntervals[ 2 ], mixedTree.getInterval( 0x0000_0007_0000_0010L ) );
+        assertSame( mixedIntervals[ 3 ], mixedTree.getInterval( 0x0000_0007_0000_0011L ) );
+        assertSame( mixedIntervals[ 3 ], mixedTree.getInterval( 0x0000_0007_8000_0000L ) );
+        assertNull( mixedTree.getInterval( 0x0000_0009_0000_0000L ) );
+    }
+}
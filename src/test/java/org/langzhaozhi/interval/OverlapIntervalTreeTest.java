@@ -0,0 +1,43 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 重叠区间的全部匹配查询必须与逐个比较的结果一致,由 surefire 在 test 阶段运行
+ */
+public class OverlapIntervalTreeTest {
+    @Test
+    public void findsAllContainingIntervals() {
+        Random random = new Random( 20150209 );
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervals = new Interval [ 2000 ];
+        for (int i = 0; i < intervals.length; ++i) {
+            int start = random.nextInt( 1 << 20 );
+            intervals[ i ] = new Interval<String>( "区间" + i, start, start + random.nextInt( 1 << 12 ) );
+        }
+        intervals[ 0 ] = new Interval<String>( "全部", 0, 0xFFFF_FFFF );
+        intervals[ 1 ] = new Interval<String>( "尾部", 0xFFFF_FF00, 0xFFFF_FFFF );
+        Interval<String> [] originals = intervals.clone();
+        OverlapIntervalTree<String> tree = IntervalTreeMaker.makeOverlapIntervalTree( intervals );
+        for (int i = 0; i < 20000; ++i) {
+            int point = i < 19000 ? random.nextInt( (1 << 20) + (1 << 12) ) : random.nextInt();
+            String message = "0x" + Integer.toHexString( point );
+            int expectedCount = 0;
+            for (Interval<String> interval : originals) {
+                expectedCount += interval.contains( point ) ? 1 : 0;
+            }
+            Interval<String> [] all = tree.getAllIntervals( point );
+            assertEquals( message, expectedCount, all.length );
+            for (int j = 0; j < all.length; ++j) {
+                //按起点排序
+                assertTrue( message, all[ j ].contains( point ) && (j == 0 || all[ j - 1 ].mStart <= all[ j ].mStart) );
+            }
+        }
+        assertEquals( 2, tree.getAllIntervals( 0xFFFF_FFFF ).length );
+    }
+}
@@ -0,0 +1,66 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * 稀疏节点位图编码的查询与写时复制结果必须与模型一致,由 surefire 在 test 阶段运行
+ */
+public class SparseIntervalNodeTest {
+    @Test
+    public void sparseNodesMatchModel() {
+        Random random = new Random( 20150216 );
+        for (int round = 0; round < 200; ++round) {
+            //少量区间散布在一个 /8 或 /16 里,各层节点大多是稀疏的位图编码
+            int count = 1 + random.nextInt( 40 );
+            int mask = round % 2 == 0 ? 0x00FF_FFFF : 0x0000_FFFF;
+            TreeMap<Long, Interval<String>> model = new TreeMap<Long, Interval<String>>();
+            for (int i = 0; i < count; ++i) {
+                int start = 0x0A00_0000 | (random.nextInt() & mask);
+                int end = start + random.nextInt( 64 );
+                Map.Entry<Long, Interval<String>> floor = model.floorEntry( end & 0xFFFF_FFFFL );
+                if ((end & 0xFFFF_FFFFL) > 0x0AFF_FFFFL || floor != null && floor.getValue().mEnd >= (start & 0xFFFF_FFFFL)) {
+                    continue;
+                }
+                model.put( start & 0xFFFF_FFFFL, new Interval<String>( "区间" + i, start, end ) );
+            }
+            @SuppressWarnings("unchecked")
+            Interval<String> [] intervals = model.values().toArray( new Interval [ model.size() ] );
+            IntervalTree<String> tree = IntervalTreeMaker.makeIntervalTree( intervals.clone(), IntervalStride.STRIDE_8_8_8_8, null, true );
+            //默认不用位图编码,稀疏时位图编码的内存更少
+            IntervalTree<String> denseTree = IntervalTreeMaker.makeIntervalTree( intervals.clone() );
+            assertTrue( tree.isSparseNodes() );
+            assertFalse( denseTree.isSparseNodes() );
+            assertTrue( tree.estimateMemorySize() <= denseTree.estimateMemorySize() );
+            //再删掉一半加回来,走写时复制的路径
+            IntervalTree<String> cowTree = tree;
+            for (int i = 0; i < intervals.length; i += 2) {
+                cowTree = cowTree.without( intervals[ i ] );
+            }
+            for (int i = 0; i < intervals.length; i += 2) {
+                cowTree = cowTree.with( intervals[ i ] );
+            }
+            assertTrue( cowTree.isSparseNodes() );
+            for (int i = 0; i < 20000; ++i) {
+                int point = i < 10000 ? ( int )intervals[ random.nextInt( intervals.length ) ].mStart + random.nextInt( 128 ) - 32 : 0x0A00_0000 | (random.nextInt() & mask);
+                String message = "0x" + Integer.toHexString( point );
+                Map.Entry<Long, Interval<String>> floor = model.floorEntry( point & 0xFFFF_FFFFL );
+                Interval<String> expected = floor != null && floor.getValue().contains( point ) ? floor.getValue() : null;
+                assertSame( message, expected, tree.getInterval( point ) );
+                assertSame( message, expected, tree.getIntervalRecursive( point ) );
+                assertSame( message, expected, cowTree.getInterval( point ) );
+                assertSame( message, expected, denseTree.getInterval( point ) );
+            }
+            assertTrue( TestIntervalTree.checkBatch( tree, intervals, new int [] {
+                0x0A00_0000, ( int )intervals[ 0 ].mStart, ( int )intervals[ intervals.length - 1 ].mEnd, 0x0AFF_FFFF, 0x0B00_0000
+            } ) );
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.langzhaozhi.interval;
 
+import java.util.Random;
+
 public class TestIntervalTree {
     public static void main(String [] args) {
         TestIntervalTree.simpleTest();
@@ -49,4 +51,40 @@ public class TestIntervalTree {
         }
         System.err.println( "(0xFF00_FF00+1)-->" + tree.getInterval( 0xFF00_FF00 + 1 ) );//null
     }
+
+    /**
+     * 批量查询的区间和区间序号都要与逐个 getInterval 的结果一致,不一致的点打印出来
+     */
+    static boolean checkBatch(IntervalTree<String> aTree, Interval<String> [] aSortedIntervals, int [] aPoints) {
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervalOut = new Interval [ aPoints.length ];
+        int [] indexOut = new int [ aPoints.length ];
+        aTree.getIntervals( aPoints, 0, aPoints.length, intervalOut );
+        aTree.getIntervalIndexes( aPoints, 0, aPoints.length, indexOut );
+        boolean allOK = true;
+        for (int i = 0; i < aPoints.length; ++i) {
+            Interval<String> expected = aTree.getInterval( aPoints[ i ] );
+            if (intervalOut[ i ] != expected || (indexOut[ i ] < 0 ? null : aSortedIntervals[ indexOut[ i ] ]) != expected) {
+                System.err.println( "Error: 0x" + Integer.toHexString( aPoints[ i ] ) );
+                allOK = false;
+            }
+        }
+        return allOK;
+    }
+
+    /**
+     * 随机生成互不相交的区间,区间之间随机留有空隙
+     */
+    static Interval<String> [] randomIntervals(Random aRandom, int aCount) {
+        @SuppressWarnings("unchecked")
+        Interval<String> [] intervals = new Interval [ aCount ];
+        long step = (0x1_0000_0000L / aCount);
+        int bound = ( int )Math.min( step / 2, Integer.MAX_VALUE );
+        for (int i = 0; i < aCount; ++i) {
+            long start = i * step + aRandom.nextInt( bound );
+            long end = start + aRandom.nextInt( bound );
+            intervals[ i ] = new Interval<String>( "区间" + i, ( int )start, ( int )end );
+        }
+        return intervals;
+    }
 }
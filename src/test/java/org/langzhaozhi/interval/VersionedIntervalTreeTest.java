@@ -0,0 +1,98 @@
+package org.langzhaozhi.interval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 按版本保存的区间树在每个版本上的查询结果必须与该版本单独构造的区间树一致,由 surefire 在 test 阶段运行
+ */
+public class VersionedIntervalTreeTest {
+    @Test
+    public void everyReleaseMatches() {
+        Random random = new Random( 20150225 );
+        int releaseCount = 60;
+        long [] versions = new long [ releaseCount ];
+        @SuppressWarnings("unchecked")
+        IntervalTree<String> [] releases = new IntervalTree [ releaseCount ];
+        @SuppressWarnings("unchecked")
+        Interval<String> [] [] releaseIntervals = new Interval [ releaseCount ] [];
+        Interval<String> [] intervals = TestIntervalTree.randomIntervals( random, 50000 );
+        for (int release = 0; release < releaseCount; ++release) {
+            versions[ release ] = 20150101 + release * 3;
+            if (release > 0) {
+                //每次发布改动约0.5%的区间:换归属、缩短、去掉、或者把空隙补上一个新区间
+                intervals = intervals.clone();
+                for (int i = 0; i < intervals.length / 200; ++i) {
+                    int index = random.nextInt( intervals.length - 1 );
+                    Interval<String> interval = intervals[ index ];
+                    switch (random.nextInt( 4 )) {
+                        case 0 :
+                            intervals[ index ] = interval == null ? null : new Interval<String>( interval.mAttachment + "@" + release, ( int )interval.mStart, ( int )interval.mEnd );
+                            break;
+                        case 1 :
+                            intervals[ index ] = interval == null || interval.mStart == interval.mEnd ? interval : new Interval<String>( interval.mAttachment, ( int )interval.mStart + 1, ( int )interval.mEnd );
+                            break;
+                        case 2 :
+                            intervals[ index ] = null;
+                            break;
+                        default :
+                            //randomIntervals 相邻区间的起点相差 2^32/50000,补上的新区间不会碰到前一个区间
+                            Interval<String> next = intervals[ index + 1 ];
+                            if (interval == null && next != null && next.mStart > 0x1_0000L) {
+                                intervals[ index ] = new Interval<String>( "新区间" + release, ( int )next.mStart - 0x1_0000, ( int )next.mStart - 1 );
+                            }
+                            break;
+                    }
+                }
+            }
+            @SuppressWarnings("unchecked")
+            Interval<String> [] liveIntervals = Arrays.stream( intervals ).filter( (aInterval) -> aInterval != null ).toArray( Interval []::new );
+            releaseIntervals[ release ] = liveIntervals;
+            releases[ release ] = IntervalTreeMaker.makeIntervalTree( releaseIntervals[ release ].clone() );
+        }
+        VersionedIntervalTree<String> versionedTree = IntervalTreeMaker.makeVersionedIntervalTree( Arrays.copyOf( versions, releaseCount - 1 ), Arrays.copyOf( releases, releaseCount - 1 ) );
+        versionedTree = versionedTree.withRelease( versions[ releaseCount - 1 ], releases[ releaseCount - 1 ] );
+        assertEquals( releaseCount, versionedTree.getReleaseCount() );
+        for (int i = 0; i < 1000000; ++i) {
+            int release = random.nextInt( releaseCount );
+            Interval<String> [] near = releaseIntervals[ release ];
+            Interval<String> interval = near[ random.nextInt( near.length ) ];
+            int point = (i & 3) == 0 ? random.nextInt() : ( int )((i & 1) == 0 ? interval.mStart : interval.mEnd) + ((i & 2) == 0 ? 0 : (i & 4) == 0 ? -1 : 1);
+            //两次发布之间的版本号看到的是前一次发布
+            long version = versions[ release ] + (i & 1);
+            String message = "0x" + Integer.toHexString( point ) + " version " + version;
+            Interval<String> expect = releases[ release ].getInterval( point );
+            Interval<String> actual = versionedTree.getInterval( point, version );
+            if (expect == null) {
+                assertNull( message, actual );
+            }
+            else {
+                VersionedIntervalTreeTest.assertSameInterval( message, expect, actual );
+            }
+            assertNull( message, versionedTree.getInterval( point, versions[ 0 ] - 1 ) );
+        }
+        for (int release : new int [] {
+            0, releaseCount / 2, releaseCount - 1
+        }) {
+            Interval<String> [] expects = releaseIntervals[ release ];
+            Interval<String> [] actuals = versionedTree.toIntervalTree( versions[ release ] ).toIntervalArray();
+            assertEquals( "release " + release, expects.length, actuals.length );
+            for (int i = 0; i < expects.length; ++i) {
+                VersionedIntervalTreeTest.assertSameInterval( "release " + release, expects[ i ], actuals[ i ] );
+            }
+        }
+    }
+
+    private static void assertSameInterval(String aMessage, Interval<String> aExpected, Interval<String> aActual) {
+        assertNotNull( aMessage, aActual );
+        assertEquals( aMessage, aExpected.mStart, aActual.mStart );
+        assertEquals( aMessage, aExpected.mEnd, aActual.mEnd );
+        assertEquals( aMessage, aExpected.mAttachment, aActual.mAttachment );
+    }
+}